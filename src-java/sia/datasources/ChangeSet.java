@@ -0,0 +1,142 @@
+package sia.datasources;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Change set of an import.
+ *
+ * IDs of contacts, contact accounts and user accounts a save inserted or
+ * changed, so dictionaries and views held in memory can be brought up to
+ * date without reading everything again. A contact is updated when it gets
+ * new accounts, a contact account when it gets new messages.
+ *
+ * @author jumper
+ */
+public class ChangeSet {
+	private Set<Integer> insertedContacts = new LinkedHashSet<Integer>();
+	private Set<Integer> updatedContacts = new LinkedHashSet<Integer>();
+	private Set<Integer> insertedContactAccounts = new LinkedHashSet<Integer>();
+	private Set<Integer> updatedContactAccounts = new LinkedHashSet<Integer>();
+	private Set<Integer> insertedUserAccounts = new LinkedHashSet<Integer>();
+
+	/**
+	 * Contact inserted
+	 * @param id contact ID
+	 */
+	public void contactInserted(int id) {
+		insertedContacts.add(id);
+		updatedContacts.remove(id);
+	}
+
+	/**
+	 * Contact updated, ignored for contacts inserted by the same save
+	 * @param id contact ID
+	 */
+	public void contactUpdated(int id) {
+		if (!insertedContacts.contains(id))
+			updatedContacts.add(id);
+	}
+
+	/**
+	 * Contact account inserted
+	 * @param id contact account ID
+	 */
+	public void contactAccountInserted(int id) {
+		insertedContactAccounts.add(id);
+		updatedContactAccounts.remove(id);
+	}
+
+	/**
+	 * Contact account updated, ignored for accounts inserted by the same save
+	 * @param id contact account ID
+	 */
+	public void contactAccountUpdated(int id) {
+		if (!insertedContactAccounts.contains(id))
+			updatedContactAccounts.add(id);
+	}
+
+	/**
+	 * User account inserted
+	 * @param id user account ID
+	 */
+	public void userAccountInserted(int id) {
+		insertedUserAccounts.add(id);
+	}
+
+	/**
+	 * Add changes of a later save
+	 * @param changes change set of a save which came after those already added
+	 */
+	public void add(ChangeSet changes) {
+		for (int id : changes.insertedContacts)
+			contactInserted(id);
+		for (int id : changes.updatedContacts)
+			contactUpdated(id);
+		for (int id : changes.insertedContactAccounts)
+			contactAccountInserted(id);
+		for (int id : changes.updatedContactAccounts)
+			contactAccountUpdated(id);
+		insertedUserAccounts.addAll(changes.insertedUserAccounts);
+	}
+
+	/**
+	 * Returns inserted contacts
+	 * @return contact IDs in insert order
+	 */
+	public Set<Integer> getInsertedContacts() {
+		return Collections.unmodifiableSet(insertedContacts);
+	}
+
+	/**
+	 * Returns updated contacts
+	 * @return contact IDs
+	 */
+	public Set<Integer> getUpdatedContacts() {
+		return Collections.unmodifiableSet(updatedContacts);
+	}
+
+	/**
+	 * Returns inserted contact accounts
+	 * @return contact account IDs in insert order
+	 */
+	public Set<Integer> getInsertedContactAccounts() {
+		return Collections.unmodifiableSet(insertedContactAccounts);
+	}
+
+	/**
+	 * Returns updated contact accounts
+	 * @return contact account IDs
+	 */
+	public Set<Integer> getUpdatedContactAccounts() {
+		return Collections.unmodifiableSet(updatedContactAccounts);
+	}
+
+	/**
+	 * Returns inserted user accounts
+	 * @return user account IDs in insert order
+	 */
+	public Set<Integer> getInsertedUserAccounts() {
+		return Collections.unmodifiableSet(insertedUserAccounts);
+	}
+
+	/**
+	 * Returns true if contacts and accounts didn't change
+	 * @return true if there is nothing to apply
+	 */
+	public boolean isEmpty() {
+		return insertedContacts.isEmpty() && updatedContacts.isEmpty() && insertedContactAccounts.isEmpty()
+				&& updatedContactAccounts.isEmpty() && insertedUserAccounts.isEmpty();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "contacts +" + insertedContacts.size() + " ~" + updatedContacts.size() + ", contact accounts +"
+				+ insertedContactAccounts.size() + " ~" + updatedContactAccounts.size() + ", user accounts +"
+				+ insertedUserAccounts.size();
+	}
+}
@@ -1,9 +1,16 @@
 package sia.datasources;
 
+import java.io.File;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.sormula.SormulaException;
 
@@ -15,10 +22,16 @@ import sia.models.Message;
 import sia.models.Protocol;
 import sia.models.UserAccount;
 import sia.ui.SIA;
+import sia.utils.BulkInsert;
 import sia.utils.Config;
+import sia.utils.ConversationIndex;
 import sia.utils.Dictionaries;
+import sia.utils.ImportCheckpoint;
+import sia.utils.MessageDeduplicator;
 import sia.utils.ORM;
 import sia.utils.ParserFactory;
+import sia.utils.ProgressMonitor;
+import sia.utils.Staging;
 
 /**
  * Data source
@@ -29,6 +42,10 @@ public abstract class DataSource {
 	public enum Progress {
 		SAVE_PROGRESS, CONTACTS_PROGRESS, USER_ACCOUNTS_PROGRESS
 	}
+	/**
+	 * Messages staged before they are copied to the file database with a checkpoint
+	 */
+	public static final int DEFAULT_CHECKPOINT_SIZE = 50000;
 	protected String[] extensions;
 	protected String[][]  descriptions;
 	protected List<UserAccount> userAccounts;
@@ -36,8 +53,17 @@ public abstract class DataSource {
 	protected String[] passwordDescriptions;
 	protected Map<String,Protocol> protocols;
 	protected Parser parser;
-	private int saveProgress = 0;
-	protected static String parserClassName;
+	private ProgressMonitor saveProgress = new ProgressMonitor("save");
+	private long savedRows = 0;
+	private double saveRate = 0;
+	private int duplicatesCount = 0;
+	private int resumedCount = 0;
+	private String[] files;
+	private ImportCheckpoint checkpoint;
+	private List<Conversation> parsedConversations;
+	private Staging staging;
+	private ChangeSet changes;
+	protected String parserClassName;
 	
 	/**
 	 * Returns accepted by parser file extensions 
@@ -79,25 +105,53 @@ public abstract class DataSource {
 	 * @param files
 	 */
 	public void loadFiles(String[] files) throws Exception {
+		this.files = files;
 		parser.start();
 		parser.loadFiles(files);
+		if (files != null)
+			for (String name : files)
+				parser.getUserAccountsProgress().addBytes(new File(name).length());
+	}
+
+	/**
+	 * Returns identity of imported archive, used to find checkpoint of an interrupted import
+	 * @return source identity or null if import can't be resumed
+	 */
+	protected String getSourceIdentity() {
+		if (files == null || files.length == 0)
+			return null;
+		StringBuilder identity = new StringBuilder(getClass().getSimpleName());
+		for (String name : files) {
+			File file = new File(name);
+			identity.append('|').append(file.getAbsolutePath()).append(':').append(file.length()).append(':')
+					.append(file.lastModified());
+		}
+		return identity.toString();
 	}
 
 	/**
 	 * Get specified operation progress
 	 * @param progress
-	 * @return
+	 * @return progress percent
 	 */
 	public int getProgress(Progress progress) {
+		return getProgressMonitor(progress).getPercent();
+	}
+
+	/**
+	 * Returns monitor of specified operation
+	 * @param progress
+	 * @return progress monitor
+	 */
+	public ProgressMonitor getProgressMonitor(Progress progress) {
 		switch (progress) {
-		case SAVE_PROGRESS:
-			return saveProgress;
 		case CONTACTS_PROGRESS:
-			return parser.getContactsLoadProgress();
+			return parser.getContactsProgress();
 		case USER_ACCOUNTS_PROGRESS:
-			return parser.getUserAccountsLoadProgress();
+			return parser.getUserAccountsProgress();
+		default:
+			return saveProgress;
 		}
-		return 0;
 	}
 
 	/**
@@ -105,7 +159,7 @@ public abstract class DataSource {
 	 * @return saveProgress
 	 */
 	public int getSaveProgress() {
-		return saveProgress;
+		return saveProgress.getPercent();
 	}
 
 	/**
@@ -142,9 +196,23 @@ public abstract class DataSource {
 	 */
 	public List<Contact> getContacts() throws Exception {
 		if(contacts==null) {
+			// looked up this late, identity may depend on what the parser found out (IMAP UIDVALIDITY)
+			checkpoint = new ImportCheckpoint(SIA.getInstance().getConnection(), getSourceIdentity());
+			parser.setResumePosition(checkpoint.getPosition());
 			parser.start();
 			contacts = parser.getContacts(userAccounts);
 			parser.setContactNames(contacts);
+			parsedConversations = new ArrayList<Conversation>();
+			boolean positioned = false;
+			for (Contact contact : contacts)
+				for (ContactAccount contactAccount : contact.getContactAccounts())
+					for (Conversation conversation : contactAccount.getConversations()) {
+						parsedConversations.add(conversation);
+						positioned |= conversation.getPosition() > 0;
+					}
+			// parser order is stable for the same archive
+			for (int i = 0; !positioned && i < parsedConversations.size(); i++)
+				parsedConversations.get(i).setPosition(i + 1);
 		}
 		return contacts;
 	}
@@ -187,60 +255,210 @@ public abstract class DataSource {
 	}
 
 	/**
-	 * Save all imported data
+	 * Save all imported data, IDs of inserted and changed contacts and accounts
+	 * are collected in the change set
 	 * @throws SQLException 
 	 * @throws SormulaException 
 	 */
 	public final void save(List<Contact> contacts) throws SQLException, SormulaException {
-		saveProgress = 0;
+		saveProgress.start(parser.getMessagesCount());
+		saveRate = 0;
+		savedRows = 0;
+		duplicatesCount = 0;
+		resumedCount = 0;
+		changes = new ChangeSet();
 		int messagesCount = parser.getMessagesCount();
-		int msgs = 0;
+		long startTime = System.currentTimeMillis();
 		ORM orm = SIA.getInstance().getORM();
-		SIA.getInstance().tmpInit();
-		for (UserAccount userAccount : userAccounts) 
-			if (userAccount.getId() == 0)
-				orm.getTempTable(UserAccount.class).insert(userAccount);
-		for (Contact contact : contacts) {
-			if (contact.getId() == 0)
-				orm.getTempTable(Contact.class).insert(contact);
-			for (ContactAccount contactAccount : contact.getContactAccounts()) {
-				if (contactAccount.getId() == 0) 
-					orm.getTempTable(ContactAccount.class).insert(contactAccount);
-				for (Conversation conversation : contactAccount.getConversations()) {
-					conversation.setContactAccount(contactAccount);
-					if (conversation.getId() == 0) {
-						long begin = conversation.getTime().getTime();
-						long end = conversation.getEndTime().getTime();
-						long interval = Config.hasValue("import.conversation_interval") ? Config.getLong("import.conversation_interval") : 3600000L;
-						Conversation conv = orm.getTable(Conversation.class).selectCustom(
-							"WHERE (time BETWEEN "+begin+" AND "+end+
-							" OR endTime BETWEEN "+begin+" AND "+end+
-							" OR "+begin+" BETWEEN time AND (endTime + "+interval+")"+
-							" OR "+end+" BETWEEN (time - "+interval+") AND endTime)" +
-							" AND contactAccountId = "+conversation.getContactAccountId() +
-							" AND userAccountId = "+conversation.getUserAccountId());
-						if (conv != null)
-							conversation.setId(conv.getId());
-						else
-							orm.getTempTable(Conversation.class).insert(conversation);
-						for (Message message : conversation.getMessages()) {
-							if (message.getId() == 0) {
-								saveProgress = msgs++ / messagesCount;
-								try {
-									orm.getTempTable(Message.class).insert(message);
-								} catch (SormulaException e) {
-									if (e.getMessage().indexOf("unique") < 0)
-										throw e;
+		Connection connection = SIA.getInstance().getConnection();
+		staging = Staging.choose(messagesCount);
+		boolean direct = staging == Staging.DIRECT;
+		SIA.getInstance().tmpAttach(staging == Staging.DISK);
+		if (!direct)
+			SIA.getInstance().tmpInit();
+		long interval = Config.hasValue("import.conversation_interval") ? Config.getLong("import.conversation_interval") : 3600000L;
+		int queueSize = Config.hasValue("import.queue_size") ? Config.getInt("import.queue_size") : BulkInsert.DEFAULT_QUEUE_SIZE;
+		int checkpointSize = Config.hasValue("import.checkpoint_size") ? Config.getInt("import.checkpoint_size") : DEFAULT_CHECKPOINT_SIZE;
+		if (checkpoint == null)
+			checkpoint = new ImportCheckpoint(connection, null);
+		if (parsedConversations != null)
+			checkpoint.track(parsedConversations);
+		Set<Conversation> own = Collections.newSetFromMap(new IdentityHashMap<Conversation, Boolean>());
+		if (parsedConversations != null)
+			own.addAll(parsedConversations);
+		ConversationIndex index = new ConversationIndex(connection, interval);
+		MessageDeduplicator deduplicator = new MessageDeduplicator(connection);
+		Set<Integer> touched = new HashSet<Integer>();
+		List<Conversation> pending = new ArrayList<Conversation>();
+		int chunk = 0;
+		BulkInsert bulk = orm.getBulkInsert(!direct);
+		bulk.setProgressMonitor(saveProgress);
+		bulk.startWriter(queueSize);
+		boolean written = false;
+		try {
+			for (UserAccount userAccount : userAccounts) 
+				if (userAccount.getId() == 0) {
+					bulk.insert(UserAccount.class, userAccount);
+					changes.userAccountInserted(userAccount.getId());
+				}
+			for (Contact contact : contacts) {
+				if (contact.getId() == 0) {
+					bulk.insert(Contact.class, contact);
+					changes.contactInserted(contact.getId());
+				}
+				for (ContactAccount contactAccount : contact.getContactAccounts()) {
+					if (contactAccount.getId() == 0) {
+						bulk.insert(ContactAccount.class, contactAccount);
+						changes.contactAccountInserted(contactAccount.getId());
+						changes.contactUpdated(contact.getId());
+					}
+					for (Conversation conversation : contactAccount.getConversations()) {
+						conversation.setContactAccount(contactAccount);
+						if (conversation.getId() == 0) {
+							if (own.contains(conversation) && checkpoint.isSaved(conversation)) {
+								saveProgress.add(conversation.getMessages().size());
+								resumedCount++;
+								continue;
+							}
+							int id = index.find(conversation.getContactAccountId(), conversation.getUserAccountId(),
+									conversation.getTime().getTime(), conversation.getEndTime().getTime());
+							if (id != 0)
+								conversation.setId(id);
+							else
+								bulk.insert(Conversation.class, conversation);
+							for (Message message : conversation.getMessages()) {
+								if (message.getId() == 0) {
+									saveProgress.increment();
+									if (deduplicator.add(message, id != 0)) {
+										bulk.insert(Message.class, message);
+										touched.add(message.getConversationId());
+										changes.contactAccountUpdated(contactAccount.getId());
+									}
 								}
 							}
+							if (own.contains(conversation))
+								pending.add(conversation);
+							chunk += conversation.getMessages().size();
+							if (checkpointSize > 0 && chunk >= checkpointSize) {
+								// make everything so far durable and start a new staging chunk
+								bulk.close();
+								savedRows += bulk.getRowsWritten();
+								flush(connection, touched, pending, direct, false);
+								if (!direct)
+									SIA.getInstance().tmpInit();
+								bulk = orm.getBulkInsert(!direct);
+								bulk.setProgressMonitor(saveProgress);
+								bulk.startWriter(queueSize);
+								chunk = 0;
+							}
 						}
 					}
 				}
 			}
+			bulk.close();
+			written = true;
+		} finally {
+			index.close();
+			deduplicator.close();
+			if (!written) {
+				bulk.abort();
+				SIA.getInstance().tmpAttach(false);
+			}
+		}
+		savedRows += bulk.getRowsWritten();
+		long time = System.currentTimeMillis() - startTime;
+		saveRate = time > 0 ? savedRows * 1000.0d / time : savedRows;
+		duplicatesCount = deduplicator.getDuplicates();
+		flush(connection, touched, pending, direct, true);
+		checkpoint = null;
+		SIA.getInstance().tmpAttach(false);
+		SIA.getInstance().updateConversations();
+		SIA.getInstance().updateTrigramIndex();
+		SIA.getInstance().checkpoint();
+		saveProgress.finish();
+	}
+
+	/**
+	 * Copy staged rows to the file database together with the import checkpoint
+	 * @param connection database connection
+	 * @param touched conversations with new messages, cleared
+	 * @param pending saved conversations of this source, cleared
+	 * @param direct true if rows were written straight into the file database
+	 * @param finished true if import is finished and checkpoint can be removed
+	 * @throws SQLException
+	 */
+	private void flush(Connection connection, Set<Integer> touched, List<Conversation> pending, boolean direct,
+			boolean finished) throws SQLException {
+		SIA.getInstance().markConversations(touched);
+		touched.clear();
+		for (Conversation conversation : pending)
+			checkpoint.saved(conversation);
+		pending.clear();
+		connection.setAutoCommit(false);
+		try {
+			if (!direct)
+				SIA.getInstance().tmpSave();
+			SIA.getInstance().indexMessages();
+			SIA.getInstance().rollupActivity();
+			if (finished)
+				checkpoint.clear();
+			else
+				checkpoint.write();
+			connection.commit();
+		} catch (SQLException e) {
+			connection.rollback();
+			throw e;
+		} finally {
+			connection.setAutoCommit(true);
 		}
-		SIA.getInstance().tmpSave();
-		SIA.getInstance().updateConversations(userAccounts);
-		saveProgress = 100;
+	}
+
+	/**
+	 * Returns staging strategy of last save
+	 * @return staging strategy
+	 */
+	public Staging getStaging() {
+		return staging;
+	}
+
+	/**
+	 * Returns contacts and accounts inserted or changed by last save
+	 * @return change set, null before save
+	 */
+	public ChangeSet getChanges() {
+		return changes;
+	}
+
+	/**
+	 * Returns number of conversations skipped because an interrupted import already saved them
+	 * @return resumed conversations
+	 */
+	public int getResumedCount() {
+		return resumedCount;
+	}
+
+	/**
+	 * Returns number of rows written by last save
+	 * @return rows written
+	 */
+	public long getSavedRows() {
+		return savedRows;
+	}
+
+	/**
+	 * Returns number of duplicate messages dropped by last save
+	 * @return duplicates count
+	 */
+	public int getDuplicatesCount() {
+		return duplicatesCount;
+	}
+
+	/**
+	 * Returns write throughput of last save
+	 * @return rows per second
+	 */
+	public double getSaveRate() {
+		return saveRate;
 	}
 
 	public void mapContacts(List<Contact> dbContacts) {
@@ -38,4 +38,14 @@ public class GtalkDataSource extends DataSource {
 		return null;
 	}
 
+	@Override
+	protected String getSourceIdentity() {
+		String[] passwords = parser.getPasswords();
+		if (passwords == null || passwords.length < 3 || parser.getSourceVersion() == null)
+			return null;
+		// login, chats label and UIDVALIDITY of the label, never the password;
+		// positions are message UIDs, meaningless once UIDVALIDITY changes
+		return getClass().getSimpleName() + "|" + passwords[0].toLowerCase() + "|" + passwords[2] + "|"
+				+ parser.getSourceVersion();
+	}
 }
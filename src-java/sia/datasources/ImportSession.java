@@ -0,0 +1,282 @@
+package sia.datasources;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import sia.models.Contact;
+import sia.models.ContactAccount;
+import sia.models.UserAccount;
+import sia.ui.SIA;
+import sia.utils.Config;
+import sia.utils.ProgressLogger;
+
+/**
+ * Import session.
+ *
+ * Imports several data sources at once. Files are parsed on a pool of worker
+ * threads; parsed sources are handed over, in order of completion, to a single
+ * persistence thread which is the only one touching the database. Before a
+ * source is saved its user accounts and contacts are resolved against those
+ * already known to the session, so an account found in two archives ends up
+ * in one row. The session resolves against its own copy of the contacts, the
+ * caller's list is brought up to date with {@link #getChanges()} afterwards.
+ *
+ * @author jumper
+ */
+public class ImportSession {
+	private List<DataSource> dataSources;
+	private List<String[]> files;
+	private List<Contact> contacts;
+	private List<UserAccount> userAccounts;
+	private int threads;
+	private volatile boolean cancel;
+	private long savedRows;
+	private int duplicatesCount;
+	private ChangeSet changes;
+	private ProgressLogger progressLogger = new ProgressLogger();
+
+	private static final Logger logger = Logger.getLogger(ImportSession.class);
+
+	/**
+	 * Default and only constructor
+	 *
+	 * @param contacts contacts already stored in the database, copied and left unchanged
+	 * @param threads number of parsing threads, 0 for import.threads or number of processors
+	 */
+	public ImportSession(List<Contact> contacts, int threads) {
+		this.contacts = new ArrayList<Contact>();
+		for (Contact contact : contacts)
+			this.contacts.add(contact.clone());
+		this.userAccounts = new ArrayList<UserAccount>();
+		this.dataSources = new ArrayList<DataSource>();
+		this.files = new ArrayList<String[]>();
+		if (threads <= 0)
+			threads = Config.hasValue("import.threads") ? Config.getInt("import.threads") : Runtime.getRuntime()
+					.availableProcessors();
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Add data source to the session. Parser is created here, in the caller thread.
+	 * Passwords and user accounts (when archive doesn't contain them) have to be
+	 * set on the data source beforehand.
+	 *
+	 * @param dataSource data source
+	 * @param files archive files
+	 */
+	public void add(DataSource dataSource, String[] files) {
+		dataSource.initParser();
+		dataSource.getProgressMonitor(DataSource.Progress.CONTACTS_PROGRESS).addListener(progressLogger);
+		dataSource.getProgressMonitor(DataSource.Progress.SAVE_PROGRESS).addListener(progressLogger);
+		dataSources.add(dataSource);
+		this.files.add(files);
+	}
+
+	/**
+	 * Parse and save all data sources, returns when everything is saved
+	 *
+	 * @throws Exception first failure of any source, thrown once the source being saved
+	 *         is done; remaining sources are cancelled
+	 */
+	public void run() throws Exception {
+		cancel = false;
+		savedRows = 0;
+		duplicatesCount = 0;
+		changes = new ChangeSet();
+		ExecutorService parsers = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, dataSources.size())),
+				new NamedThreadFactory("import-parser"));
+		ExecutorService writer = Executors.newSingleThreadExecutor(new NamedThreadFactory("import-writer"));
+		CompletionService<DataSource> parsed = new ExecutorCompletionService<DataSource>(parsers);
+		List<Future<?>> saves = new ArrayList<Future<?>>();
+		try {
+			for (int i = 0; i < dataSources.size(); i++) {
+				final DataSource dataSource = dataSources.get(i);
+				final String[] sourceFiles = files.get(i);
+				parsed.submit(new Callable<DataSource>() {
+					@Override
+					public DataSource call() throws Exception {
+						dataSource.loadFiles(sourceFiles);
+						dataSource.getUserAccounts();
+						dataSource.getContacts();
+						return dataSource;
+					}
+				});
+			}
+			for (int i = 0; i < dataSources.size(); i++) {
+				final DataSource dataSource = parsed.take().get();
+				saves.add(writer.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						if (cancel)
+							return null;
+						try {
+							persist(dataSource);
+						} catch (Exception e) {
+							cancel();
+							throw e;
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<?> save : saves)
+				save.get();
+		} catch (ExecutionException e) {
+			cancel();
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		} catch (InterruptedException e) {
+			cancel();
+			throw e;
+		} finally {
+			parsers.shutdownNow();
+			writer.shutdown();
+			awaitTermination(writer);
+		}
+	}
+
+	/**
+	 * Wait until a save in progress is done, the database is not left to the
+	 * writer thread when the session returns
+	 */
+	private static void awaitTermination(ExecutorService writer) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				if (writer.awaitTermination(1, TimeUnit.SECONDS))
+					break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Stop parsers and skip sources not saved yet
+	 */
+	public void cancel() {
+		cancel = true;
+		for (DataSource dataSource : dataSources)
+			dataSource.stopParserCurrentAction();
+	}
+
+	/**
+	 * Returns overall progress: parsing and saving of every source weigh the same
+	 *
+	 * @return progress percent
+	 */
+	public int getProgress() {
+		if (dataSources.isEmpty())
+			return 100;
+		int progress = 0;
+		for (DataSource dataSource : dataSources)
+			progress += dataSource.getProgress(DataSource.Progress.CONTACTS_PROGRESS)
+					+ dataSource.getProgress(DataSource.Progress.SAVE_PROGRESS);
+		return progress / (2 * dataSources.size());
+	}
+
+	/**
+	 * Returns number of rows written by all sources
+	 *
+	 * @return rows written
+	 */
+	public long getSavedRows() {
+		return savedRows;
+	}
+
+	/**
+	 * Returns contacts and accounts changed by all sources saved
+	 *
+	 * @return change set, null before {@link #run()}
+	 */
+	public ChangeSet getChanges() {
+		return changes;
+	}
+
+	/**
+	 * Returns number of duplicate messages dropped by all sources
+	 *
+	 * @return duplicates count
+	 */
+	public int getDuplicatesCount() {
+		return duplicatesCount;
+	}
+
+	/**
+	 * Resolve user accounts and contacts of parsed source and save it.
+	 * Runs in the persistence thread only.
+	 *
+	 * @param dataSource parsed data source
+	 * @throws Exception
+	 */
+	private void persist(DataSource dataSource) throws Exception {
+		for (UserAccount userAccount : dataSource.getUserAccounts()) {
+			int index = userAccounts.indexOf(userAccount);
+			if (userAccount.getId() == 0 && index != -1)
+				userAccount.setId(userAccounts.get(index).getId());
+		}
+		dataSource.mapContacts(contacts);
+		for (Contact contact : dataSource.getContacts()) {
+			Contact known = findContact(contact.getName());
+			if (known == null) {
+				contacts.add(contact);
+			} else {
+				for (ContactAccount contactAccount : contact.getContactAccounts())
+					known.addContactAccount(contactAccount);
+			}
+		}
+		try {
+			dataSource.save(contacts);
+		} catch (Exception e) {
+			SIA.getInstance().cleanup();
+			SIA.getInstance().updateConversations();
+			throw e;
+		}
+		for (UserAccount userAccount : dataSource.getUserAccounts())
+			if (!userAccounts.contains(userAccount))
+				userAccounts.add(userAccount);
+		changes.add(dataSource.getChanges());
+		savedRows += dataSource.getSavedRows();
+		duplicatesCount += dataSource.getDuplicatesCount();
+		logger.debug("import session: saved " + dataSource.getClass().getSimpleName() + ", "
+				+ dataSource.getSavedRows() + " rows");
+	}
+
+	/**
+	 * Contact names are unique regardless of case
+	 */
+	private Contact findContact(String name) {
+		for (Contact contact : contacts)
+			if (contact.getName().equalsIgnoreCase(name))
+				return contact;
+		return null;
+	}
+
+	private static class NamedThreadFactory implements ThreadFactory {
+		private String name;
+		private int count;
+
+		public NamedThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public synchronized Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, name + "-" + ++count);
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -5,6 +5,7 @@ import java.util.List;
 import sia.models.Contact;
 import sia.models.UserAccount;
 import sia.utils.Config;
+import sia.utils.ProgressMonitor;
 
 /**
  * Abstract parser
@@ -12,11 +13,13 @@ import sia.utils.Config;
  * @author jumper
  */
 public abstract class Parser {
-	protected int contactsLoadProgress = 0;
-	protected int userAccountsLoadProgress = 0;
+	protected ProgressMonitor contactsProgress = new ProgressMonitor("contacts");
+	protected ProgressMonitor userAccountsProgress = new ProgressMonitor("user accounts");
 	protected int messagesCount = 0;
 	protected String[] passwords = new String[0];
 	protected boolean abort;
+	protected int resumePosition = 0;
+	protected String sourceVersion;
 
 	/**
 	 * Load required files (if neccessary)
@@ -68,7 +71,7 @@ public abstract class Parser {
 	 * @return user accounts load progress
 	 */
 	public int getUserAccountsLoadProgress() {
-		return userAccountsLoadProgress;
+		return userAccountsProgress.getPercent();
 	}
 
 	/**
@@ -77,7 +80,7 @@ public abstract class Parser {
 	 * @param userAccountsLoadProgress
 	 */
 	public void setUserAccountsLoadProgress(int userAccountsLoadProgress) {
-		this.userAccountsLoadProgress = userAccountsLoadProgress;
+		setPercent(userAccountsProgress, userAccountsLoadProgress);
 	}
 
 	/**
@@ -86,7 +89,7 @@ public abstract class Parser {
 	 * @return contacts load progress
 	 */
 	public int getContactsLoadProgress() {
-		return contactsLoadProgress;
+		return contactsProgress.getPercent();
 	}
 
 	/**
@@ -95,7 +98,38 @@ public abstract class Parser {
 	 * @param contactsLoadProgress
 	 */
 	public void setContactsLoadProgress(int contactsLoadProgress) {
-		this.contactsLoadProgress = contactsLoadProgress;
+		setPercent(contactsProgress, contactsLoadProgress);
+	}
+
+	/**
+	 * Returns user accounts load progress monitor
+	 * 
+	 * @return progress monitor
+	 */
+	public ProgressMonitor getUserAccountsProgress() {
+		return userAccountsProgress;
+	}
+
+	/**
+	 * Returns contacts load progress monitor, parsers report items (messages,
+	 * conversations) done out of total
+	 * 
+	 * @return progress monitor
+	 */
+	public ProgressMonitor getContactsProgress() {
+		return contactsProgress;
+	}
+
+	/**
+	 * Percent progress of parsers not counting items: 0 starts, 100 finishes
+	 */
+	private static void setPercent(ProgressMonitor monitor, int percent) {
+		if (percent <= 0)
+			monitor.start(100);
+		else if (percent >= 100)
+			monitor.finish();
+		else
+			monitor.set(percent, 100);
 	}
 
 	/**
@@ -116,6 +150,35 @@ public abstract class Parser {
 		this.messagesCount = messagesCount;
 	}
 
+	/**
+	 * Returns resume position: conversations at or before it are already saved
+	 * and parsers able to seek may skip them
+	 * 
+	 * @return resume position, 0 to parse everything
+	 */
+	public int getResumePosition() {
+		return resumePosition;
+	}
+
+	/**
+	 * Set resumePosition
+	 * 
+	 * @param resumePosition
+	 */
+	public void setResumePosition(int resumePosition) {
+		this.resumePosition = resumePosition;
+	}
+
+	/**
+	 * Returns version of the source, for sources whose positions are valid
+	 * only as long as the source keeps it (UIDVALIDITY of an IMAP mailbox)
+	 * 
+	 * @return source version, null if unknown or not needed
+	 */
+	public String getSourceVersion() {
+		return sourceVersion;
+	}
+
 	/**
 	 * Stop current action
 	 */
@@ -29,6 +29,8 @@ public class Conversation implements Comparable<Conversation> {
 	private UserAccount userAccount;
 	@Transient
 	private List<Message> messages;
+	@Transient
+	private int position;
 	
 	/**
 	 * Default constructor
@@ -223,6 +225,22 @@ public class Conversation implements Comparable<Conversation> {
 		this.messages = messages;
 	}
 	
+	/**
+	 * Returns position in the archive, 0 if unknown
+	 * @return position
+	 */
+	public int getPosition() {
+		return position;
+	}
+	
+	/**
+	 * Set position in the archive (used by import checkpoints)
+	 * @param position
+	 */
+	public void setPosition(int position) {
+		this.position = position;
+	}
+	
 	/**
 	 * Add message 
 	 * @param msg message
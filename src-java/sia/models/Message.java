@@ -20,6 +20,7 @@ public class Message {
 	private String message;
 	private Date time;
 	private int received;
+	private long fingerprint;
 	
 	/**
 	 * Default message
@@ -147,6 +148,47 @@ public class Message {
 		this.received = received;
 	}
 
+	/**
+	 * Returns content fingerprint
+	 * @return fingerprint
+	 */
+	public long getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Set content fingerprint
+	 * @param fingerprint
+	 */
+	public void setFingerprint(long fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Compute 64-bit fingerprint (FNV-1a) of message, time and received flag.
+	 * Two messages of one conversation with the same fingerprint are duplicates.
+	 * @param message
+	 * @param time
+	 * @param received
+	 * @return fingerprint
+	 */
+	public static long fingerprint(String message, long time, int received) {
+		long hash = 0xcbf29ce484222325L;
+		if (message != null) {
+			for (int i = 0; i < message.length(); i++) {
+				hash ^= message.charAt(i);
+				hash *= 0x100000001b3L;
+			}
+		}
+		for (int i = 0; i < 8; i++) {
+			hash ^= (time >>> (i * 8)) & 0xFF;
+			hash *= 0x100000001b3L;
+		}
+		hash ^= received;
+		hash *= 0x100000001b3L;
+		return hash;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
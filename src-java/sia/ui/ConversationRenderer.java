@@ -0,0 +1,215 @@
+package sia.ui;
+
+import java.awt.Color;
+import java.text.SimpleDateFormat;
+import java.util.List;
+
+import sia.models.Message;
+
+/**
+ * Conversation renderer.
+ *
+ * Renders messages of a conversation as an HTML document for the browser.
+ * The document head with the stylesheet depends only on the settings and
+ * is built once per renderer. Long conversations are rendered a window at
+ * a time, the document asks for more as it's scrolled.
+ *
+ * @author jumper
+ */
+public class ConversationRenderer {
+	private static final int SCROLL_MARGIN = 1000;
+
+	private SimpleDateFormat dateFormat;
+	private String head;
+	private String settings;
+
+	/**
+	 * Default and only constructor
+	 * @param datePattern message time format
+	 * @param base base path of resources (images)
+	 */
+	public ConversationRenderer(String datePattern, String base) {
+		this.dateFormat = new SimpleDateFormat(datePattern);
+		this.settings = datePattern + "|" + base;
+		Color c = new Color(0xEFEFEF);
+		Color cReceiver = new Color(0xDEF7FF);
+		StringBuilder html = new StringBuilder();
+		html.append("<!doctype html>");
+		html.append("<html>");
+		html.append("<head>");
+		html.append("<title>SIA conversation browser</title>");
+		html.append("<meta http-equiv=\"X-UA-Compatible\" content=\"IE=100\" />");
+		html.append("<base href=\"file://" + base + "\" />");
+		html.append("<style type=\"text/css\">");
+		html.append("body {font: 10px system;}");
+
+		html.append(".received {");
+		html.append("border: 1px solid " + c2h(cReceiver.darker()) + ";");
+		html.append("background-color:" + c2h(cReceiver) + ";");
+		html.append("background-image: -webkit-gradient(linear, left top, left bottom, from("
+				+ c2h(cReceiver.brighter()) + "), +to(" + c2h(cReceiver) + "));");
+		html.append("background-image: -webkit-linear-gradient(top, " + c2h(cReceiver.brighter()) + ", "
+				+ c2h(cReceiver) + ");");
+		html.append("background-image: -moz-linear-gradient(top, " + c2h(cReceiver.brighter()) + ", " + c2h(cReceiver)
+				+ ");");
+		html.append("background-image: linear-gradient(top, " + c2h(cReceiver.brighter()) + ", " + c2h(cReceiver)
+				+ ");");
+		html.append("color:" + c2h(cReceiver.darker().darker().darker().darker()) + ";}");
+
+		html.append(".sent {");
+		html.append("-webkit-border-radius: 5px;");
+		html.append("-moz-border-radius: 5px; ");
+		html.append("border-radius: 5px;");
+		html.append("border: 1px solid " + c2h(c.darker()) + ";");
+		html.append("background-color:" + c2h(c) + ";");
+		html.append("background-image: -webkit-gradient(linear, left top, left bottom, from(" + c2h(c.brighter())
+				+ "), +to(" + c2h(c) + "));");
+		html.append("background-image: -webkit-linear-gradient(top, " + c2h(c.brighter()) + ", " + c2h(c) + ");");
+		html.append("background-image: -moz-linear-gradient(top, " + c2h(c.brighter()) + ", " + c2h(c) + ");");
+		html.append("background-image: linear-gradient(top, " + c2h(c.brighter()) + ", " + c2h(c) + ");");
+		html.append("color:" + c2h(c.darker().darker().darker().darker()) + ";}");
+
+		html.append(".received p, .sent p {");
+		html.append("margin: 0 0 3px 30px;");
+		// html.append("position: relative;");
+		// html.append("clear: right;");
+		html.append("}");
+
+		html.append(".received, .sent {");
+		html.append("margin: 5px;");
+		html.append("padding: 5px;");
+		html.append("-webkit-border-radius: 5px;");
+		html.append("-moz-border-radius: 5px; ");
+		html.append("border-radius: 5px;");
+		html.append("}");
+		html.append(".clear {");
+		html.append("clear:both;");
+		html.append("line-height: 0.2em;");
+		html.append("}");
+		html.append(".time {");
+		html.append("float: right;");
+		html.append("clear: right;");
+		html.append("}");
+		html.append(".avatar {");
+		html.append("float: left;");
+		html.append("}");
+		html.append("</style>");
+		html.append("</head>");
+		html.append("<body>");
+		html.append("<header>");
+		html.append("");
+		html.append("</header> ");
+		head = html.toString();
+	}
+
+	/**
+	 * Returns settings the documents depend on, part of the cache key
+	 * @return settings
+	 */
+	public String getSettings() {
+		return settings;
+	}
+
+	/**
+	 * Render conversation
+	 * @param m messages, in time order
+	 * @return HTML document
+	 */
+	public String render(List<Message> m) {
+		StringBuilder html = new StringBuilder(head.length() + m.size() * 200);
+		html.append(head);
+		renderMessages(m, html);
+		html.append("</body>");
+		html.append("</html>");
+		return html.toString();
+	}
+
+	/**
+	 * Render first window of a long conversation. The document asks the
+	 * browser function for more messages when scrolled near its top (-1) or
+	 * bottom (1) and inserts the returned HTML (nothing at either end).
+	 * @param m messages of the first window, in time order
+	 * @param function name of browser function returning more messages
+	 * @return HTML document
+	 */
+	public String renderWindow(List<Message> m, String function) {
+		StringBuilder html = new StringBuilder(head.length() + m.size() * 200);
+		html.append(head);
+		html.append("<div id=\"messages\">");
+		renderMessages(m, html);
+		html.append("</div>");
+		html.append("<script type=\"text/javascript\">");
+		html.append("var siaLoading = false;");
+		html.append("function siaScroll() {");
+		html.append("if (siaLoading) return;");
+		html.append("var e = document.documentElement, b = document.body, m = document.getElementById('messages');");
+		html.append("var top = window.pageYOffset || e.scrollTop || b.scrollTop;");
+		html.append("var height = Math.max(e.scrollHeight, b.scrollHeight), view = window.innerHeight || e.clientHeight;");
+		html.append("siaLoading = true;");
+		html.append("try {");
+		html.append("if (top + view > height - " + SCROLL_MARGIN + ") {");
+		html.append("var next = " + function + "(1);");
+		html.append("if (next) { m.insertAdjacentHTML('beforeend', next); setTimeout(siaScroll, 0); }");
+		html.append("} else if (top < " + SCROLL_MARGIN + ") {");
+		html.append("var previous = " + function + "(-1);");
+		html.append("if (previous) { m.insertAdjacentHTML('afterbegin', previous);");
+		html.append("window.scrollBy(0, Math.max(e.scrollHeight, b.scrollHeight) - height); }");
+		html.append("}");
+		html.append("} finally { siaLoading = false; }");
+		html.append("}");
+		html.append("window.onscroll = siaScroll;");
+		html.append("window.onload = siaScroll;");
+		html.append("</script>");
+		html.append("</body>");
+		html.append("</html>");
+		return html.toString();
+	}
+
+	/**
+	 * Render messages without the document, to be inserted into a window
+	 * @param m messages, in time order
+	 * @return HTML fragment
+	 */
+	public String renderMessages(List<Message> m) {
+		StringBuilder html = new StringBuilder(m.size() * 200);
+		renderMessages(m, html);
+		return html.toString();
+	}
+
+	private void renderMessages(List<Message> m, StringBuilder html) {
+		for (int i = 0; i < m.size(); i++) {
+			if (m.get(i).getReceived() > 0) {
+				html.append("<div class=\"received\">");
+			} else {
+				html.append("<div class=\"sent\">");
+			}
+			html.append("<div class=\"avatar\">");
+			html.append("<img src=\"sia/ui/resources/properties.png\" />");
+			html.append("</div>");
+			html.append("<p>");
+			html.append(m.get(i).getMessage());
+			html.append("<span class=\"time\">");
+			html.append(dateFormat.format(m.get(i).getTime()));
+			html.append("</span>");
+			html.append("</p>");
+			html.append("<div style=\"clear:both;\"></div>");
+			while (i + 1 < m.size() && m.get(i).getReceived() == m.get(i + 1).getReceived()
+					&& m.get(i + 1).getTime().getTime() - m.get(i).getTime().getTime() < 1800000) {
+				html.append("<p>");
+				html.append(m.get(i + 1).getMessage());
+				html.append("<span class=\"time\">");
+				html.append(dateFormat.format(m.get(i + 1).getTime()));
+				html.append("</span>");
+				html.append("</p>");
+				html.append("<div class=\"clear\">&nbsp;</div>");
+				i++;
+			}
+
+			html.append("</div>");
+		}
+	}
+
+	private static String c2h(Color c) {
+		return "#" + Integer.toHexString(c.getRGB()).substring(2);
+	}
+}
@@ -0,0 +1,94 @@
+package sia.ui;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import sia.datasources.DataSource;
+import sia.datasources.ImportSession;
+import sia.utils.Dictionaries;
+
+/**
+ * Headless import.
+ *
+ * Imports archives given on the command line in one import session, without
+ * the window: several archives are parsed at once and saved by one writer.
+ * Progress goes to the log. Every archive starts with --import and the data
+ * source (name from the import wizard or class name), followed by its files:
+ *
+ * SIA --import FMADataSource a.xml --import "Ovi Suite (Nokia backup file)" b.nbu c.nbu
+ *
+ * Sources asking for passwords (IMAP) can't be imported this way.
+ *
+ * @author jumper
+ */
+public class HeadlessImport {
+	public static final String IMPORT = "--import";
+
+	private static final Logger logger = Logger.getLogger(HeadlessImport.class);
+
+	private HeadlessImport() {
+	}
+
+	/**
+	 * Returns true if arguments ask for a headless import
+	 * @param args command line arguments
+	 * @return true if the first argument is --import
+	 */
+	public static boolean isImport(String[] args) {
+		return args.length > 0 && IMPORT.equals(args[0]);
+	}
+
+	/**
+	 * Import archives into the database, which has to be initialized
+	 * @param args command line arguments
+	 * @param threads number of parsing threads, 0 for default
+	 * @return import session, after it finished
+	 * @throws Exception
+	 */
+	public static ImportSession run(String[] args, int threads) throws Exception {
+		ImportSession session = new ImportSession(Dictionaries.getInstance().getContacts(), threads);
+		int i = 0;
+		while (i < args.length) {
+			if (!IMPORT.equals(args[i]) || i + 1 >= args.length)
+				throw new IllegalArgumentException("Expected " + IMPORT + " <data source> <files>, got: " + args[i]);
+			DataSource dataSource = dataSource(args[i + 1]);
+			int end = i + 2;
+			while (end < args.length && !IMPORT.equals(args[end]))
+				end++;
+			String[] files = Arrays.copyOfRange(args, i + 2, end);
+			String error = dataSource.validateFiles(files);
+			if (error != null)
+				throw new IllegalArgumentException(args[i + 1] + ": " + error);
+			session.add(dataSource, files);
+			i = end;
+		}
+		session.run();
+		logger.info("headless import: " + session.getSavedRows() + " rows saved, " + session.getDuplicatesCount()
+				+ " duplicate messages skipped, " + session.getChanges());
+		return session;
+	}
+
+	/**
+	 * Returns data source for a name from the import wizard or a class name
+	 */
+	private static DataSource dataSource(String name) throws Exception {
+		Map<String, String> dataSources = Dictionaries.getInstance().getDataSources();
+		List<String> known = new ArrayList<String>();
+		for (Map.Entry<String, String> entry : dataSources.entrySet()) {
+			if (entry.getKey().equalsIgnoreCase(name) || entry.getValue().equalsIgnoreCase(name)) {
+				DataSource dataSource = (DataSource) Class
+						.forName(DataSource.class.getPackage().getName() + "." + entry.getValue())
+						.getDeclaredConstructor().newInstance();
+				if (dataSource.getRequiredPassword() != null && dataSource.getRequiredPassword().length > 0)
+					throw new IllegalArgumentException(name + " asks for passwords, use the import wizard");
+				return dataSource;
+			}
+			known.add(entry.getValue());
+		}
+		throw new IllegalArgumentException("Unknown data source: " + name + ", known: " + known);
+	}
+}
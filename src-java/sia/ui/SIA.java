@@ -1,11 +1,15 @@
 package sia.ui;
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Collection;
 
 import org.apache.log4j.PropertyConfigurator;
 import org.apache.log4j.Logger;
@@ -33,15 +37,36 @@ import sia.models.Conversation;
 import sia.models.Message;
 import sia.models.Protocol;
 import sia.models.UserAccount;
+import sia.utils.BulkInsert;
+import sia.utils.ConnectionManager;
+import sia.utils.ConversationCursor;
 import sia.utils.Dictionaries;
+import sia.utils.Durability;
 import sia.utils.ORM;
 import sia.utils.ParserFactory;
+import sia.utils.RenderCache;
+import sia.utils.Startup;
+import sia.utils.TrigramIndex;
 
 public class SIA {
 	public static SIA instance;
+	/**
+	 * Tables staged in temporary database, parents first
+	 */
+	private static final String[] TEMP_TABLES = new String[] { "useraccount", "contact", "contactaccount", "conversation", "message" };
+	/**
+	 * WAL pages written before automatic checkpoint, imports checkpoint on their own
+	 */
+	private static final int WAL_AUTOCHECKPOINT = 10000;
+	private static final String ANOTHER_INSTANCE = "Another instance of this application is already running. Only one instance can be launched at once.";
 
 	private Connection connection;
+	private ConnectionManager connections;
 	private ORM orm;
+	private Durability durability = Durability.FAST;
+	private File stagingFile;
+	private boolean messageIndex;
+	private volatile TrigramIndex trigramIndex;
 	private Start window;
 	private Splash splash;
 
@@ -56,15 +81,45 @@ public class SIA {
 		try {
 			splash = new Splash();
 			splash.init();
-			dbInit("sia.db");
-			splash.progressIncrement();
-			tmpInit();
-			splash.progressIncrement();
-			ormInit();
-			splash.progressIncrement();
-			Dictionaries.getInstance().init();
-			splash.progressIncrement();
-			ParserFactory.getInstance();
+			// the database stage may ask the user, so it runs on this thread;
+			// parsers (Jython) are only needed by imports, the window doesn't wait for them
+			Startup startup = new Startup(Startup.DEFAULT_THREADS);
+			startup.addOnCaller("database", new Startup.Task() {
+				public void run() throws Exception {
+					dbInit("sia.db");
+				}
+			});
+			startup.add("staging", new Startup.Task() {
+				public void run() throws Exception {
+					tmpInit();
+				}
+			}, "database");
+			startup.add("orm", new Startup.Task() {
+				public void run() throws Exception {
+					ormInit();
+				}
+			}, "staging");
+			startup.add("dictionaries", new Startup.Task() {
+				public void run() throws Exception {
+					Dictionaries.getInstance().init();
+				}
+			}, "orm");
+			startup.add("parsers", new Startup.Task() {
+				public void run() throws Exception {
+					try {
+						ParserFactory.getInstance();
+					} catch (RuntimeException e) {
+						// tried again by the first import
+						logger.warn("parsers not warmed up: " + e.getMessage());
+					}
+				}
+			});
+			startup.start();
+			for (String stage : new String[] { "database", "staging", "orm", "dictionaries" }) {
+				startup.await(stage);
+				splash.progressIncrement();
+			}
+			startup.shutdown();
 			splash.close();
 			guiInit();
 		} catch (SQLException e) {
@@ -101,6 +156,30 @@ public class SIA {
 		});
 	}
 
+	/**
+	 * Import archives given on the command line without the window
+	 * 
+	 * @param args command line arguments, see {@link HeadlessImport}
+	 * @return exit code, 0 if everything was imported
+	 */
+	public int headlessImport(String[] args) {
+		PropertyConfigurator.configure("log4j.properties");
+		try {
+			dbInit("sia.db");
+			tmpInit();
+			ormInit();
+			Dictionaries.getInstance().init();
+			HeadlessImport.run(args, 0);
+			return 0;
+		} catch (Exception e) {
+			logger.error("headless import failed", e);
+			System.err.println("Import failed: " + (e.getMessage() != null ? e.getMessage() : e.toString()));
+			return 1;
+		} finally {
+			close(null);
+		}
+	}
+
 	/**
 	 * Database init
 	 * 
@@ -113,31 +192,163 @@ public class SIA {
 		Class.forName("org.sqlite.JDBC");
 		connection = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
 		connection.setAutoCommit(true);
+		connections = new ConnectionManager(dbPath, connection);
 		Statement stmt = connection.createStatement();
-		stmt.execute("PRAGMA locking_mode = EXCLUSIVE");
+		// locking mode has to be chosen before WAL is entered: readers need the
+		// database shared, so another instance is kept out by a lock file then
+		ResultSet rs = null;
 		try {
-			stmt.executeUpdate("UPDATE configuration SET value = '' WHERE key = 'random'");
+			rs = stmt.executeQuery("SELECT value FROM configuration WHERE key = 'db.durability'");
+			durability = Durability.parse(rs.next() ? rs.getString(1) : null);
+			rs.close();
+			if (durability == Durability.WAL) {
+				if (!connections.lock(dbPath + ".lock"))
+					close(ANOTHER_INSTANCE);
+			} else {
+				stmt.execute("PRAGMA locking_mode = EXCLUSIVE");
+				stmt.executeUpdate("UPDATE configuration SET value = '' WHERE key = 'random'");
+			}
 		} catch (SQLException e) {
 			if (e.getMessage().indexOf("locked") != -1) {
-				close("Another instance of this application is already running. Only one instance can be launched at once.");
+				close(ANOTHER_INSTANCE);
 			}
+		} catch (IOException e) {
+			logger.warn("database not locked: " + e.getMessage());
 		}
+		dbUpgrade();
+		indexMessages();
+		rollupActivity();
 		stmt = connection.createStatement();
-		ResultSet rs = stmt.executeQuery("SELECT value FROM configuration WHERE key = 'running_application'");
+		rs = stmt.executeQuery("SELECT value FROM configuration WHERE key = 'running_application'");
 		if (rs.next() && rs.getString(1) != null && rs.getString(1).equals("true")) {
 			cleanup();
-			updateConversations(null);
+			updateConversations();
 		}
 		rs.close();
 		stmt = connection.createStatement();
 		stmt.executeUpdate("INSERT OR REPLACE INTO configuration (key, value) VALUES ('running_application', 'true')");
 		stmt.executeUpdate("PRAGMA foreign_keys = ON");
-		stmt.execute("PRAGMA journal_mode = OFF");
+		rs = stmt.executeQuery("SELECT value FROM configuration WHERE key = 'search.index'");
+		trigramInit(dbPath, rs.next() ? rs.getString(1) : null);
+		rs.close();
+		logger.debug("durability: " + durability);
+		stmt.execute("PRAGMA journal_mode = " + durability.getJournalMode());
 		stmt.executeUpdate("PRAGMA temp_store = 1");
-		stmt.executeUpdate("PRAGMA synchronous = OFF");
+		stmt.executeUpdate("PRAGMA synchronous = " + durability.getSynchronous());
+		if (durability == Durability.WAL)
+			stmt.execute("PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT);
 		stmt = connection.createStatement();
 		stmt.execute("ATTACH DATABASE ':memory:' AS aux1");
 		stmt.execute("PRAGMA aux1.foreign_keys = OFF");
+		if (durability == Durability.WAL)
+			connections.enableReaders();
+	}
+
+	/**
+	 * Upgrade schema of databases created by previous versions
+	 * 
+	 * @throws SQLException
+	 */
+	public void dbUpgrade() throws SQLException {
+		Statement stmt = connection.createStatement();
+		if (!hasColumn("message", "fingerprint")) {
+			logger.debug("upgrade: message.fingerprint");
+			stmt.executeUpdate("ALTER TABLE message ADD COLUMN fingerprint INTEGER NOT NULL DEFAULT (0)");
+			boolean autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+			PreparedStatement update = connection.prepareStatement("UPDATE message SET fingerprint = ? WHERE id = ?");
+			Statement select = connection.createStatement();
+			ResultSet rs = select.executeQuery("SELECT id, message, time, received FROM message");
+			int pending = 0;
+			while (rs.next()) {
+				update.setLong(1, Message.fingerprint(rs.getString(2), rs.getLong(3), rs.getInt(4)));
+				update.setInt(2, rs.getInt(1));
+				update.addBatch();
+				if (++pending >= BulkInsert.DEFAULT_BATCH_SIZE) {
+					update.executeBatch();
+					pending = 0;
+				}
+			}
+			rs.close();
+			select.close();
+			update.executeBatch();
+			update.close();
+			connection.commit();
+			connection.setAutoCommit(autoCommit);
+		}
+		if (!hasTable("conversation_dirty")) {
+			logger.debug("upgrade: conversation_dirty");
+			stmt.executeUpdate("CREATE TABLE conversation_dirty (\"id\" INTEGER PRIMARY KEY NOT NULL)");
+			// a crash of a previous version left every conversation possibly stale
+			stmt.executeUpdate("INSERT INTO conversation_dirty SELECT id FROM conversation WHERE EXISTS "
+					+ "(SELECT 1 FROM configuration WHERE key = 'running_application' AND value = 'true')");
+		}
+		if (!hasTable("import_checkpoint")) {
+			logger.debug("upgrade: import_checkpoint");
+			stmt.executeUpdate("CREATE TABLE import_checkpoint (\"source\" TEXT PRIMARY KEY NOT NULL, "
+					+ "\"position\" INTEGER NOT NULL, \"saved\" INTEGER NOT NULL, \"time\" INTEGER NOT NULL)");
+		}
+		if (!hasTable("message_fts")) {
+			logger.debug("upgrade: message_fts");
+			try {
+				// trigram tokens keep substring semantics of LIKE, with Unicode case folding
+				stmt.executeUpdate("CREATE VIRTUAL TABLE message_fts USING fts5(message, content='message', "
+						+ "content_rowid='id', tokenize='trigram')");
+				stmt.executeUpdate("DELETE FROM configuration WHERE key = 'message_index'");
+			} catch (SQLException e) {
+				logger.warn("full-text index unavailable: " + e.getMessage());
+			}
+		}
+		messageIndex = hasTable("message_fts");
+		if (!hasTable("activity")) {
+			logger.debug("upgrade: activity");
+			stmt.executeUpdate("CREATE TABLE activity (\"contactAccountId\" INTEGER NOT NULL, \"userAccountId\" INTEGER NOT NULL, "
+					+ "\"day\" TEXT NOT NULL, \"messages\" INTEGER NOT NULL, \"received\" INTEGER NOT NULL, "
+					+ "\"firstTime\" INTEGER NOT NULL, \"lastTime\" INTEGER NOT NULL, "
+					+ "PRIMARY KEY (contactAccountId, userAccountId, day))");
+			// existing messages are rolled up by the next rollupActivity()
+			stmt.executeUpdate("DELETE FROM configuration WHERE key = 'activity_rollup'");
+		}
+		stmt.executeUpdate("DROP INDEX IF EXISTS message_unique");
+		stmt.executeUpdate("CREATE INDEX IF NOT EXISTS message_fingerprint ON message (conversationId, fingerprint)");
+		stmt.executeUpdate("CREATE INDEX IF NOT EXISTS conversation_account_time ON conversation (contactAccountId, time)");
+		stmt.executeUpdate("CREATE INDEX IF NOT EXISTS message_conversation_time ON message (conversationId, time)");
+		stmt.close();
+	}
+
+	/**
+	 * Returns true if main database has given table
+	 * 
+	 * @param table
+	 * @return true if table exists
+	 * @throws SQLException
+	 */
+	private boolean hasTable(String table) throws SQLException {
+		Statement stmt = connection.createStatement();
+		ResultSet rs = stmt.executeQuery("SELECT 1 FROM main.sqlite_master WHERE type = 'table' AND name = '" + table + "'");
+		boolean found = rs.next();
+		rs.close();
+		stmt.close();
+		return found;
+	}
+
+	/**
+	 * Returns true if table in main database has given column
+	 * 
+	 * @param table
+	 * @param column
+	 * @return true if column exists
+	 * @throws SQLException
+	 */
+	private boolean hasColumn(String table, String column) throws SQLException {
+		Statement stmt = connection.createStatement();
+		ResultSet rs = stmt.executeQuery("PRAGMA main.table_info(" + table + ")");
+		boolean found = false;
+		while (rs.next())
+			found |= rs.getString("name").equalsIgnoreCase(column);
+		rs.close();
+		stmt.close();
+		return found;
 	}
 
 	/**
@@ -161,6 +372,32 @@ public class SIA {
 		orm.createTempTable(Conversation.class);
 		orm.createTempTable(Message.class);
 		orm.createTempTable(UserAccount.class);
+		orm.createQuery("contact.all", Contact.class, "ORDER BY lower(name)");
+		orm.createQuery("protocol.all", Protocol.class, "");
+		orm.createQuery("contactaccount.all", ContactAccount.class, "ORDER BY id", false);
+		orm.createQuery("useraccount.all", UserAccount.class, "", false);
+		orm.createQuery("contact.page", Contact.class, "WHERE id IN (" + parameters(Dictionaries.PAGE_SIZE) + ")");
+		orm.createQuery("contactaccount.page", ContactAccount.class,
+				"WHERE id IN (" + parameters(Dictionaries.PAGE_SIZE) + ") ORDER BY id", false);
+		orm.createQuery("useraccount.page", UserAccount.class,
+				"WHERE id IN (" + parameters(Dictionaries.PAGE_SIZE) + ") ORDER BY id", false);
+		orm.createQuery("contactaccount.contact", ContactAccount.class, "WHERE contactId = ?");
+		orm.createQuery("conversation.page", Conversation.class, "WHERE id IN (" + parameters(ConversationCursor.PAGE_SIZE) + ")");
+		orm.createQuery("message.conversation", Message.class, "WHERE conversationId = ? ORDER BY time, id");
+		orm.createQuery("message.first", Message.class, "WHERE conversationId = ? ORDER BY time, id LIMIT ?");
+		orm.createQuery("message.at", Message.class, "WHERE conversationId = ? ORDER BY time, id LIMIT 1 OFFSET ?");
+		orm.createQuery("message.last", Message.class, "WHERE conversationId = ? ORDER BY time DESC, id DESC LIMIT ?");
+		orm.createQuery("message.next", Message.class,
+				"WHERE conversationId = ? AND (time, id) > (?, ?) ORDER BY time, id LIMIT ?");
+		orm.createQuery("message.previous", Message.class,
+				"WHERE conversationId = ? AND (time, id) < (?, ?) ORDER BY time DESC, id DESC LIMIT ?");
+	}
+
+	private static String parameters(int count) {
+		StringBuilder parameters = new StringBuilder("?");
+		for (int i = 1; i < count; i++)
+			parameters.append(", ?");
+		return parameters.toString();
 	}
 
 	/**
@@ -176,7 +413,7 @@ public class SIA {
 		// stmt.executeUpdate("DELETE FROM sqlite_sequence");
 		while (result.next()) {
 			name = result.getString(2);
-			if (name.indexOf("sqlite_") != 0 && name.indexOf("configuration") != 0) {
+			if (Arrays.asList(TEMP_TABLES).contains(name.toLowerCase())) {
 				stmt.executeUpdate(result.getString(1).replace("CREATE TABLE", "CREATE TABLE IF NOT EXISTS aux1."));
 				stmt.executeUpdate("DELETE FROM aux1." + name);
 				// stmt.executeUpdate("INSERT INTO aux1."+name+" SELECT * FROM main."+name+" WHERE id = (SELECT MAX(id) FROM main."+name+")");
@@ -186,6 +423,42 @@ public class SIA {
 		}
 	}
 
+	/**
+	 * Attach temporary database in memory or in a temporary file
+	 * 
+	 * @param disk true for temporary file
+	 * @throws SQLException
+	 */
+	public void tmpAttach(boolean disk) throws SQLException {
+		if (disk == (stagingFile != null))
+			return;
+		File previous = stagingFile;
+		String path = ":memory:";
+		if (disk) {
+			try {
+				stagingFile = File.createTempFile("sia-staging", ".db");
+			} catch (IOException e) {
+				throw new SQLException("Can't create staging file: " + e.getMessage());
+			}
+			stagingFile.deleteOnExit();
+			path = stagingFile.getPath();
+		} else {
+			stagingFile = null;
+		}
+		Statement stmt = connection.createStatement();
+		stmt.execute("DETACH DATABASE aux1");
+		stmt.execute("ATTACH DATABASE '" + path.replace("'", "''") + "' AS aux1");
+		if (disk) {
+			stmt.execute("PRAGMA aux1.journal_mode = OFF");
+			stmt.execute("PRAGMA aux1.synchronous = OFF");
+		}
+		stmt.execute("PRAGMA aux1.foreign_keys = OFF");
+		stmt.close();
+		logger.debug("staging: " + path);
+		if (previous != null)
+			previous.delete();
+	}
+
 	/**
 	 * Save changes from temporary database to file database
 	 * 
@@ -193,7 +466,7 @@ public class SIA {
 	 */
 	public void tmpSave() throws SQLException {
 		Statement stmt = connection.createStatement();
-		String[] tables = new String[] { "useraccount", "contact", "contactaccount", "conversation", "message" };
+		String[] tables = TEMP_TABLES;
 		int affected[] = new int[tables.length];
 		for (String table : tables) {
 			stmt.addBatch("INSERT OR REPLACE INTO main." + table + " SELECT * FROM aux1." + table
@@ -206,6 +479,19 @@ public class SIA {
 		stmt.close();
 	}
 	
+	/**
+	 * Move write-ahead log content into the database file, if durability profile uses WAL
+	 * 
+	 * @throws SQLException
+	 */
+	public void checkpoint() throws SQLException {
+		if (durability != Durability.WAL)
+			return;
+		Statement stmt = connection.createStatement();
+		stmt.execute("PRAGMA main.wal_checkpoint(PASSIVE)");
+		stmt.close();
+	}
+
 	/**
 	 * Clean-up database
 	 * 
@@ -220,26 +506,181 @@ public class SIA {
 	}
 
 	/**
-	 * Update conversations
+	 * Mark conversations whose messages changed, so their time, end time and
+	 * length are recomputed by {@link #updateConversations()}. Marks are stored in
+	 * the file database and survive a crash.
 	 * 
+	 * @param conversationIds
 	 * @throws SQLException
 	 */
-	public void updateConversations(List<UserAccount> userAccounts) throws SQLException {
-		String where = "";
-		if (userAccounts != null) {
-			where = "WHERE userAccountId IN (";
-			for (int i = 0; i < userAccounts.size(); i++) {
-				where += (i == 0 ? "" : ",") + userAccounts.get(i).getId();
-			}
-			where += ")";
+	public void markConversations(Collection<Integer> conversationIds) throws SQLException {
+		boolean autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+		PreparedStatement stmt = connection.prepareStatement("INSERT OR IGNORE INTO main.conversation_dirty (id) VALUES (?)");
+		for (Integer id : conversationIds) {
+			stmt.setInt(1, id);
+			stmt.addBatch();
+		}
+		stmt.executeBatch();
+		stmt.close();
+		connection.commit();
+		connection.setAutoCommit(autoCommit);
+		RenderCache.getInstance().invalidate(conversationIds);
+	}
+
+	/**
+	 * Add messages saved since last call to the full-text index. Messages are
+	 * only ever appended, so the index keeps the highest indexed message ID
+	 * in configuration (message_index key) and picks up from there; call it in
+	 * the transaction which saves messages.
+	 * 
+	 * @throws SQLException
+	 */
+	public void indexMessages() throws SQLException {
+		if (!messageIndex)
+			return;
+		Statement stmt = connection.createStatement();
+		ResultSet rs = stmt.executeQuery("SELECT value FROM main.configuration WHERE key = 'message_index'");
+		long indexed = rs.next() && rs.getString(1) != null && rs.getString(1).length() > 0 ? Long.parseLong(rs.getString(1)) : 0;
+		rs.close();
+		rs = stmt.executeQuery("SELECT IFNULL(MAX(id), 0) FROM main.message");
+		long last = rs.next() ? rs.getLong(1) : 0;
+		rs.close();
+		if (last > indexed) {
+			int affected = stmt.executeUpdate("INSERT INTO main.message_fts (rowid, message) SELECT id, message FROM main.message WHERE id > "
+					+ indexed);
+			stmt.executeUpdate("INSERT OR REPLACE INTO main.configuration (key, value) VALUES ('message_index', '" + last + "')");
+			logger.debug("messages indexed: " + affected);
+		}
+		stmt.close();
+	}
+
+	/**
+	 * Add messages saved since last call to the activity rollup, messages
+	 * per contact account, user account and local day. Like
+	 * {@link #indexMessages()}, the highest rolled up message ID is kept in
+	 * configuration (activity_rollup key); call it in the transaction which
+	 * saves messages.
+	 * 
+	 * @throws SQLException
+	 */
+	public void rollupActivity() throws SQLException {
+		Statement stmt = connection.createStatement();
+		ResultSet rs = stmt.executeQuery("SELECT value FROM main.configuration WHERE key = 'activity_rollup'");
+		long rolledUp = rs.next() && rs.getString(1) != null && rs.getString(1).length() > 0 ? Long.parseLong(rs.getString(1)) : 0;
+		rs.close();
+		rs = stmt.executeQuery("SELECT IFNULL(MAX(id), 0) FROM main.message");
+		long last = rs.next() ? rs.getLong(1) : 0;
+		rs.close();
+		if (last > rolledUp) {
+			int affected = stmt.executeUpdate("INSERT INTO main.activity (contactAccountId, userAccountId, day, messages, "
+					+ "received, firstTime, lastTime) SELECT c.contactAccountId, c.userAccountId, "
+					+ "date(m.time / 1000, 'unixepoch', 'localtime'), COUNT(1), SUM(m.received > 0), MIN(m.time), MAX(m.time) "
+					+ "FROM main.message m JOIN main.conversation c ON c.id = m.conversationId "
+					+ "WHERE m.id > " + rolledUp + " AND m.id <= " + last + " GROUP BY 1, 2, 3 "
+					+ "ON CONFLICT (contactAccountId, userAccountId, day) DO UPDATE SET "
+					+ "messages = messages + excluded.messages, received = received + excluded.received, "
+					+ "firstTime = MIN(firstTime, excluded.firstTime), lastTime = MAX(lastTime, excluded.lastTime)");
+			stmt.executeUpdate("INSERT OR REPLACE INTO main.configuration (key, value) VALUES ('activity_rollup', '" + last + "')");
+			logger.debug("activity rolled up: " + affected + " days");
+		}
+		stmt.close();
+	}
+
+	/**
+	 * Open trigram index next to the database, if messages aren't indexed by
+	 * SQLite or search.index configuration key says so
+	 * 
+	 * @param dbPath database path
+	 * @param searchIndex search.index value: trigram, fts, or null for default
+	 */
+	private void trigramInit(String dbPath, String searchIndex) {
+		TrigramIndex previous = trigramIndex;
+		trigramIndex = null;
+		if (previous != null)
+			previous.close();
+		if (messageIndex ? !"trigram".equalsIgnoreCase(searchIndex) : "fts".equalsIgnoreCase(searchIndex))
+			return;
+		TrigramIndex index = new TrigramIndex(new File(dbPath + ".trigram"));
+		try {
+			index.open(connection);
+			trigramIndex = index;
+		} catch (IOException e) {
+			logger.warn("trigram index unavailable: " + e.getMessage());
+		} catch (SQLException e) {
+			logger.warn("trigram index unavailable: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Add committed messages to the trigram index, if it is used. Failure only
+	 * disables the index, search falls back to scanning messages.
+	 */
+	public void updateTrigramIndex() {
+		// read once, search threads may see it disabled meanwhile
+		TrigramIndex index = trigramIndex;
+		if (index == null)
+			return;
+		try {
+			index.update(connection);
+		} catch (IOException e) {
+			logger.warn("trigram index disabled: " + e.getMessage());
+			trigramIndex = null;
+			index.close();
+		} catch (SQLException e) {
+			logger.warn("trigram index disabled: " + e.getMessage());
+			trigramIndex = null;
+			index.close();
 		}
-		String sql = "UPDATE main.conversation "
-				+ "SET time = (SELECT MIN(time) FROM main.message WHERE conversationId = main.conversation.id), "
-				+ "endTime = (SELECT MAX(time) FROM main.message WHERE conversationId = main.conversation.id), "
-				+ "length = (SELECT COUNT(1) FROM main.message WHERE conversationId = main.conversation.id) "
-				+ where;
-		Statement stmt = SIA.getInstance().getConnection().createStatement();
-		stmt.executeUpdate(sql);
+	}
+
+	/**
+	 * Returns trigram index of messages
+	 * 
+	 * @return trigram index, null if not used
+	 */
+	public TrigramIndex getTrigramIndex() {
+		return trigramIndex;
+	}
+
+	/**
+	 * Returns true if main database has full-text index of messages
+	 * 
+	 * @return true if messages are indexed
+	 */
+	public boolean hasMessageIndex() {
+		return messageIndex;
+	}
+
+	/**
+	 * Update time, end time and length of marked conversations
+	 * 
+	 * @throws SQLException
+	 */
+	public void updateConversations() throws SQLException {
+		boolean autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+		Statement select = connection.createStatement();
+		ResultSet rs = select.executeQuery("SELECT conversationId, MIN(time), MAX(time), COUNT(1) FROM main.message "
+				+ "WHERE conversationId IN (SELECT id FROM main.conversation_dirty) GROUP BY conversationId");
+		PreparedStatement update = connection.prepareStatement("UPDATE main.conversation SET time = ?, endTime = ?, length = ? WHERE id = ?");
+		int updated = 0;
+		while (rs.next()) {
+			update.setLong(1, rs.getLong(2));
+			update.setLong(2, rs.getLong(3));
+			update.setInt(3, rs.getInt(4));
+			update.setInt(4, rs.getInt(1));
+			update.addBatch();
+			updated++;
+		}
+		rs.close();
+		update.executeBatch();
+		update.close();
+		select.executeUpdate("DELETE FROM main.conversation_dirty");
+		select.close();
+		connection.commit();
+		connection.setAutoCommit(autoCommit);
+		logger.debug("conversations updated: " + updated);
 	}
 
 	/**
@@ -263,6 +704,13 @@ public class SIA {
 			} catch (SQLException e) {
 				logger.error(e);
 			}
+			TrigramIndex index = trigramIndex;
+			trigramIndex = null;
+			if (index != null)
+				index.close();
+			if (orm != null)
+				orm.close();
+			connections.close();
 			try {
 				connection.close();
 			} catch (SQLException e) {
@@ -308,6 +756,48 @@ public class SIA {
 		return connection;
 	}
 
+	/**
+	 * Returns read-only connection of current thread, for browsing while
+	 * the database connection writes
+	 * 
+	 * @return read-only connection, the database connection without WAL
+	 */
+	public Connection getReadConnection() {
+		return connections.getReader();
+	}
+
+	/**
+	 * Release read-only connection handed over by the connection manager,
+	 * together with its prepared statements
+	 * 
+	 * @param reader connection, left open if it's the database connection
+	 */
+	public void releaseReadConnection(Connection reader) {
+		if (reader == connection)
+			return;
+		if (orm != null)
+			orm.release(reader);
+		connections.release(reader);
+	}
+
+	/**
+	 * Returns connection manager
+	 * 
+	 * @return connection manager
+	 */
+	public ConnectionManager getConnections() {
+		return connections;
+	}
+
+	/**
+	 * Returns durability profile
+	 * 
+	 * @return durability profile
+	 */
+	public Durability getDurability() {
+		return durability;
+	}
+
 	/**
 	 * Returns ORM
 	 * 
@@ -323,6 +813,8 @@ public class SIA {
 	 * @param args
 	 */
 	public static void main(String[] args) {
+		if (HeadlessImport.isImport(args))
+			System.exit(SIA.getInstance().headlessImport(args));
 		SIA.getInstance().init();
 	}
 	
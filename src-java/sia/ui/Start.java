@@ -1,16 +1,17 @@
 package sia.ui;
 
-import java.awt.Color;
 import java.text.SimpleDateFormat;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
 import org.eclipse.jface.window.ApplicationWindow;
 import org.eclipse.jface.wizard.WizardDialog;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.browser.Browser;
+import org.eclipse.swt.browser.BrowserFunction;
 import org.eclipse.swt.custom.SashForm;
 import org.eclipse.swt.custom.ScrolledComposite;
 import org.eclipse.swt.events.ModifyEvent;
@@ -35,12 +36,20 @@ import org.eclipse.swt.widgets.Text;
 import org.eclipse.swt.widgets.ToolBar;
 import org.eclipse.swt.widgets.ToolItem;
 import org.eclipse.swt.widgets.Tree;
+import sia.datasources.ChangeSet;
 import sia.models.Contact;
 import sia.models.ContactAccount;
 import sia.models.Conversation;
 import sia.models.Message;
 import sia.ui.importui.ImportWizard;
+import sia.utils.ContactFilter;
+import sia.utils.ConversationCursor;
 import sia.utils.Dictionaries;
+import sia.utils.GlobalSearch;
+import sia.utils.MessageSearch;
+import sia.utils.MessageWindow;
+import sia.utils.RenderCache;
+import sia.utils.SearchExecutor;
 import org.eclipse.swt.widgets.TreeItem;
 import org.sormula.SormulaException;
 
@@ -55,7 +64,8 @@ public class Start extends ApplicationWindow {
 	private Tree contactsTree;
 	private Map<TreeItem, ContactAccount> mapContactAccount;
 	private Map<TreeItem, Contact> mapContact;
-	private List<Conversation> conversations;
+	private ConversationCursor conversations;
+	private String conversationsFilter;
 	private Browser conversationBrowser;
 	private Text contactsKeyword;
 	private Text messagesKeyword;
@@ -65,9 +75,20 @@ public class Start extends ApplicationWindow {
 	private String orderbyConversation = "time";
 	private boolean asc = false;
 	private SimpleDateFormat dateFormat;
+	private ConversationRenderer renderer;
+	private MessageWindow messageWindow;
+	private SearchExecutor contactsExecutor;
+	private volatile ContactFilter contactFilter;
+	private List<ContactFilter.Match> contactMatches;
+	private SearchExecutor messagesExecutor;
+	private Executor display;
+	private Button allContacts;
+	private int searchGeneration;
 	public Start() {
 		super(null);
 		dateFormat = new SimpleDateFormat("yyyy.MM.dd HH:mm:ss");
+		renderer = new ConversationRenderer("yyyy.MM.dd HH:mm:ss", getClass().getProtectionDomain().getCodeSource()
+				.getLocation().getPath());
 	}
 
 	/**
@@ -115,10 +136,8 @@ public class Start extends ApplicationWindow {
 				dialog.create();
 
 				dialog.getShell().setSize(dialog.getShell().computeSize(SWT.DEFAULT, SWT.DEFAULT));
-				if (dialog.open() == 0) {
-					lastSearchContact = "refreshed";
-					fillContactTree("");
-				}
+				if (dialog.open() == 0)
+					updateContactTree(importWizard.getChanges());
 			}
 		});
 		importButton.setImage(sia.ui.org.eclipse.wb.swt.SWTResourceManager.getImage(Start.class,
@@ -164,7 +183,7 @@ public class Start extends ApplicationWindow {
 
 			@Override
 			public void modifyText(ModifyEvent arg0) {
-				fillContactTree(contactsKeyword.getText());
+				fillContactTree(contactsKeyword.getText(), SearchExecutor.DEFAULT_DELAY);
 			}
 		});
 		if (searchButton) {
@@ -175,7 +194,7 @@ public class Start extends ApplicationWindow {
 			contactsSearch.addSelectionListener(new SelectionAdapter() {
 				@Override
 				public void widgetSelected(SelectionEvent e) {
-					fillContactTree(contactsKeyword.getText());
+					fillContactTree(contactsKeyword.getText(), 0);
 				}
 			});
 		}
@@ -188,15 +207,35 @@ public class Start extends ApplicationWindow {
 		gridData.horizontalSpan = 2;
 		contactsScrolledComposite.setLayoutData(gridData);
 
-		contactsTree = new Tree(contactsScrolledComposite, SWT.BORDER);
+		contactsTree = new Tree(contactsScrolledComposite, SWT.BORDER | SWT.VIRTUAL);
+		contactsTree.addListener(SWT.SetData, new Listener() {
+			public void handleEvent(Event e) {
+				TreeItem item = (TreeItem) e.item;
+				TreeItem parent = item.getParentItem();
+				if (parent == null) {
+					ContactFilter.Match match = contactMatches.get(contactsTree.indexOf(item));
+					item.setText(match.getContact().getName());
+					item.setData(match);
+					item.setItemCount(match.getContactAccounts().size());
+					mapContact.put(item, match.getContact());
+				} else {
+					ContactFilter.Match match = (ContactFilter.Match) parent.getData();
+					ContactAccount ca = match.getContactAccounts().get(parent.indexOf(item));
+					item.setText(ca.getUid());
+					item.setImage(sia.ui.org.eclipse.wb.swt.SWTResourceManager.getImage(Start.class,
+							"/sia/ui/resources/protocols/" + ca.getProtocol().getIcon()));
+					mapContactAccount.put(item, ca);
+				}
+			}
+		});
 		contactsTree.addListener(SWT.Selection, new Listener() {
 			public void handleEvent(Event e) {
 				TreeItem[] selection = contactsTree.getSelection();
 				for (int i = 0; i < selection.length; i++) {
 					if (mapContact.containsKey(selection[i])) {
-						setConversations(mapContact.get(selection[i]), "", "time");
+						setConversations(mapContact.get(selection[i]), "", "time", 0);
 					} else if (mapContactAccount.containsKey(selection[i])) {
-						setConversations(mapContactAccount.get(selection[i]), "", "time");
+						setConversations(mapContactAccount.get(selection[i]), "", "time", 0);
 					} else {
 						throw new IllegalArgumentException("Incorrect selection.");
 					}
@@ -209,7 +248,7 @@ public class Start extends ApplicationWindow {
 
 		// RIGHT COMPOSITE
 		Composite compositeRight = new Composite(sashForm, SWT.NONE);
-		compositeRight.setLayout(new GridLayout(2, false));
+		compositeRight.setLayout(new GridLayout(3, false));
 		if (!searchButton) {
 			Label sL = new Label(compositeRight, SWT.NONE);
 			sL.setText("Search: ");
@@ -222,16 +261,7 @@ public class Start extends ApplicationWindow {
 
 			@Override
 			public void modifyText(ModifyEvent arg0) {
-				TreeItem[] selection = contactsTree.getSelection();
-				for (int i = 0; i < selection.length; i++) {
-					if (mapContact.containsKey(selection[i])) {
-						setConversations(mapContact.get(selection[i]), messagesKeyword.getText(), "time");
-					} else if (mapContactAccount.containsKey(selection[i])) {
-						setConversations(mapContactAccount.get(selection[i]), messagesKeyword.getText(), "time");
-					} else {
-						throw new IllegalArgumentException("Incorrect selection.");
-					}
-				}
+				searchMessages(SearchExecutor.DEFAULT_DELAY);
 			}
 		});
 		if (searchButton) {
@@ -240,19 +270,37 @@ public class Start extends ApplicationWindow {
 					"/sia/ui/resources/find.png"));
 			messagesSearch.setText("Search");
 		}
+		allContacts = new Button(compositeRight, SWT.CHECK);
+		allContacts.setText("All contacts");
+		allContacts.setToolTipText("Search conversations of all contacts, best matches first");
+		allContacts.addListener(SWT.Selection, new Listener() {
+			public void handleEvent(Event e) {
+				searchMessages(0);
+			}
+		});
 
 		SashForm sashForm_1 = new SashForm(compositeRight, SWT.VERTICAL);
 		GridData gridData1 = new GridData(GridData.FILL_BOTH);
-		gridData1.horizontalSpan = 2;
+		gridData1.horizontalSpan = 3;
 		sashForm_1.setLayoutData(gridData1);
 		ScrolledComposite messagesScrolledComposite = new ScrolledComposite(sashForm_1, SWT.BORDER | SWT.H_SCROLL
 				| SWT.V_SCROLL);
 		messagesScrolledComposite.setExpandHorizontal(true);
 		messagesScrolledComposite.setExpandVertical(true);
 
-		conversationsTable = new Table(messagesScrolledComposite, SWT.BORDER | SWT.FULL_SELECTION);
+		conversationsTable = new Table(messagesScrolledComposite, SWT.BORDER | SWT.FULL_SELECTION | SWT.VIRTUAL);
 		conversationsTable.setHeaderVisible(true);
 		conversationsTable.setLinesVisible(true);
+		conversationsTable.addListener(SWT.SetData, new Listener() {
+			public void handleEvent(Event e) {
+				TableItem ti = (TableItem) e.item;
+				Conversation conv = getConversation(conversationsTable.indexOf(ti));
+				if (conv != null) {
+					ti.setText(new String[] { conv.getContactAccount().getContact().getName(), conv.getTitle(),
+							dateFormat.format(conv.getTime()), conv.getLength() + "" });
+				}
+			}
+		});
 		conversationsTable.addSelectionListener(new SelectionListener() {
 
 			@Override
@@ -274,16 +322,7 @@ public class Start extends ApplicationWindow {
 		tblclmnTitle.setText("Title");
 		tblclmnTitle.addListener(SWT.Selection, new Listener() {
 			public void handleEvent(Event e) {
-				TreeItem[] selection = contactsTree.getSelection();
-				for (int i = 0; i < selection.length; i++) {
-					if (mapContact.containsKey(selection[i])) {
-						setConversations(mapContact.get(selection[i]), lastSearchContact, "title");
-					} else if (mapContactAccount.containsKey(selection[i])) {
-						setConversations(mapContactAccount.get(selection[i]), lastSearchContact, "title");
-					} else {
-						throw new IllegalArgumentException("Incorrect selection.");
-					}
-				}
+				sortConversations("title");
 			}
 		});
 
@@ -293,16 +332,7 @@ public class Start extends ApplicationWindow {
 		tblclmnTime.setText("Time");
 		tblclmnTime.addListener(SWT.Selection, new Listener() {
 			public void handleEvent(Event e) {
-				TreeItem[] selection = contactsTree.getSelection();
-				for (int i = 0; i < selection.length; i++) {
-					if (mapContact.containsKey(selection[i])) {
-						setConversations(mapContact.get(selection[i]), lastSearchContact, "time");
-					} else if (mapContactAccount.containsKey(selection[i])) {
-						setConversations(mapContactAccount.get(selection[i]), lastSearchContact, "time");
-					} else {
-						throw new IllegalArgumentException("Incorrect selection.");
-					}
-				}
+				sortConversations("time");
 			}
 		});
 
@@ -312,16 +342,7 @@ public class Start extends ApplicationWindow {
 		tblclmnLength.setText("Length");
 		tblclmnLength.addListener(SWT.Selection, new Listener() {
 			public void handleEvent(Event e) {
-				TreeItem[] selection = contactsTree.getSelection();
-				for (int i = 0; i < selection.length; i++) {
-					if (mapContact.containsKey(selection[i])) {
-						setConversations(mapContact.get(selection[i]), lastSearchContact, "length");
-					} else if (mapContactAccount.containsKey(selection[i])) {
-						setConversations(mapContactAccount.get(selection[i]), lastSearchContact, "length");
-					} else {
-						throw new IllegalArgumentException("Incorrect selection.");
-					}
-				}
+				sortConversations("length");
 			}
 		});
 
@@ -334,6 +355,12 @@ public class Start extends ApplicationWindow {
 		scrolledComposite.setExpandVertical(true);
 
 		conversationBrowser = new Browser(scrolledComposite, SWT.NONE);
+		new BrowserFunction(conversationBrowser, "siaMore") {
+			@Override
+			public Object function(Object[] arguments) {
+				return moreMessages(((Number) arguments[0]).intValue());
+			}
+		};
 		scrolledComposite.setContent(conversationBrowser);
 		scrolledComposite.setMinSize(conversationBrowser.computeSize(SWT.DEFAULT, SWT.DEFAULT));
 		sashForm_1.setWeights(new int[] { 1, 1 });
@@ -347,237 +374,388 @@ public class Start extends ApplicationWindow {
 		status.setText("");
 		// END STATUS
 
-		fillContactTree("");
+		display = new Executor() {
+			@Override
+			public void execute(Runnable runnable) {
+				if (!composite.isDisposed())
+					composite.getDisplay().asyncExec(runnable);
+			}
+		};
+		contactsExecutor = new SearchExecutor("contacts-search", null, display, SearchExecutor.DEFAULT_DELAY);
+		messagesExecutor = new SearchExecutor("messages-search", null, display, SearchExecutor.DEFAULT_DELAY);
+		messagesExecutor.setConnections(SIA.getInstance().getConnections());
+		fillContactTree("", 0);
 
 		return composite;
 	}
 
-	private void fillContactTree(String s) {
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean close() {
+		if (contactsExecutor != null)
+			contactsExecutor.shutdown();
+		if (messagesExecutor != null)
+			messagesExecutor.shutdown();
+		if (conversations != null)
+			conversations.close();
+		return super.close();
+	}
+
+	private void fillContactTree(final String s, long delay) {
 		if (contactsTree != null && !lastSearchContact.equals(s)) {
 			lastSearchContact = s;
-			contactsTree.removeAll();
-			List<Contact> contacts = Dictionaries.getInstance().getContacts();
-			mapContact = new HashMap<TreeItem, Contact>();
-			mapContactAccount = new HashMap<TreeItem, ContactAccount>();
-			for (Contact c : contacts) {
-				boolean contactContains = s.length() == 0 || c.getFirstname().indexOf(s) != -1
-						|| c.getLastname().indexOf(s) != -1 || c.getName().indexOf(s) != -1;
-				TreeItem contactItem = new TreeItem(contactsTree, SWT.NONE);
-				contactItem.setText(c.getName());
-				mapContact.put(contactItem, c);
-				for (ContactAccount ca : c.getContactAccounts()) {
-					if (contactContains || ca.getUid().toLowerCase().indexOf(s.toLowerCase().trim()) != -1) {
-						TreeItem contactAccountItem = new TreeItem(contactItem, SWT.NONE);
-						contactAccountItem.setText(ca.getUid());
-						contactAccountItem.setImage(sia.ui.org.eclipse.wb.swt.SWTResourceManager.getImage(Start.class,
-								"/sia/ui/resources/protocols/" + ca.getProtocol().getIcon()));
-						mapContactAccount.put(contactAccountItem, ca);
+			contactsExecutor.submit(new Callable<List<ContactFilter.Match>>() {
+				@Override
+				public List<ContactFilter.Match> call() {
+					ContactFilter filter = contactFilter;
+					if (filter == null) {
+						filter = new ContactFilter(Dictionaries.getInstance().getContacts());
+						contactFilter = filter;
 					}
+					return filter.filter(s);
 				}
-				if (contactItem.getItems().length == 0) {
-					contactItem.dispose();
+			}, new SearchExecutor.Callback<List<ContactFilter.Match>>() {
+				@Override
+				public void done(List<ContactFilter.Match> found) {
+					setContactTree(found);
 				}
-			}
+
+				@Override
+				public void failed(Exception e) {
+					SIA.getInstance().handleException("An unexpected error occured when searching contacts.", e);
+				}
+			}, delay);
 		}
 	}
 
-	private void setConversations(Contact contact, String s, String orderby) {
-		if (!lastSearchMessage.equals(s)) {
-			lastSearchContact = s;
-			conversations = null;
-			String order = orderby+" ";
-			if(orderbyConversation.equals(orderby)) {
-				if(asc) {
-					order += "DESC";
-					asc=false;
-				} else {
-					asc=true;
-				} 
-			} else {
-				orderbyConversation = orderby;
-				asc = true;
-			}
-			try {
-				 conversations = SIA
-						.getInstance()
-						.getORM()
-						.getTable(Conversation.class)
-						.selectAllCustom(
-								"WHERE id IN (SELECT DISTINCT m.conversationId FROM main.message m JOIN main.conversation c ON m.conversationId = c.id " +
-								" JOIN contactaccount ca ON ca.id = c.contactAccountId AND ca.contactId = " + contact.getId() + " WHERE message LIKE '%" + s + "%') ORDER BY "+order);
-			} catch (SormulaException e) {
-				SIA.getInstance().handleException("An unexpected error occured when loading conversations.", e);
+	/**
+	 * Update contact tree after an import. Contacts are filtered again in
+	 * memory; only items of changed contacts and items moved by new contacts
+	 * are filled again, the others keep their state.
+	 * @param changes change set of the import, null to fill the tree again
+	 */
+	private void updateContactTree(final ChangeSet changes) {
+		if (changes == null || contactMatches == null) {
+			lastSearchContact = "refreshed";
+			contactFilter = null;
+			fillContactTree("", 0);
+			return;
+		}
+		if (changes.isEmpty())
+			return;
+		lastSearchContact = "";
+		contactsExecutor.submit(new Callable<List<ContactFilter.Match>>() {
+			@Override
+			public List<ContactFilter.Match> call() {
+				ContactFilter filter = new ContactFilter(Dictionaries.getInstance().getContacts());
+				contactFilter = filter;
+				return filter.filter("");
 			}
-			TableItem[] tis = conversationsTable.getItems();
-			for (TableItem ti : tis) {
-				ti.dispose();
+		}, new SearchExecutor.Callback<List<ContactFilter.Match>>() {
+			@Override
+			public void done(List<ContactFilter.Match> found) {
+				if (contactsTree.isDisposed())
+					return;
+				List<ContactFilter.Match> previous = contactMatches;
+				contactMatches = found;
+				contactsTree.setItemCount(found.size());
+				for (int i = 0; i < found.size(); i++) {
+					Contact contact = found.get(i).getContact();
+					if (i >= previous.size() || previous.get(i).getContact() != contact
+							|| changes.getInsertedContacts().contains(contact.getId())
+							|| changes.getUpdatedContacts().contains(contact.getId()))
+						contactsTree.clear(i, true);
+				}
 			}
-			for (Conversation conv : conversations) {
-				TableItem ti = new TableItem(conversationsTable, SWT.NONE);
-				ti.setText(new String[] { conv.getContactAccount().getContact().getName(), conv.getTitle(),
-						dateFormat.format(conv.getTime()), conv.getLength() + "" });
+
+			@Override
+			public void failed(Exception e) {
+				SIA.getInstance().handleException("An unexpected error occured when searching contacts.", e);
 			}
+		}, 0);
+	}
+
+	/**
+	 * Show matching contacts, tree items are filled when they are shown
+	 * @param found matching contacts
+	 */
+	private void setContactTree(List<ContactFilter.Match> found) {
+		if (contactsTree.isDisposed())
+			return;
+		contactsTree.removeAll();
+		mapContact = new HashMap<TreeItem, Contact>();
+		mapContactAccount = new HashMap<TreeItem, ContactAccount>();
+		contactMatches = found;
+		contactsTree.setItemCount(found.size());
+	}
+
+	private void setConversations(final Contact contact, final String s, String orderby, long delay) {
+		if (!lastSearchMessage.equals(s)) {
+			lastSearchContact = s;
+			final String column = orderby;
+			final boolean descending = toggleOrder(orderby);
+			searchGeneration++;
+			messagesExecutor.submit(new Callable<ConversationCursor>() {
+				@Override
+				public ConversationCursor call() throws SormulaException {
+					return MessageSearch.cursor(contact, s, column, descending);
+				}
+			}, new ConversationsCallback(filter(contact, s)), delay);
 		}
 	}
 
-	private void setConversations(ContactAccount contactAccount, String s, String orderby) {
+	private void setConversations(final ContactAccount contactAccount, final String s, String orderby, long delay) {
 		if (!lastSearchMessage.equals(s)) {
 			lastSearchContact = s;
-			conversations = null;
-			String order = orderby+" ";
-			if(orderbyConversation.equals(orderby)) {
-				if(asc) {
-					order += "DESC";
-					asc=false;
-				} else {
-					order+= "ASC";
-					asc=true;
-				} 
+			final String column = orderby;
+			final boolean descending = toggleOrder(orderby);
+			searchGeneration++;
+			messagesExecutor.submit(new Callable<ConversationCursor>() {
+				@Override
+				public ConversationCursor call() throws SormulaException {
+					return MessageSearch.cursor(contactAccount, s, column, descending);
+				}
+			}, new ConversationsCallback(filter(contactAccount, s)), delay);
+		}
+	}
+
+	/**
+	 * Search conversations of selected contacts, or of all contacts if none
+	 * is selected or all contacts are checked
+	 * @param delay milliseconds to wait for next keystroke
+	 */
+	private void searchMessages(long delay) {
+		if (isGlobal()) {
+			searchAll(messagesKeyword.getText(), delay);
+			return;
+		}
+		TreeItem[] selection = contactsTree.getSelection();
+		for (int i = 0; i < selection.length; i++) {
+			if (mapContact.containsKey(selection[i])) {
+				setConversations(mapContact.get(selection[i]), messagesKeyword.getText(), "time", delay);
+			} else if (mapContactAccount.containsKey(selection[i])) {
+				setConversations(mapContactAccount.get(selection[i]), messagesKeyword.getText(), "time", delay);
 			} else {
-				orderbyConversation = orderby;
+				throw new IllegalArgumentException("Incorrect selection.");
 			}
-			try {
-				conversations = SIA
-								.getInstance()
-								.getORM()
-								.getTable(Conversation.class)
-								.selectAllCustom(
-										"WHERE id IN (SELECT DISTINCT m.conversationId FROM main.message m JOIN main.conversation c ON m.conversationId = c.id AND c.contactAccountId = "
-												+ contactAccount.getId() + " WHERE message LIKE '%" + s + "%') ORDER BY "+order);
-			} catch (SormulaException e) {
-				SIA.getInstance().handleException("An unexpected error occured when loading conversations.", e);
+		}
+	}
+
+	private boolean isGlobal() {
+		return allContacts.getSelection() || contactsTree.getSelection().length == 0;
+	}
+
+	/**
+	 * Search conversations of all contacts, best matches first. Best ones
+	 * found so far are shown while searching.
+	 * @param s searched phrase
+	 * @param delay milliseconds to wait for next keystroke
+	 */
+	private void searchAll(final String s, long delay) {
+		if (s.length() == 0) {
+			// nothing to search for, results of a previous phrase are gone
+			searchGeneration++;
+			messagesExecutor.cancel();
+			if (conversations != null)
+				conversations.close();
+			conversations = null;
+			conversationsFilter = null;
+			conversationsTable.clearAll();
+			conversationsTable.setItemCount(0);
+			return;
+		}
+		final int generation = ++searchGeneration;
+		final String filter = filter(s);
+		final GlobalSearch.Listener listener = new GlobalSearch.Listener() {
+			@Override
+			public void found(List<Conversation> found) {
+				final ConversationCursor cursor = new ConversationCursor(found);
+				display.execute(new Runnable() {
+					@Override
+					public void run() {
+						if (generation == searchGeneration)
+							new ConversationsCallback(filter).done(cursor);
+					}
+				});
+			}
+		};
+		messagesExecutor.submit(new Callable<ConversationCursor>() {
+			@Override
+			public ConversationCursor call() throws SormulaException {
+				return new ConversationCursor(new GlobalSearch(GlobalSearch.DEFAULT_LIMIT, listener).search(s));
+			}
+		}, new ConversationsCallback(filter), delay);
+	}
+
+	/**
+	 * Sort conversations by column. Conversations of the selected contact
+	 * already found are sorted again, the search is run again only for
+	 * another contact or phrase.
+	 * @param orderby sort column
+	 */
+	private void sortConversations(String orderby) {
+		TreeItem[] selection = contactsTree.getSelection();
+		String filter = isGlobal() ? filter(messagesKeyword.getText()) : selection.length > 0 ? filter(
+				selection[selection.length - 1], lastSearchContact) : "";
+		if (conversations != null && filter.equals(conversationsFilter)) {
+			conversations.sort(orderby, toggleOrder(orderby));
+			conversationsTable.clearAll();
+			conversationsTable.setItemCount(conversations.size());
+			return;
+		}
+		if (isGlobal()) {
+			searchAll(messagesKeyword.getText(), 0);
+			return;
+		}
+		for (int i = 0; i < selection.length; i++) {
+			if (mapContact.containsKey(selection[i])) {
+				setConversations(mapContact.get(selection[i]), lastSearchContact, orderby, 0);
+			} else if (mapContactAccount.containsKey(selection[i])) {
+				setConversations(mapContactAccount.get(selection[i]), lastSearchContact, orderby, 0);
+			} else {
+				throw new IllegalArgumentException("Incorrect selection.");
 			}
 		}
-		Collections.sort(conversations);
-		TableItem[] tis = conversationsTable.getItems();
-		for (TableItem ti : tis) {
-			ti.dispose();
+	}
+
+	/**
+	 * Returns filter of conversations
+	 * @param item selected contact or contact account
+	 * @param s searched phrase
+	 * @return filter description
+	 */
+	private String filter(TreeItem item, String s) {
+		if (mapContact.containsKey(item))
+			return filter(mapContact.get(item), s);
+		if (mapContactAccount.containsKey(item))
+			return filter(mapContactAccount.get(item), s);
+		return "";
+	}
+
+	private static String filter(String s) {
+		return "all " + s;
+	}
+
+	private static String filter(Contact contact, String s) {
+		return "contact " + contact.getId() + " " + s;
+	}
+
+	private static String filter(ContactAccount contactAccount, String s) {
+		return "account " + contactAccount.getId() + " " + s;
+	}
+
+	/**
+	 * Sorting by the same column again reverses the order
+	 * @param orderby sort column
+	 * @return true for descending order
+	 */
+	private boolean toggleOrder(String orderby) {
+		if (orderbyConversation.equals(orderby)) {
+			asc = !asc;
+		} else {
+			orderbyConversation = orderby;
+			asc = true;
 		}
-		for (Conversation conv : conversations) {
-			TableItem ti = new TableItem(conversationsTable, SWT.NONE);
-			ti.setText(new String[] { conv.getContactAccount().getContact().getName(), conv.getTitle(), dateFormat.format(conv.getTime()),
-					conv.getLength() + "" });
+		return !asc;
+	}
+
+	/**
+	 * Returns conversation shown in row
+	 * @param n row index
+	 * @return conversation, null if it can't be read
+	 */
+	private Conversation getConversation(int n) {
+		if (conversations == null || n < 0 || n >= conversations.size())
+			return null;
+		try {
+			return conversations.get(n);
+		} catch (SormulaException e) {
+			SIA.getInstance().handleException("An unexpected error occured when loading conversations.", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Shows found conversations in the table, rows are read when they are shown
+	 */
+	private class ConversationsCallback implements SearchExecutor.Callback<ConversationCursor> {
+		private String filter;
+
+		private ConversationsCallback(String filter) {
+			this.filter = filter;
+		}
+
+		@Override
+		public void done(ConversationCursor result) {
+			if (conversationsTable.isDisposed()) {
+				result.close();
+				return;
+			}
+			if (conversations != null)
+				conversations.close();
+			conversations = result;
+			conversationsFilter = filter;
+			conversationsTable.clearAll();
+			conversationsTable.setItemCount(conversations.size());
+		}
+
+		@Override
+		public void failed(Exception e) {
+			SIA.getInstance().handleException("An unexpected error occured when loading conversations.", e);
 		}
 	}
 
 	private void setConversation(int n) {
-		Color c = new Color(0xEFEFEF);
-		Color cReceiver = new Color(0xDEF7FF);
-		Conversation conv = conversations.get(n);
-		List<Message> m;
-		if (conv.getMessages() == null || conv.getMessages().isEmpty()) {
+		Conversation conv = getConversation(n);
+		if (conv == null)
+			return;
+		messageWindow = null;
+		RenderCache cache = RenderCache.getInstance();
+		if (conv.getLength() > MessageWindow.WINDOW_SIZE) {
+			// only the first window is cached, following ones are appended by the page
+			String settings = renderer.getSettings() + "|window";
+			MessageWindow window = new MessageWindow(conv.getId());
 			try {
-				conv.setMessages(SIA.getInstance().getORM().getTable(Message.class)
-						.selectAllCustom("WHERE conversationId = " + conv.getId() + " ORDER BY time"));
+				String html = cache.get(conv.getId(), settings);
+				if (html == null || !window.skipFirst()) {
+					html = renderer.renderWindow(window.first(), "siaMore");
+					cache.put(conv.getId(), settings, html);
+				}
+				conversationBrowser.setText(html);
 			} catch (SormulaException e) {
 				SIA.getInstance().handleException("An unexpected error occured when loading messages.", e);
+				return;
 			}
+			messageWindow = window;
+			return;
 		}
-		m = conv.getMessages();
-		StringBuilder html = new StringBuilder();
-		html.append("<!doctype html>");
-		html.append("<html>");
-		html.append("<head>");
-		html.append("<title>SIA conversation browser</title>");
-		html.append("<meta http-equiv=\"X-UA-Compatible\" content=\"IE=100\" />");
-		html.append("<base href=\"file://"+  this.getClass().getProtectionDomain().getCodeSource().getLocation().getPath() +"\" />");
-		html.append("<style type=\"text/css\">");
-		html.append("body {font: 10px system;}");
-
-		html.append(".received {");
-		html.append("border: 1px solid " + c2h(cReceiver.darker()) + ";");
-		html.append("background-color:" + c2h(cReceiver) + ";");
-		html.append("background-image: -webkit-gradient(linear, left top, left bottom, from("
-				+ c2h(cReceiver.brighter()) + "), +to(" + c2h(cReceiver) + "));");
-		html.append("background-image: -webkit-linear-gradient(top, " + c2h(cReceiver.brighter()) + ", "
-				+ c2h(cReceiver) + ");");
-		html.append("background-image: -moz-linear-gradient(top, " + c2h(cReceiver.brighter()) + ", " + c2h(cReceiver)
-				+ ");");
-		html.append("background-image: linear-gradient(top, " + c2h(cReceiver.brighter()) + ", " + c2h(cReceiver)
-				+ ");");
-		html.append("color:" + c2h(cReceiver.darker().darker().darker().darker()) + ";}");
-
-		html.append(".sent {");
-		html.append("-webkit-border-radius: 5px;");
-		html.append("-moz-border-radius: 5px; ");
-		html.append("border-radius: 5px;");
-		html.append("border: 1px solid " + c2h(c.darker()) + ";");
-		html.append("background-color:" + c2h(c) + ";");
-		html.append("background-image: -webkit-gradient(linear, left top, left bottom, from(" + c2h(c.brighter())
-				+ "), +to(" + c2h(c) + "));");
-		html.append("background-image: -webkit-linear-gradient(top, " + c2h(c.brighter()) + ", " + c2h(c) + ");");
-		html.append("background-image: -moz-linear-gradient(top, " + c2h(c.brighter()) + ", " + c2h(c) + ");");
-		html.append("background-image: linear-gradient(top, " + c2h(c.brighter()) + ", " + c2h(c) + ");");
-		html.append("color:" + c2h(c.darker().darker().darker().darker()) + ";}");
-
-		html.append(".received p, .sent p {");
-		html.append("margin: 0 0 3px 30px;");
-		// html.append("position: relative;");
-		// html.append("clear: right;");
-		html.append("}");
-
-		html.append(".received, .sent {");
-		html.append("margin: 5px;");
-		html.append("padding: 5px;");
-		html.append("-webkit-border-radius: 5px;");
-		html.append("-moz-border-radius: 5px; ");
-		html.append("border-radius: 5px;");
-		html.append("}");
-		html.append(".clear {");
-		html.append("clear:both;");
-		html.append("line-height: 0.2em;");
-		html.append("}");
-		html.append(".time {");
-		html.append("float: right;");
-		html.append("clear: right;");
-		html.append("}");
-		html.append(".avatar {");
-		html.append("float: left;");
-		html.append("}");
-		html.append("</style>");
-		html.append("</head>");
-		html.append("<body>");
-		html.append("<header>");
-		html.append("");
-		html.append("</header> ");
-		html.append("");
-		for (int i = 0; i < m.size(); i++) {
-			if (m.get(i).getReceived() > 0) {
-				html.append("<div class=\"received\">");
-			} else {
-				html.append("<div class=\"sent\">");
-			}
-			html.append("<div class=\"avatar\">");
-			html.append("<img src=\"sia/ui/resources/properties.png\" />");
-			html.append("</div>");
-			html.append("<p>");
-			html.append(m.get(i).getMessage());
-			html.append("<span class=\"time\">");
-			html.append(dateFormat.format(m.get(i).getTime()));
-			html.append("</span>");
-			html.append("</p>");
-			html.append("<div style=\"clear:both;\"></div>");
-			while (i + 1 < m.size() && m.get(i).getReceived() == m.get(i + 1).getReceived()
-					&& m.get(i + 1).getTime().getTime() - m.get(i).getTime().getTime() < 1800000) {
-				html.append("<p>");
-				html.append(m.get(i + 1).getMessage());
-				html.append("<span class=\"time\">");
-				html.append(dateFormat.format(m.get(i + 1).getTime()));
-				html.append("</span>");
-				html.append("</p>");
-				html.append("<div class=\"clear\">&nbsp;</div>");
-				i++;
+		String html = cache.get(conv.getId(), renderer.getSettings());
+		if (html == null) {
+			List<Message> m;
+			try {
+				m = SIA.getInstance().getORM().select("message.conversation", conv.getId());
+			} catch (SormulaException e) {
+				SIA.getInstance().handleException("An unexpected error occured when loading messages.", e);
+				return;
 			}
-
-			html.append("</div>");
+			html = renderer.render(m);
+			cache.put(conv.getId(), renderer.getSettings(), html);
 		}
-		html.append("");
-		html.append("</body>");
-		html.append("</html>");
-		conversationBrowser.setText(html.toString());
+		conversationBrowser.setText(html);
 	}
 
-	private String c2h(Color c) {
-		return "#" + Integer.toHexString(c.getRGB()).substring(2);
+	private String moreMessages(int direction) {
+		if (messageWindow == null)
+			return null;
+		try {
+			List<Message> m = direction > 0 ? messageWindow.next() : messageWindow.previous();
+			return m.isEmpty() ? null : renderer.renderMessages(m);
+		} catch (SormulaException e) {
+			SIA.getInstance().handleException("An unexpected error occured when loading messages.", e);
+			messageWindow = null;
+			return null;
+		}
 	}
 }
@@ -20,10 +20,13 @@ import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.graphics.Rectangle;
 import org.sormula.SormulaException;
 
+import sia.datasources.ChangeSet;
 import sia.datasources.DataSource;
 import sia.models.Contact;
 import sia.ui.SIA;
 import sia.utils.Dictionaries;
+import sia.utils.ProgressListener;
+import sia.utils.ProgressMonitor;
 
 /**
  * 
@@ -198,13 +201,21 @@ public class ImportWizard extends Wizard implements IPageChangingListener, IPage
 			return false;
 		}
 		try {
-			Dictionaries.getInstance().loadContacts();
+			Dictionaries.getInstance().apply(datasource.getChanges());
 		} catch (SormulaException e) {
 			SIA.getInstance().handleException("An abort occured when reloading contacts.", e);
 		}
 		return true;
 	}
 
+	/**
+	 * Returns contacts and accounts changed by the import
+	 * @return change set, null if nothing was saved
+	 */
+	public ChangeSet getChanges() {
+		return datasource != null ? datasource.getChanges() : null;
+	}
+
 	@Override
 	public void handlePageChanging(PageChangingEvent event) {
 		WizardDialog dialog = (WizardDialog) event.getSource();
@@ -348,9 +359,8 @@ public class ImportWizard extends Wizard implements IPageChangingListener, IPage
 						}
 					}
 				});
-				currentThread.start();
 				loader = new Loader(DataSource.Progress.USER_ACCOUNTS_PROGRESS, accountsLoading);
-				new Thread(loader).start();
+				currentThread.start();
 			} else if (event.getSelectedPage() == messageLoading) {
 				if (wasSetAccounts) {
 					datasource.setUserAccounts(setAccounts.getUserAccounts());
@@ -387,9 +397,8 @@ public class ImportWizard extends Wizard implements IPageChangingListener, IPage
 						}
 					}
 				});
-				currentThread.start();
 				loader = new Loader(DataSource.Progress.CONTACTS_PROGRESS, messageLoading);
-				new Thread(loader).start();
+				currentThread.start();
 			} else if (event.getSelectedPage() == saveLoading) {
 				mapContacts.addContactAccounts(); // merge new ContactAccounts with existing Contacts
 				setContacts.addNewContacts();
@@ -398,13 +407,22 @@ public class ImportWizard extends Wizard implements IPageChangingListener, IPage
 					public void run() {
 						try {
 							datasource.save(contacts);
+							getShell().getDisplay().asyncExec(new Runnable() {
+								public void run() {
+									saveLoading.setDescription("Saved " + datasource.getSavedRows() + " rows ("
+											+ (long) datasource.getSaveRate() + " rows/s), "
+											+ datasource.getDuplicatesCount() + " duplicate messages skipped"
+											+ (datasource.getResumedCount() > 0 ? ", " + datasource.getResumedCount()
+													+ " conversations saved by interrupted import." : "."));
+								}
+							});
 						} catch (Exception e) {
 							if (loader != null) {
 								loader.cancel();
 							}
 							try {
 								SIA.getInstance().cleanup();
-								SIA.getInstance().updateConversations(datasource.getUserAccounts());
+								SIA.getInstance().updateConversations();
 							} catch (Exception e1) {
 								SIA.getInstance().handleException("Unexpected abort on saving data into database and during clean-up. This is a critical abort, so application will be closed now.", e1);
 								SIA.getInstance().close(null);
@@ -418,9 +436,8 @@ public class ImportWizard extends Wizard implements IPageChangingListener, IPage
 						} 
 					}
 				});
-				currentThread.start();
 				loader = new Loader(DataSource.Progress.SAVE_PROGRESS, saveLoading);
-				new Thread(loader).start();
+				currentThread.start();
 			}
 		} catch (Exception e) {
 			SIA.getInstance().handleException("An unexpected abort occured on page changing.", e);
@@ -459,14 +476,14 @@ public class ImportWizard extends Wizard implements IPageChangingListener, IPage
 	/**
 	 * Loader.
 	 * 
-	 * Updates specified operation progress
+	 * Shows specified operation progress, updated by the operation itself
 	 * 
 	 * @author jumper
 	 */
-	class Loader implements Runnable {
-		private DataSource.Progress progress;
+	class Loader implements ProgressListener {
+		private ProgressMonitor monitor;
 		private ImportLoading page;
-		private boolean cancel;
+		private volatile boolean cancel;
 
 		/**
 		 * Default and only constructor
@@ -477,51 +494,51 @@ public class ImportWizard extends Wizard implements IPageChangingListener, IPage
 		 *            loading page
 		 */
 		public Loader(DataSource.Progress progress, ImportLoading page) {
-			this.progress = progress;
+			this.monitor = datasource.getProgressMonitor(progress);
 			this.page = page;
 			this.cancel = false;
+			page.setPageComplete(false);
+			page.canFlipToNextPage();
+			monitor.addListener(this);
+			// finished before (data kept after going back), no more progress comes
+			if (monitor.isFinished())
+				progressChanged(monitor);
 		}
 		
 		public void cancel() {
 			this.cancel = true;
+			monitor.removeListener(this);
 		}
 
 		/**
 		 * {@inheritDoc}
 		 */
 		@Override
-		public void run() {
-			int value = 0;
+		public void progressChanged(ProgressMonitor monitor) {
+			if (cancel || getShell() == null)
+				return;
+			final int value = monitor.getPercent();
+			final boolean finished = monitor.isFinished();
+			final long eta = monitor.getEta();
+			final long rate = (long) monitor.getRate();
+			if (finished) {
+				monitor.removeListener(this);
+				datasource.stopParserCurrentAction();
+			}
 			getShell().getDisplay().asyncExec(new Runnable() {
 				public void run() {
-					page.setPageComplete(false);
-					page.canFlipToNextPage();
-				}
-			});
-			while (value < 100 && !cancel) {
-				value = datasource.getProgress(progress);
-				final int valueToSet = value;
-				getShell().getDisplay().asyncExec(new Runnable() {
-					public void run() {
-						page.setProgress(valueToSet);
-					}
-				});
-				try {
-					Thread.sleep(100);
-				} catch (InterruptedException e) {
-					// Silent like a ninja
-				}
-			}
-			//TODO: fix.
-			if (getShell() != null && !cancel) {
-				getShell().getDisplay().asyncExec(new Runnable() {
-					public void run() {
+					if (cancel || page.getControl() == null || page.getControl().isDisposed())
+						return;
+					page.setProgress(value);
+					if (finished) {
 						page.setPageComplete(true);
 						page.canFlipToNextPage();
+					} else if (eta > 0) {
+						page.setDescription("Please wait... (" + rate + " items/s, about " + (eta / 1000 + 1)
+								+ " s left)");
 					}
-				});
-			}
-			datasource.stopParserCurrentAction();
+				}
+			});
 		}
 	}
 }
@@ -0,0 +1,218 @@
+package sia.utils;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.sormula.SormulaException;
+
+import sia.models.Contact;
+import sia.models.ContactAccount;
+import sia.ui.SIA;
+
+/**
+ * Contact activity.
+ *
+ * Number of messages exchanged with contacts and the first and last message
+ * time, read from the activity rollup maintained by
+ * {@link SIA#rollupActivity()} instead of aggregating messages, so it takes
+ * the same time whatever the archive size. Days are local days.
+ *
+ * @author jumper
+ */
+public class Activity {
+	/**
+	 * Period activity is summed up by
+	 */
+	public enum Period {
+		DAY("day"), MONTH("substr(day, 1, 7)"), YEAR("substr(day, 1, 4)");
+
+		private String expression;
+
+		private Period(String expression) {
+			this.expression = expression;
+		}
+	}
+
+	/**
+	 * Contact order
+	 */
+	public enum Order {
+		MOST_RECENT, MOST_ACTIVE
+	}
+
+	/**
+	 * Activity in one period, or in total
+	 */
+	public static class Row {
+		private String period;
+		private int messages;
+		private int received;
+		private long firstTime;
+		private long lastTime;
+
+		/**
+		 * Returns period: yyyy-MM-dd, yyyy-MM or yyyy, null for total
+		 * @return period
+		 */
+		public String getPeriod() {
+			return period;
+		}
+
+		/**
+		 * Returns number of messages
+		 * @return messages
+		 */
+		public int getMessages() {
+			return messages;
+		}
+
+		/**
+		 * Returns number of received messages
+		 * @return received messages
+		 */
+		public int getReceived() {
+			return received;
+		}
+
+		/**
+		 * Returns number of sent messages
+		 * @return sent messages
+		 */
+		public int getSent() {
+			return messages - received;
+		}
+
+		/**
+		 * Returns time of first message
+		 * @return first time
+		 */
+		public Date getFirstTime() {
+			return new Date(firstTime);
+		}
+
+		/**
+		 * Returns time of last message
+		 * @return last time
+		 */
+		public Date getLastTime() {
+			return new Date(lastTime);
+		}
+	}
+
+	private Activity() {
+	}
+
+	/**
+	 * Returns activity of contact by period
+	 * @param contact
+	 * @param period
+	 * @return rows in time order, periods without messages are left out
+	 * @throws SormulaException
+	 */
+	public static List<Row> history(Contact contact, Period period) throws SormulaException {
+		return history("contactAccountId IN (SELECT id FROM main.contactaccount WHERE contactId = ?)", contact.getId(),
+				period);
+	}
+
+	/**
+	 * Returns activity of contact account by period
+	 * @param contactAccount
+	 * @param period
+	 * @return rows in time order, periods without messages are left out
+	 * @throws SormulaException
+	 */
+	public static List<Row> history(ContactAccount contactAccount, Period period) throws SormulaException {
+		return history("contactAccountId = ?", contactAccount.getId(), period);
+	}
+
+	/**
+	 * Returns total activity of all contacts
+	 * @return rows by contact ID, contacts without messages are left out
+	 * @throws SormulaException
+	 */
+	public static Map<Integer, Row> totals() throws SormulaException {
+		Map<Integer, Row> totals = new HashMap<Integer, Row>();
+		for (Map.Entry<Object, Row> entry : select("SELECT ca.contactId, SUM(a.messages), SUM(a.received), "
+				+ "MIN(a.firstTime), MAX(a.lastTime) FROM main.activity a JOIN main.contactaccount ca "
+				+ "ON ca.id = a.contactAccountId GROUP BY ca.contactId").entrySet())
+			totals.put(((Number) entry.getKey()).intValue(), entry.getValue());
+		return totals;
+	}
+
+	/**
+	 * Sort contacts by activity, contacts without messages come last
+	 * @param contacts
+	 * @param order
+	 * @return sorted copy of contacts
+	 * @throws SormulaException
+	 */
+	public static List<Contact> sort(List<Contact> contacts, Order order) throws SormulaException {
+		Map<Integer, Row> totals = totals();
+		final long[] keys = new long[contacts.size()];
+		Integer[] positions = new Integer[contacts.size()];
+		for (int i = 0; i < keys.length; i++) {
+			Row row = totals.get(contacts.get(i).getId());
+			keys[i] = row == null ? -1 : order == Order.MOST_RECENT ? row.lastTime : row.messages;
+			positions[i] = i;
+		}
+		// the most recent or active first, the original order otherwise
+		Arrays.sort(positions, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				long ka = keys[a];
+				long kb = keys[b];
+				return ka > kb ? -1 : ka < kb ? 1 : a.compareTo(b);
+			}
+		});
+		List<Contact> sorted = new ArrayList<Contact>(contacts.size());
+		for (Integer position : positions)
+			sorted.add(contacts.get(position));
+		return sorted;
+	}
+
+	private static List<Row> history(String condition, int id, Period period) throws SormulaException {
+		List<Row> rows = new ArrayList<Row>();
+		for (Map.Entry<Object, Row> entry : select("SELECT " + period.expression + ", SUM(messages), SUM(received), "
+				+ "MIN(firstTime), MAX(lastTime) FROM main.activity WHERE " + condition + " GROUP BY 1 ORDER BY 1", id)
+				.entrySet()) {
+			entry.getValue().period = (String) entry.getKey();
+			rows.add(entry.getValue());
+		}
+		return rows;
+	}
+
+	private static Map<Object, Row> select(String sql, Object... parameters) throws SormulaException {
+		Map<Object, Row> rows = new LinkedHashMap<Object, Row>();
+		StatementCache statements = SIA.getInstance().getORM().getStatementCache(
+				SIA.getInstance().getReadConnection());
+		try {
+			synchronized (statements) {
+				PreparedStatement stmt = statements.prepare(sql);
+				for (int i = 0; i < parameters.length; i++)
+					stmt.setObject(i + 1, parameters[i]);
+				ResultSet rs = stmt.executeQuery();
+				while (rs.next()) {
+					Row row = new Row();
+					row.messages = rs.getInt(2);
+					row.received = rs.getInt(3);
+					row.firstTime = rs.getLong(4);
+					row.lastTime = rs.getLong(5);
+					rows.put(rs.getObject(1), row);
+				}
+				rs.close();
+			}
+		} catch (SQLException e) {
+			throw new SormulaException("Activity can't be read", e);
+		}
+		return rows;
+	}
+}
@@ -0,0 +1,395 @@
+package sia.utils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.log4j.Logger;
+
+import sia.models.Contact;
+import sia.models.ContactAccount;
+import sia.models.Conversation;
+import sia.models.Message;
+import sia.models.UserAccount;
+
+/**
+ * Bulk insert.
+ *
+ * Writes rows of many tables through one prepared statement per table, sends
+ * them in JDBC batches and commits every commitSize rows. Identities are
+ * assigned here (from sqlite_sequence) instead of being read back from the
+ * database, so child rows can reference parents before parents are flushed.
+ *
+ * After {@link #startWriter(int)} rows are handed over to a single writer
+ * thread through a bounded queue: the caller only assigns identities, the writer
+ * binds rows, coalesces them into batches per table and talks to the database.
+ * Statements run while holding the connection monitor; anybody else using the
+ * same connection meanwhile has to synchronize on it too.
+ *
+ * @author jumper
+ */
+public class BulkInsert {
+	public static final int DEFAULT_BATCH_SIZE = 500;
+	public static final int DEFAULT_COMMIT_SIZE = 10000;
+	public static final int DEFAULT_QUEUE_SIZE = 4096;
+	private static final Object[] END = new Object[0];
+	/**
+	 * Flush order of tables, parents first; other tables follow in order of first use
+	 */
+	private static final List<Class<?>> PARENTS_FIRST = Arrays.<Class<?>> asList(UserAccount.class, Contact.class,
+			ContactAccount.class, Conversation.class, Message.class);
+
+	private Connection connection;
+	private String schema;
+	private int batchSize;
+	private int commitSize;
+	private boolean autoCommit;
+	private Map<Class<?>, TableBatch> batches;
+	private List<TableBatch> order;
+	private int pending;
+	private int uncommitted;
+	private volatile long rowsWritten;
+	private long startTime;
+	private long endTime;
+	private BlockingQueue<Object[]> queue;
+	private Thread writer;
+	private volatile SQLException failure;
+	private ProgressMonitor monitor;
+
+	private static final Logger logger = Logger.getLogger(BulkInsert.class);
+
+	/**
+	 * Default and only constructor
+	 *
+	 * @param connection database connection
+	 * @param schema database schema (main or aux1)
+	 * @param batchSize rows sent in one JDBC batch
+	 * @param commitSize rows committed in one transaction
+	 * @throws SQLException
+	 */
+	public BulkInsert(Connection connection, String schema, int batchSize, int commitSize) throws SQLException {
+		this.connection = connection;
+		this.schema = schema;
+		this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+		this.commitSize = commitSize > 0 ? commitSize : DEFAULT_COMMIT_SIZE;
+		this.batches = new LinkedHashMap<Class<?>, TableBatch>();
+		this.order = new ArrayList<TableBatch>();
+		synchronized (connection) {
+			this.autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+		}
+		this.startTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Set monitor counting written rows, must be called before the first insert
+	 *
+	 * @param monitor progress monitor
+	 */
+	public void setProgressMonitor(ProgressMonitor monitor) {
+		this.monitor = monitor;
+	}
+
+	/**
+	 * Start writer thread. From now on {@link #insert(Class, Object)} only
+	 * queues rows and blocks when queueSize rows are waiting.
+	 *
+	 * @param queueSize maximum number of queued rows
+	 */
+	public void startWriter(int queueSize) {
+		if (writer != null)
+			return;
+		queue = new ArrayBlockingQueue<Object[]>(queueSize > 0 ? queueSize : DEFAULT_QUEUE_SIZE);
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				write();
+			}
+		}, "bulk-writer-" + schema);
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Assign identity to the row and queue it for insert
+	 *
+	 * @param type row type
+	 * @param row row
+	 * @throws SQLException
+	 */
+	public <T> void insert(Class<T> type, T row) throws SQLException {
+		if (failure != null)
+			throw failure;
+		TableBatch batch = batches.get(type);
+		if (batch == null) {
+			synchronized (connection) {
+				batch = new TableBatch(type);
+			}
+			batches.put(type, batch);
+			synchronized (order) {
+				int position = order.size();
+				while (position > 0 && rank(order.get(position - 1).type) > rank(type))
+					position--;
+				order.add(position, batch);
+			}
+		}
+		batch.assignId(row);
+		if (writer == null) {
+			batch.add(row);
+			if (++pending >= batchSize)
+				flush();
+		} else {
+			try {
+				queue.put(new Object[] { batch, row });
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while queueing " + batch.table + " row");
+			}
+		}
+	}
+
+	/**
+	 * Send all bound rows to the database. Tables are flushed parents first
+	 * (user accounts, contacts, contact accounts, conversations, messages),
+	 * whatever order rows came in, so no row reaches the database before the
+	 * row it references.
+	 *
+	 * @throws SQLException
+	 */
+	private void flush() throws SQLException {
+		synchronized (connection) {
+			synchronized (order) {
+				for (TableBatch batch : order)
+					batch.execute();
+			}
+			uncommitted += pending;
+			pending = 0;
+			if (uncommitted >= commitSize) {
+				connection.commit();
+				uncommitted = 0;
+			}
+		}
+	}
+
+	/**
+	 * Writer thread loop
+	 */
+	private void write() {
+		try {
+			Object[] item;
+			while ((item = queue.take()) != END) {
+				if (failure != null)
+					continue;
+				try {
+					((TableBatch) item[0]).add(item[1]);
+					if (++pending >= batchSize)
+						flush();
+				} catch (SQLException e) {
+					failure = e;
+				}
+			}
+		} catch (InterruptedException e) {
+			failure = new SQLException("Bulk writer interrupted");
+		}
+	}
+
+	/**
+	 * Wait until writer thread has bound all queued rows and exits
+	 *
+	 * @throws SQLException
+	 */
+	private void stopWriter() throws SQLException {
+		if (writer == null)
+			return;
+		try {
+			queue.put(END);
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for bulk writer");
+		} finally {
+			writer = null;
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	/**
+	 * Flush remaining rows, commit and release statements
+	 *
+	 * @throws SQLException
+	 */
+	public void close() throws SQLException {
+		try {
+			stopWriter();
+			flush();
+			synchronized (connection) {
+				connection.commit();
+			}
+		} finally {
+			release();
+		}
+		endTime = System.currentTimeMillis();
+		for (Map.Entry<Class<?>, TableBatch> e : batches.entrySet())
+			logger.debug("bulk -> " + schema + "." + e.getValue().table + ", inserted: " + e.getValue().written);
+		logger.debug("bulk insert: " + rowsWritten + " rows, " + (long) getRowsPerSecond() + " rows/s");
+	}
+
+	/**
+	 * Roll back uncommitted rows and release statements
+	 */
+	public void abort() {
+		if (failure == null)
+			failure = new SQLException("Bulk insert aborted");
+		try {
+			stopWriter();
+		} catch (SQLException e) {
+			// failure already set
+		}
+		synchronized (connection) {
+			try {
+				connection.rollback();
+			} catch (SQLException e) {
+				logger.error("Bulk insert rollback failed", e);
+			}
+			release();
+		}
+	}
+
+	/**
+	 * Returns number of rows written so far
+	 *
+	 * @return rows written
+	 */
+	public long getRowsWritten() {
+		return rowsWritten;
+	}
+
+	/**
+	 * Returns write throughput
+	 *
+	 * @return rows per second
+	 */
+	public double getRowsPerSecond() {
+		long time = (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime;
+		return time > 0 ? rowsWritten * 1000.0d / time : rowsWritten;
+	}
+
+	private static int rank(Class<?> type) {
+		int rank = PARENTS_FIRST.indexOf(type);
+		return rank != -1 ? rank : PARENTS_FIRST.size();
+	}
+
+	private void release() {
+		for (TableBatch batch : batches.values())
+			batch.close();
+		try {
+			connection.setAutoCommit(autoCommit);
+		} catch (SQLException e) {
+			logger.error("Restoring auto commit failed", e);
+		}
+	}
+
+	/**
+	 * Prepared statement and identity sequence of one table
+	 *
+	 * Columns are those of {@link Columns}, read through their getters.
+	 */
+	private class TableBatch {
+		private Class<?> type;
+		private String table;
+		private List<Method> getters;
+		private Method setId;
+		private Method getId;
+		private PreparedStatement statement;
+		private int id;
+		private int queued;
+		private long written;
+
+		public TableBatch(Class<?> type) throws SQLException {
+			this.type = type;
+			table = type.getSimpleName().toLowerCase();
+			getters = new ArrayList<Method>();
+			StringBuilder columns = new StringBuilder();
+			StringBuilder values = new StringBuilder();
+			try {
+				for (Field field : Columns.columns(type)) {
+					String name = field.getName();
+					getters.add(type.getMethod("get" + Character.toUpperCase(name.charAt(0)) + name.substring(1)));
+					columns.append(columns.length() == 0 ? "" : ", ").append(name);
+					values.append(values.length() == 0 ? "?" : ", ?");
+				}
+				getId = type.getMethod("getId");
+				setId = type.getMethod("setId", int.class);
+			} catch (NoSuchMethodException e) {
+				throw new SQLException("Type " + type.getName() + " can't be bulk inserted: " + e.getMessage());
+			}
+			statement = connection.prepareStatement("INSERT INTO " + schema + "." + table + " (" + columns
+					+ ") VALUES (" + values + ")");
+			Statement stmt = connection.createStatement();
+			ResultSet rs = stmt.executeQuery("SELECT MAX(IFNULL((SELECT seq FROM " + schema
+					+ ".sqlite_sequence WHERE lower(name) = '" + table + "'), 0), IFNULL((SELECT MAX(id) FROM "
+					+ schema + "." + table + "), 0))");
+			id = rs.next() ? rs.getInt(1) : 0;
+			rs.close();
+			stmt.close();
+		}
+
+		public void assignId(Object row) throws SQLException {
+			try {
+				if ((Integer) getId.invoke(row) == 0)
+					setId.invoke(row, ++id);
+			} catch (Exception e) {
+				throw new SQLException("Can't assign " + table + " identity: " + e.getMessage());
+			}
+		}
+
+		public void add(Object row) throws SQLException {
+			try {
+				for (int i = 0; i < getters.size(); i++) {
+					Object value = getters.get(i).invoke(row);
+					if (value instanceof Date)
+						statement.setTimestamp(i + 1, new Timestamp(((Date) value).getTime()));
+					else
+						statement.setObject(i + 1, value);
+				}
+			} catch (SQLException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new SQLException("Can't bind " + table + " row: " + e.getMessage());
+			}
+			statement.addBatch();
+			queued++;
+		}
+
+		public void execute() throws SQLException {
+			if (queued == 0)
+				return;
+			statement.executeBatch();
+			written += queued;
+			rowsWritten += queued;
+			queued = 0;
+		}
+
+		public void close() {
+			try {
+				statement.close();
+			} catch (SQLException e) {
+				logger.error(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package sia.utils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sormula.annotation.Column;
+import org.sormula.annotation.Transient;
+import org.sormula.annotation.cascade.OneToOneCascade;
+
+/**
+ * Column mapping of models.
+ *
+ * The rules Sormula maps rows by, for code writing or reading rows on its
+ * own: every field neither static nor transient is a column of the same
+ * name, except one-to-one cascades, which are selected by their source field.
+ *
+ * @author jumper
+ */
+final class Columns {
+	private Columns() {
+	}
+
+	/**
+	 * Returns column fields, in declaration order
+	 * @param type model
+	 * @return accessible fields
+	 */
+	static List<Field> columns(Class<?> type) {
+		List<Field> columns = new ArrayList<Field>();
+		for (Field field : fields(type))
+			if (!field.isAnnotationPresent(OneToOneCascade.class))
+				columns.add(field);
+		return columns;
+	}
+
+	/**
+	 * Returns one-to-one cascade fields, in declaration order
+	 * @param type model
+	 * @return accessible fields
+	 */
+	static List<Field> cascades(Class<?> type) {
+		List<Field> cascades = new ArrayList<Field>();
+		for (Field field : fields(type))
+			if (field.isAnnotationPresent(OneToOneCascade.class))
+				cascades.add(field);
+		return cascades;
+	}
+
+	/**
+	 * Returns column a cascade is selected by
+	 * @param type model
+	 * @param cascade one-to-one cascade field
+	 * @return source column field, null if there is none
+	 */
+	static Field source(Class<?> type, Field cascade) {
+		String source = cascade.getAnnotation(OneToOneCascade.class).selects()[0].sourceParameterFieldNames()[0];
+		for (Field column : columns(type))
+			if (column.getName().equals(source))
+				return column;
+		return null;
+	}
+
+	/**
+	 * Returns name of primary key column
+	 * @param type model
+	 * @return primary key field name
+	 */
+	static String primaryKey(Class<?> type) {
+		for (Field field : type.getDeclaredFields()) {
+			Column column = field.getAnnotation(Column.class);
+			if (column != null && (column.primaryKey() || column.identity()))
+				return field.getName();
+		}
+		return "id";
+	}
+
+	private static List<Field> fields(Class<?> type) {
+		List<Field> fields = new ArrayList<Field>();
+		for (Field field : type.getDeclaredFields()) {
+			if (Modifier.isStatic(field.getModifiers()) || field.isAnnotationPresent(Transient.class))
+				continue;
+			field.setAccessible(true);
+			fields.add(field);
+		}
+		return fields;
+	}
+}
@@ -0,0 +1,209 @@
+package sia.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Connection manager.
+ *
+ * One writer connection, used by imports and everything changing the
+ * database, and read-only connections for browsing. In WAL journal mode
+ * every reader sees the last committed state (a snapshot per query), so
+ * browsing neither waits for nor sees a running import. A thread is given
+ * its own reader at first use and keeps it, so temporary tables created by
+ * the thread stay visible to it; readers are never shared between threads,
+ * so interrupting one (a superseded search) can't hit another thread's
+ * query. A thread may hand its reader over to an object outliving the query
+ * (a cursor read later by the UI thread), which releases it when done.
+ * Without WAL the writer holds the database exclusively and is the only
+ * connection; readers are the writer then.
+ *
+ * @author jumper
+ */
+public class ConnectionManager {
+	private String url;
+	private Connection writer;
+	private boolean readable;
+	private List<Connection> readers;
+	private ThreadLocal<Connection> assigned;
+	private RandomAccessFile lockFile;
+	private FileLock lock;
+
+	private static final Logger logger = Logger.getLogger(ConnectionManager.class);
+
+	/**
+	 * Constructor
+	 * @param dbPath database path
+	 * @param writer writer connection
+	 */
+	public ConnectionManager(String dbPath, Connection writer) {
+		this.url = "jdbc:sqlite:" + dbPath;
+		this.writer = writer;
+		this.readers = new ArrayList<Connection>();
+		this.assigned = new ThreadLocal<Connection>();
+	}
+
+	/**
+	 * Lock database for this instance of the application, when the writer
+	 * doesn't hold it exclusively
+	 * @param lockPath lock file path
+	 * @return true if locked, false if another instance holds the lock
+	 * @throws IOException
+	 */
+	public synchronized boolean lock(String lockPath) throws IOException {
+		lockFile = new RandomAccessFile(new File(lockPath), "rw");
+		FileChannel channel = lockFile.getChannel();
+		try {
+			lock = channel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			// held by this process already
+			lock = null;
+		}
+		if (lock == null) {
+			lockFile.close();
+			lockFile = null;
+		}
+		return lock != null;
+	}
+
+	/**
+	 * Use read-only connections from now on, database has to be in WAL journal mode
+	 */
+	public synchronized void enableReaders() {
+		readable = true;
+	}
+
+	/**
+	 * Open read-only connection owned by the caller, released with {@link #release(Connection)}
+	 * @return new reader
+	 * @throws SQLException
+	 */
+	public Connection openReader() throws SQLException {
+		Properties properties = new Properties();
+		// opened read-only rather than query_only, temporary tables of searches are written
+		properties.setProperty("open_mode", "1"); // SQLITE_OPEN_READONLY
+		Connection reader = DriverManager.getConnection(url, properties);
+		Statement stmt = reader.createStatement();
+		stmt.executeUpdate("PRAGMA temp_store = 1");
+		stmt.close();
+		synchronized (this) {
+			readers.add(reader);
+			logger.debug("readers: " + readers.size());
+		}
+		return reader;
+	}
+
+	/**
+	 * Returns writer connection
+	 * @return writer
+	 */
+	public Connection getWriter() {
+		return writer;
+	}
+
+	/**
+	 * Returns reader of current thread, opened at first use
+	 * @return read-only connection used by no other thread, the writer if there are no readers
+	 */
+	public Connection getReader() {
+		if (!hasReaders())
+			return writer;
+		Connection reader = assigned.get();
+		if (reader == null) {
+			try {
+				reader = openReader();
+			} catch (SQLException e) {
+				logger.error("reader not opened, reading through the writer", e);
+				return writer;
+			}
+			assigned.set(reader);
+		}
+		return reader;
+	}
+
+	/**
+	 * Hand reader of current thread over to the caller, the thread gets a new
+	 * one at next use
+	 * @return read-only connection to be released by the caller, the writer if there are no readers
+	 */
+	public Connection detachReader() {
+		Connection reader = getReader();
+		assigned.remove();
+		return reader;
+	}
+
+	/**
+	 * Close reader handed over by {@link #openReader()} or {@link #detachReader()},
+	 * the writer is left open
+	 * @param reader
+	 */
+	public void release(Connection reader) {
+		if (reader == writer)
+			return;
+		synchronized (this) {
+			if (!readers.remove(reader))
+				return;
+		}
+		if (assigned.get() == reader)
+			assigned.remove();
+		try {
+			reader.close();
+		} catch (SQLException e) {
+			logger.error(e);
+		}
+	}
+
+	/**
+	 * Returns true if reading doesn't use the writer
+	 * @return true if there are readers
+	 */
+	public synchronized boolean hasReaders() {
+		return readable;
+	}
+
+	/**
+	 * Returns open readers
+	 * @return read-only connections, empty without WAL
+	 */
+	public synchronized List<Connection> getReaders() {
+		return new ArrayList<Connection>(readers);
+	}
+
+	/**
+	 * Close readers and release lock, the writer is closed by its owner
+	 */
+	public synchronized void close() {
+		for (Connection reader : readers) {
+			try {
+				reader.close();
+			} catch (SQLException e) {
+				logger.error(e);
+			}
+		}
+		readers.clear();
+		readable = false;
+		try {
+			if (lock != null)
+				lock.release();
+			if (lockFile != null)
+				lockFile.close();
+		} catch (IOException e) {
+			logger.error(e);
+		}
+		lock = null;
+		lockFile = null;
+	}
+}
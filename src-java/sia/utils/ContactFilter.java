@@ -0,0 +1,135 @@
+package sia.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import sia.models.Contact;
+import sia.models.ContactAccount;
+
+/**
+ * Contact filter.
+ *
+ * In-memory model of the contact tree. Searched strings of every contact are
+ * prepared once, so filtering touches neither the database nor the widgets;
+ * a phrase extending the previous one only filters the previous result.
+ * A contact matches by first name, last name or name (case sensitive), and
+ * then shows all its accounts; otherwise only accounts whose UID contains the
+ * phrase (case insensitive) are shown. Contacts without accounts to show are
+ * left out.
+ *
+ * @author jumper
+ */
+public class ContactFilter {
+	private List<Entry> entries;
+	private String lastPhrase;
+	private List<Match> lastMatches;
+
+	/**
+	 * Matching contact with its accounts to show
+	 */
+	public static class Match {
+		private Entry entry;
+		private List<ContactAccount> contactAccounts;
+
+		private Match(Entry entry, List<ContactAccount> contactAccounts) {
+			this.entry = entry;
+			this.contactAccounts = contactAccounts;
+		}
+
+		/**
+		 * Returns contact
+		 * @return contact
+		 */
+		public Contact getContact() {
+			return entry.contact;
+		}
+
+		/**
+		 * Returns accounts to show
+		 * @return contact accounts
+		 */
+		public List<ContactAccount> getContactAccounts() {
+			return contactAccounts;
+		}
+	}
+
+	/**
+	 * Searched strings of one contact
+	 */
+	private static class Entry {
+		private Contact contact;
+		private String[] names;
+		private String[] uids;
+	}
+
+	/**
+	 * Default and only constructor
+	 * @param contacts contacts with their accounts
+	 */
+	public ContactFilter(List<Contact> contacts) {
+		entries = new ArrayList<Entry>(contacts.size());
+		for (Contact contact : contacts) {
+			Entry entry = new Entry();
+			entry.contact = contact;
+			entry.names = new String[] { value(contact.getFirstname()), value(contact.getLastname()),
+					value(contact.getName()) };
+			entry.uids = new String[contact.getContactAccounts().size()];
+			for (int i = 0; i < entry.uids.length; i++)
+				entry.uids[i] = value(contact.getContactAccounts().get(i).getUid()).toLowerCase();
+			entries.add(entry);
+		}
+	}
+
+	/**
+	 * Returns contacts to show for phrase
+	 * @param phrase searched phrase, empty for all contacts
+	 * @return matching contacts, in the original order
+	 */
+	public synchronized List<Match> filter(String phrase) {
+		List<Match> matches = new ArrayList<Match>();
+		if (lastMatches != null && lastPhrase.length() > 0 && phrase.startsWith(lastPhrase)) {
+			for (Match match : lastMatches)
+				add(matches, match.entry, phrase);
+		} else {
+			for (Entry entry : entries)
+				add(matches, entry, phrase);
+		}
+		lastPhrase = phrase;
+		lastMatches = matches;
+		return Collections.unmodifiableList(matches);
+	}
+
+	/**
+	 * Returns number of contacts in the model
+	 * @return number of contacts
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	private static void add(List<Match> matches, Entry entry, String phrase) {
+		List<ContactAccount> accounts = entry.contact.getContactAccounts();
+		if (phrase.length() == 0 || entry.names[0].indexOf(phrase) != -1 || entry.names[1].indexOf(phrase) != -1
+				|| entry.names[2].indexOf(phrase) != -1) {
+			if (!accounts.isEmpty())
+				matches.add(new Match(entry, accounts));
+			return;
+		}
+		String uid = phrase.toLowerCase().trim();
+		List<ContactAccount> found = null;
+		for (int i = 0; i < entry.uids.length; i++) {
+			if (entry.uids[i].indexOf(uid) != -1) {
+				if (found == null)
+					found = new ArrayList<ContactAccount>();
+				found.add(accounts.get(i));
+			}
+		}
+		if (found != null)
+			matches.add(new Match(entry, found));
+	}
+
+	private static String value(String s) {
+		return s == null ? "" : s;
+	}
+}
@@ -0,0 +1,285 @@
+package sia.utils;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.sormula.SormulaException;
+
+import sia.models.Conversation;
+import sia.ui.SIA;
+
+/**
+ * Conversation cursor.
+ *
+ * Sorted conversations matching a condition, read page by page when asked
+ * for, so the number of conversations doesn't matter. A page starts after
+ * the sort key of the last row of the previous page (keyset), so scrolling
+ * down never skips rows with OFFSET; a jump far ahead skips from the
+ * nearest page whose start is known. Recently used pages are cached.
+ * Once all rows are in memory, sorting again doesn't touch the database.
+ * The cursor takes over the reader of the thread that created it, where its
+ * temporary table of matching IDs lives; later pages are read through it by
+ * whichever thread asks (the UI thread), no other thread uses it meanwhile.
+ * It's released on close.
+ *
+ * @author jumper
+ */
+public class ConversationCursor implements Closeable {
+	public static final int PAGE_SIZE = 100;
+	private static final int CACHED_PAGES = 20;
+
+	private Connection connection;
+	private String condition;
+	private String matches;
+	private String key;
+	private boolean descending;
+	private int size;
+	private Map<Integer, List<Conversation>> pages;
+	private TreeMap<Integer, Object[]> starts;
+	private List<Conversation> loaded;
+
+	/**
+	 * Constructor
+	 * @param condition SQL condition on main.conversation
+	 * @param matches temporary table holding matching IDs, dropped on close, may be null
+	 * @param column sort column: time, title or length
+	 * @param descending true for descending order
+	 * @throws SormulaException
+	 */
+	public ConversationCursor(String condition, String matches, String column, boolean descending)
+			throws SormulaException {
+		this.connection = SIA.getInstance().getConnections().detachReader();
+		this.condition = condition;
+		this.matches = matches;
+		this.key = key(column);
+		this.descending = descending;
+		this.pages = new LinkedHashMap<Integer, List<Conversation>>(CACHED_PAGES, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, List<Conversation>> eldest) {
+				return size() > CACHED_PAGES;
+			}
+		};
+		this.starts = new TreeMap<Integer, Object[]>();
+		starts.put(0, null);
+		try {
+			Statement stmt = connection.createStatement();
+			ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM main.conversation WHERE " + condition);
+			size = rs.next() ? rs.getInt(1) : 0;
+			rs.close();
+			stmt.close();
+		} catch (SQLException e) {
+			throw new SormulaException("Conversations can't be counted", e);
+		}
+	}
+
+	/**
+	 * Constructor of cursor over conversations in memory
+	 * @param conversations conversations in their order
+	 */
+	public ConversationCursor(List<Conversation> conversations) {
+		this.loaded = new ArrayList<Conversation>(conversations);
+		this.size = loaded.size();
+		this.key = key("time");
+		this.pages = new HashMap<Integer, List<Conversation>>();
+		this.starts = new TreeMap<Integer, Object[]>();
+	}
+
+	/**
+	 * Returns number of conversations
+	 * @return number of conversations
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns conversation at position
+	 * @param index position in sort order
+	 * @return conversation, null if it was removed meanwhile
+	 * @throws SormulaException
+	 */
+	public Conversation get(int index) throws SormulaException {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Conversation " + index + " of " + size);
+		if (loaded != null)
+			return loaded.get(index);
+		int page = index / PAGE_SIZE;
+		List<Conversation> rows = pages.get(page);
+		if (rows == null) {
+			rows = load(page);
+			pages.put(page, rows);
+		}
+		return index % PAGE_SIZE < rows.size() ? rows.get(index % PAGE_SIZE) : null;
+	}
+
+	/**
+	 * Sort conversations again. Rows all in memory are sorted in place,
+	 * otherwise pages are read again in the new order.
+	 * @param column sort column: time, title or length
+	 * @param descending true for descending order
+	 */
+	public void sort(String column, boolean descending) {
+		String key = key(column);
+		if (loaded == null && isLoaded()) {
+			loaded = new ArrayList<Conversation>(size);
+			for (int page = 0; page * PAGE_SIZE < size; page++)
+				loaded.addAll(pages.get(page));
+			pages.clear();
+			size = loaded.size();
+		}
+		this.key = key;
+		this.descending = descending;
+		if (loaded != null) {
+			sort(loaded, column, descending);
+			return;
+		}
+		pages.clear();
+		starts.clear();
+		starts.put(0, null);
+	}
+
+	/**
+	 * Returns true if all conversations are in memory
+	 * @return true if sorting doesn't read the database
+	 */
+	public boolean isLoaded() {
+		if (loaded != null)
+			return true;
+		for (int page = 0; page * PAGE_SIZE < size; page++)
+			if (!pages.containsKey(page))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Drop temporary table of matching IDs and release the connection
+	 */
+	@Override
+	public void close() {
+		pages.clear();
+		loaded = null;
+		if (connection == null)
+			return;
+		if (matches != null) {
+			try {
+				Statement stmt = connection.createStatement();
+				stmt.executeUpdate("DROP TABLE IF EXISTS temp." + matches);
+				stmt.close();
+			} catch (SQLException e) {
+				// dropped with the connection anyway
+			}
+			matches = null;
+		}
+		SIA.getInstance().releaseReadConnection(connection);
+		connection = null;
+	}
+
+	private List<Conversation> load(int page) throws SormulaException {
+		Map.Entry<Integer, Object[]> start = starts.floorEntry(page);
+		String direction = descending ? " DESC" : "";
+		StringBuilder sql = new StringBuilder("SELECT id, ").append(key).append(" FROM main.conversation WHERE ")
+				.append(condition);
+		if (start.getValue() != null)
+			sql.append(" AND (").append(key).append(", id) ").append(descending ? "<" : ">").append(" (?, ?)");
+		sql.append(" ORDER BY ").append(key).append(direction).append(", id").append(direction);
+		sql.append(" LIMIT ").append(PAGE_SIZE).append(" OFFSET ").append((page - start.getKey()) * PAGE_SIZE);
+
+		List<Integer> ids = new ArrayList<Integer>(PAGE_SIZE);
+		Object[] last = null;
+		try {
+			PreparedStatement stmt = connection.prepareStatement(sql.toString());
+			if (start.getValue() != null) {
+				stmt.setObject(1, start.getValue()[0]);
+				stmt.setObject(2, start.getValue()[1]);
+			}
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next()) {
+				ids.add(rs.getInt(1));
+				last = new Object[] { rs.getObject(2), rs.getInt(1) };
+			}
+			rs.close();
+			stmt.close();
+		} catch (SQLException e) {
+			throw new SormulaException("Conversations can't be read", e);
+		}
+		if (ids.size() == PAGE_SIZE)
+			starts.put(page + 1, last);
+
+		// a page query has always PAGE_SIZE parameters, missing IDs are null
+		Object[] in = new Object[PAGE_SIZE];
+		ids.toArray(in);
+		Map<Integer, Conversation> byId = new HashMap<Integer, Conversation>();
+		for (Conversation conversation : SIA.getInstance().getORM().<Conversation> select(connection, "conversation.page", in))
+			byId.put(conversation.getId(), conversation);
+		List<Conversation> rows = new ArrayList<Conversation>(ids.size());
+		for (Integer id : ids)
+			if (byId.containsKey(id))
+				rows.add(byId.get(id));
+		return rows;
+	}
+
+	/**
+	 * Sort as the database does, by key and ID. Keys are extracted once
+	 * into primitive fields, so comparing doesn't call getters or box.
+	 */
+	private static void sort(List<Conversation> rows, String column, final boolean descending) {
+		final boolean title = "title".equals(column);
+		final boolean length = "length".equals(column);
+		SortKey[] keys = new SortKey[rows.size()];
+		for (int i = 0; i < keys.length; i++) {
+			Conversation conversation = rows.get(i);
+			SortKey k = new SortKey();
+			k.conversation = conversation;
+			k.id = conversation.getId();
+			if (title)
+				k.text = conversation.getTitle() == null ? "" : conversation.getTitle();
+			else if (length)
+				k.number = conversation.getLength();
+			else
+				k.number = conversation.getTime() == null ? 0 : conversation.getTime().getTime();
+			keys[i] = k;
+		}
+		Arrays.sort(keys, new Comparator<SortKey>() {
+			@Override
+			public int compare(SortKey a, SortKey b) {
+				int result = title ? a.text.compareTo(b.text) : a.number < b.number ? -1 : a.number > b.number ? 1 : 0;
+				if (result == 0)
+					result = a.id < b.id ? -1 : a.id > b.id ? 1 : 0;
+				return descending ? -result : result;
+			}
+		});
+		for (int i = 0; i < keys.length; i++)
+			rows.set(i, keys[i].conversation);
+	}
+
+	private static class SortKey {
+		private Conversation conversation;
+		private int id;
+		private long number;
+		private String text;
+	}
+
+	private static String key(String column) {
+		if ("title".equals(column))
+			return "IFNULL(title, '')";
+		if ("length".equals(column))
+			return "length";
+		if ("time".equals(column))
+			return "time";
+		throw new IllegalArgumentException("Unknown sort column: " + column);
+	}
+}
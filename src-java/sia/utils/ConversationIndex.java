@@ -0,0 +1,201 @@
+package sia.utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Conversation index.
+ *
+ * In-memory replacement of the conversation merge query used when saving
+ * imported data. A parsed conversation [begin, end] is merged into an existing
+ * conversation [time, endTime] of the same contact account and user account when
+ * <pre>
+ *    time BETWEEN begin AND end
+ * OR endTime BETWEEN begin AND end
+ * OR begin BETWEEN time AND (endTime + interval)
+ * OR end BETWEEN (time - interval) AND endTime
+ * </pre>
+ * Existing conversations are loaded once per (contactAccountId, userAccountId)
+ * pair and kept sorted by time, so a lookup is a binary search followed by a
+ * short backward scan bounded by the running maximum of endTime.
+ *
+ * Only conversations present in the file database when the index is created are
+ * taken into account, like the query, which never saw staged rows; rows flushed
+ * by the same import later on are ignored. Loading synchronizes on the
+ * connection, which may be shared with a bulk writer.
+ *
+ * @author jumper
+ */
+public class ConversationIndex {
+	private Connection connection;
+	private long interval;
+	private Map<Long, Intervals> pairs;
+	private PreparedStatement select;
+	private int maxId;
+
+	/**
+	 * Default and only constructor
+	 * @param connection database connection
+	 * @param interval conversation interval (import.conversation_interval)
+	 * @throws SQLException
+	 */
+	public ConversationIndex(Connection connection, long interval) throws SQLException {
+		this.connection = connection;
+		this.interval = interval;
+		this.pairs = new HashMap<Long, Intervals>();
+		synchronized (connection) {
+			Statement stmt = connection.createStatement();
+			ResultSet rs = stmt.executeQuery("SELECT IFNULL(MAX(id), 0) FROM main.conversation");
+			maxId = rs.next() ? rs.getInt(1) : 0;
+			rs.close();
+			stmt.close();
+		}
+	}
+
+	/**
+	 * Returns ID of the existing conversation the given one should be merged into
+	 * @param contactAccountId
+	 * @param userAccountId
+	 * @param begin conversation time
+	 * @param end conversation end time
+	 * @return conversation ID or 0 if there is no such conversation
+	 * @throws SQLException
+	 */
+	public int find(int contactAccountId, int userAccountId, long begin, long end) throws SQLException {
+		return intervals(contactAccountId, userAccountId).find(begin, end);
+	}
+
+	/**
+	 * Release prepared statement
+	 */
+	public void close() {
+		if (select != null) {
+			try {
+				select.close();
+			} catch (SQLException e) {
+				// nothing to release
+			}
+			select = null;
+		}
+	}
+
+	private Intervals intervals(int contactAccountId, int userAccountId) throws SQLException {
+		Long key = ((long) contactAccountId << 32) | (userAccountId & 0xFFFFFFFFL);
+		Intervals intervals = pairs.get(key);
+		if (intervals == null) {
+			List<long[]> rows = new ArrayList<long[]>();
+			synchronized (connection) {
+				if (select == null)
+					select = connection.prepareStatement("SELECT id, time, endTime FROM main.conversation "
+							+ "WHERE contactAccountId = ? AND userAccountId = ? AND id <= ?");
+				select.setInt(1, contactAccountId);
+				select.setInt(2, userAccountId);
+				select.setInt(3, maxId);
+				ResultSet rs = select.executeQuery();
+				while (rs.next())
+					rows.add(new long[] { rs.getLong(2), rs.getLong(3), rs.getInt(1) });
+				rs.close();
+			}
+			intervals = new Intervals(rows, interval);
+			pairs.put(key, intervals);
+		}
+		return intervals;
+	}
+
+	/**
+	 * Conversations of one pair sorted by time.
+	 *
+	 * Rows with time > endTime can't be bounded by the search and are kept
+	 * aside and checked one by one; updateConversations never leaves any.
+	 */
+	static class Intervals {
+		private long interval;
+		private long[] time;
+		private long[] endTime;
+		private long[] maxEndTime;
+		private int[] id;
+		private long[][] irregular;
+
+		/**
+		 * Constructor
+		 * @param rows rows of {time, endTime, id}
+		 * @param interval conversation interval
+		 */
+		Intervals(List<long[]> rows, long interval) {
+			this.interval = interval;
+			List<long[]> regular = new ArrayList<long[]>(rows.size());
+			List<long[]> irregular = new ArrayList<long[]>();
+			for (long[] row : rows)
+				(row[0] <= row[1] ? regular : irregular).add(row);
+			long[][] sorted = regular.toArray(new long[regular.size()][]);
+			Arrays.sort(sorted, new Comparator<long[]>() {
+				@Override
+				public int compare(long[] a, long[] b) {
+					return a[0] < b[0] ? -1 : (a[0] > b[0] ? 1 : 0);
+				}
+			});
+			time = new long[sorted.length];
+			endTime = new long[sorted.length];
+			maxEndTime = new long[sorted.length];
+			id = new int[sorted.length];
+			for (int i = 0; i < sorted.length; i++) {
+				time[i] = sorted[i][0];
+				endTime[i] = sorted[i][1];
+				maxEndTime[i] = i == 0 ? endTime[i] : Math.max(maxEndTime[i - 1], endTime[i]);
+				id[i] = (int) sorted[i][2];
+			}
+			this.irregular = irregular.toArray(new long[irregular.size()][]);
+		}
+
+		/**
+		 * Returns the lowest matching ID (first row of the index scan done by
+		 * SQLite for the query) or 0.
+		 *
+		 * With time <= endTime and begin <= end every branch of the condition
+		 * implies time <= end + interval and endTime >= begin - interval, which
+		 * bounds the candidates from both sides.
+		 */
+		int find(long begin, long end) {
+			int found = 0;
+			int lo = 0, hi = time.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (time[mid] <= end + interval)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			for (int i = lo - 1; i >= 0 && (begin > end || maxEndTime[i] >= begin - interval); i--) {
+				if (matches(time[i], endTime[i], begin, end) && (found == 0 || id[i] < found))
+					found = id[i];
+			}
+			if (begin > end) {
+				for (int i = lo; i < time.length; i++) {
+					if (matches(time[i], endTime[i], begin, end) && (found == 0 || id[i] < found))
+						found = id[i];
+				}
+			}
+			for (long[] row : irregular) {
+				if (matches(row[0], row[1], begin, end) && (found == 0 || row[2] < found))
+					found = (int) row[2];
+			}
+			return found;
+		}
+
+		private boolean matches(long time, long endTime, long begin, long end) {
+			return (time >= begin && time <= end)
+					|| (endTime >= begin && endTime <= end)
+					|| (begin >= time && begin <= endTime + interval)
+					|| (end >= time - interval && end <= endTime);
+		}
+	}
+}
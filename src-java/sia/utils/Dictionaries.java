@@ -1,11 +1,17 @@
 package sia.utils;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.sormula.SormulaException;
 
+import sia.datasources.ChangeSet;
 import sia.datasources.DataSource;
 import sia.datasources.ExampleDataSource;
 import sia.datasources.FMADataSource;
@@ -26,6 +32,10 @@ import sia.ui.SIA;
  * @author jumper
  */
 public class Dictionaries {
+	/**
+	 * Number of rows selected by ID at once
+	 */
+	public static final int PAGE_SIZE = 100;
 	private static Dictionaries instance;
 	private ORM orm;
 	private Map<String, String> dataSources;
@@ -46,6 +56,7 @@ public class Dictionaries {
 	 * @throws SormulaException 
 	 */
 	public void init() throws SormulaException {
+		orm = SIA.getInstance().getORM();
 		List<Configuration> configuration = orm.getTable(Configuration.class).selectAll();
 		this.configuration = new HashMap<String, Configuration>();
 		for (Configuration c : configuration)
@@ -142,17 +153,123 @@ public class Dictionaries {
 	}
 
 	/**
-	 * (Re)load contacts
+	 * (Re)load contacts. Protocols, contacts, contact accounts and user
+	 * accounts are read with one query each and put together by ID, instead
+	 * of selecting accounts and their cascades contact by contact.
 	 * @throws SormulaException 
 	 */
 	public void loadContacts() throws SormulaException {
-		this.contacts = orm.getTable(Contact.class).selectAllCustom("ORDER BY lower(name)");
-		for (Contact contact : contacts) {
-			for (ContactAccount ca : orm.getTable(ContactAccount.class).selectAllCustom("WHERE contactId = "+ contact.getId())) {
-				contact.addContactAccount(ca);
-			}
+		Map<Integer, Protocol> protocols = protocolsById();
+		
+		this.contacts = orm.select("contact.all");
+		Map<Integer, Contact> contacts = new HashMap<Integer, Contact>(this.contacts.size() * 2);
+		for (Contact contact : this.contacts)
+			contacts.put(contact.getId(), contact);
+		for (ContactAccount ca : orm.<ContactAccount> select("contactaccount.all")) {
+			Contact contact = contacts.get(ca.getContactId());
+			if (contact == null)
+				continue;
+			ca.setProtocol(protocols.get(ca.getProtocolId()));
+			contact.addContactAccount(ca);
 		}
 		
-		this.userAccounts = orm.getTable(UserAccount.class).selectAll();
+		this.userAccounts = orm.select("useraccount.all");
+		for (UserAccount ua : userAccounts)
+			ua.setProtocol(protocols.get(ua.getProtocolId()));
+	}
+	
+	/**
+	 * Bring contacts and user accounts up to date with a save, reading only
+	 * the rows it inserted. New contacts are put in name order, new accounts
+	 * are attached to their contacts; rows already known by ID are kept.
+	 * @param changes change set of the save
+	 * @throws SormulaException 
+	 */
+	public void apply(ChangeSet changes) throws SormulaException {
+		if (changes.isEmpty())
+			return;
+		Map<Integer, Protocol> protocols = protocolsById();
+		
+		List<Contact> contacts = new ArrayList<Contact>(this.contacts);
+		Map<Integer, Contact> byId = new HashMap<Integer, Contact>(contacts.size() * 2);
+		for (Contact contact : contacts)
+			byId.put(contact.getId(), contact);
+		for (Contact contact : this.<Contact> select("contact.page", changes.getInsertedContacts())) {
+			if (byId.containsKey(contact.getId()))
+				continue;
+			byId.put(contact.getId(), contact);
+			int position = contacts.size();
+			while (position > 0 && NAME_ORDER.compare(contacts.get(position - 1), contact) > 0)
+				position--;
+			contacts.add(position, contact);
+		}
+		for (ContactAccount ca : this.<ContactAccount> select("contactaccount.page", changes.getInsertedContactAccounts())) {
+			Contact contact = byId.get(ca.getContactId());
+			if (contact == null || hasContactAccount(contact, ca.getId()))
+				continue;
+			ca.setProtocol(protocols.get(ca.getProtocolId()));
+			contact.addContactAccount(ca);
+		}
+		this.contacts = contacts;
+		
+		List<UserAccount> userAccounts = new ArrayList<UserAccount>(this.userAccounts);
+		Set<Integer> known = new HashSet<Integer>();
+		for (UserAccount ua : userAccounts)
+			known.add(ua.getId());
+		for (UserAccount ua : this.<UserAccount> select("useraccount.page", changes.getInsertedUserAccounts())) {
+			if (!known.add(ua.getId()))
+				continue;
+			ua.setProtocol(protocols.get(ua.getProtocolId()));
+			userAccounts.add(ua);
+		}
+		this.userAccounts = userAccounts;
+	}
+	
+	private Map<Integer, Protocol> protocolsById() throws SormulaException {
+		Map<Integer, Protocol> protocols = new HashMap<Integer, Protocol>();
+		for (Protocol p : orm.<Protocol> select("protocol.all"))
+			protocols.put(p.getId(), p);
+		return protocols;
+	}
+	
+	/**
+	 * Select rows by ID, a page query has always PAGE_SIZE parameters
+	 */
+	private <T> List<T> select(String query, Collection<Integer> ids) throws SormulaException {
+		List<T> rows = new ArrayList<T>(ids.size());
+		List<Integer> all = new ArrayList<Integer>(ids);
+		for (int from = 0; from < all.size(); from += PAGE_SIZE) {
+			Object[] in = new Object[PAGE_SIZE];
+			all.subList(from, Math.min(all.size(), from + PAGE_SIZE)).toArray(in);
+			rows.addAll(orm.<T> select(query, in));
+		}
+		return rows;
 	}
+	
+	private static boolean hasContactAccount(Contact contact, int id) {
+		for (ContactAccount ca : contact.getContactAccounts())
+			if (ca.getId() == id)
+				return true;
+		return false;
+	}
+	
+	/**
+	 * Order of contact.all: lower(name) of SQLite folds ASCII letters only
+	 */
+	private static final Comparator<Contact> NAME_ORDER = new Comparator<Contact>() {
+		@Override
+		public int compare(Contact a, Contact b) {
+			return lower(a.getName()).compareTo(lower(b.getName()));
+		}
+		
+		private String lower(String name) {
+			if (name == null)
+				return "";
+			char[] chars = name.toCharArray();
+			for (int i = 0; i < chars.length; i++)
+				if (chars[i] >= 'A' && chars[i] <= 'Z')
+					chars[i] += 'a' - 'A';
+			return new String(chars);
+		}
+	};
 }
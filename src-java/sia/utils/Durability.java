@@ -0,0 +1,73 @@
+package sia.utils;
+
+/**
+ * Database durability profile, chosen by db.durability configuration key.
+ *
+ * FAST, the default, keeps no journal and never syncs: quickest, but a crash
+ * during import may corrupt the archive. WAL writes a write-ahead log synced
+ * at checkpoints only, so a crash loses at most the last group of commits.
+ * FULL uses a rollback journal synced on every commit.
+ *
+ * Only WAL gives snapshot reads: browsing runs on read-only readers which see
+ * the last commit and are never blocked by an import. FAST and FULL hold the
+ * database exclusively, so browsing shares the writer and waits for imports.
+ * Switching an existing archive to WAL adds a lock file and the -wal and -shm
+ * files beside it.
+ *
+ * @author jumper
+ */
+public enum Durability {
+	FAST("OFF", "OFF", Integer.MAX_VALUE),
+	WAL("WAL", "NORMAL", 20000),
+	FULL("DELETE", "FULL", 50000);
+
+	private String journalMode;
+	private String synchronous;
+	private int commitSize;
+
+	private Durability(String journalMode, String synchronous, int commitSize) {
+		this.journalMode = journalMode;
+		this.synchronous = synchronous;
+		this.commitSize = commitSize;
+	}
+
+	/**
+	 * Returns value of PRAGMA journal_mode
+	 * @return journal mode
+	 */
+	public String getJournalMode() {
+		return journalMode;
+	}
+
+	/**
+	 * Returns value of PRAGMA synchronous
+	 * @return synchronous
+	 */
+	public String getSynchronous() {
+		return synchronous;
+	}
+
+	/**
+	 * Returns number of rows committed at once by imports (group commit), unless
+	 * import.commit_size is set
+	 * @return commit size
+	 */
+	public int getCommitSize() {
+		return commitSize;
+	}
+
+	/**
+	 * Returns profile for given configuration value, FAST when unknown
+	 * @param value
+	 * @return durability profile
+	 */
+	public static Durability parse(String value) {
+		if (value != null) {
+			for (Durability d : values()) {
+				if (d.name().equalsIgnoreCase(value.trim()))
+					return d;
+			}
+		}
+		return FAST;
+	}
+}
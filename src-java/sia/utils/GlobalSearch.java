@@ -0,0 +1,277 @@
+package sia.utils;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.sormula.SormulaException;
+
+import sia.models.Conversation;
+import sia.ui.SIA;
+
+/**
+ * Global search.
+ *
+ * Ranks conversations of all contacts by BM25 score of their best message
+ * containing a phrase and keeps only the best ones in a bounded heap. With
+ * the full-text index SQLite scores messages (bm25) and returns them best
+ * first, so the search stops as soon as the heap is full. Otherwise trigram
+ * index candidates (or all messages, for short phrases or without index) are
+ * scored here; the phrase is the only term, so its IDF doesn't change the
+ * order. The best conversations found so far are reported while searching.
+ *
+ * @author jumper
+ */
+public class GlobalSearch {
+	/**
+	 * Default number of conversations found, one cursor page
+	 */
+	public static final int DEFAULT_LIMIT = ConversationCursor.PAGE_SIZE;
+	private static final double K1 = 1.2;
+	private static final double B = 0.75;
+	private static final int BATCH = 500;
+	private static final long REPORT_INTERVAL = 200;
+	private static final int LENGTH_SAMPLE = 10000;
+
+	private int limit;
+	private Listener listener;
+	private PriorityQueue<Hit> heap;
+	private Map<Integer, Hit> hits;
+	private boolean changed;
+	private long reported;
+
+	/**
+	 * Search progress listener, called by the searching thread
+	 */
+	public interface Listener {
+		/**
+		 * Best conversations found so far
+		 * @param conversations best first
+		 */
+		public void found(List<Conversation> conversations);
+	}
+
+	/**
+	 * Best score of a conversation
+	 */
+	private static class Hit {
+		private int conversationId;
+		private double score;
+	}
+
+	private static final Comparator<Hit> WORST_FIRST = new Comparator<Hit>() {
+		@Override
+		public int compare(Hit a, Hit b) {
+			return a.score < b.score ? -1 : a.score > b.score ? 1 : b.conversationId - a.conversationId;
+		}
+	};
+
+	/**
+	 * Constructor
+	 * @param limit maximum number of conversations found
+	 * @param listener progress listener, may be null
+	 */
+	public GlobalSearch(int limit, Listener listener) {
+		this.limit = limit;
+		this.listener = listener;
+		this.heap = new PriorityQueue<Hit>(limit + 1, WORST_FIRST);
+		this.hits = new HashMap<Integer, Hit>();
+	}
+
+	/**
+	 * Returns conversations of all contacts containing phrase
+	 * @param phrase searched phrase, not empty
+	 * @return best conversations, best first
+	 * @throws SormulaException
+	 */
+	public List<Conversation> search(String phrase) throws SormulaException {
+		heap.clear();
+		hits.clear();
+		reported = System.currentTimeMillis();
+		try {
+			TrigramIndex trigrams = SIA.getInstance().getTrigramIndex();
+			if (trigrams != null && MessageSearch.isIndexed(phrase))
+				score(trigrams.candidates(phrase), phrase);
+			else if (MessageSearch.isIndexed(phrase))
+				rank(phrase);
+			else
+				scan(phrase);
+		} catch (SQLException e) {
+			throw new SormulaException("Global search failed", e);
+		} catch (IOException e) {
+			throw new SormulaException("Trigram index unreadable", e);
+		}
+		return conversations();
+	}
+
+	/**
+	 * Messages scored by SQLite, best first
+	 */
+	private void rank(String phrase) throws SQLException, SormulaException {
+		PreparedStatement stmt = SIA.getInstance().getReadConnection().prepareStatement(
+				"SELECT m.conversationId, bm25(message_fts) FROM main.message_fts f JOIN main.message m ON m.id = f.rowid "
+						+ "WHERE message_fts MATCH ? ORDER BY rank");
+		stmt.setString(1, "\"" + phrase.replace("\"", "\"\"") + "\"");
+		ResultSet rs = stmt.executeQuery();
+		while (rs.next()) {
+			// bm25() is lower for better matches
+			double score = -rs.getDouble(2);
+			if (heap.size() == limit && score < heap.peek().score)
+				break;
+			offer(rs.getInt(1), score);
+			report();
+		}
+		rs.close();
+		stmt.close();
+	}
+
+	/**
+	 * Candidate messages of the trigram index, scored in batches
+	 */
+	private void score(int[] candidates, String phrase) throws SQLException, SormulaException {
+		String folded = TrigramIndex.fold(phrase);
+		double idf = idf(candidates.length);
+		double average = averageLength();
+		Statement stmt = SIA.getInstance().getReadConnection().createStatement();
+		for (int from = 0; from < candidates.length; from += BATCH) {
+			StringBuilder ids = new StringBuilder();
+			for (int i = from; i < Math.min(candidates.length, from + BATCH); i++)
+				ids.append(i > from ? "," : "").append(candidates[i]);
+			ResultSet rs = stmt.executeQuery("SELECT conversationId, message FROM main.message WHERE id IN (" + ids + ")");
+			while (rs.next())
+				score(rs.getInt(1), rs.getString(2), folded, idf, average);
+			rs.close();
+			report();
+		}
+		stmt.close();
+	}
+
+	/**
+	 * All messages containing phrase, scored as they are read
+	 */
+	private void scan(String phrase) throws SQLException, SormulaException {
+		String folded = TrigramIndex.fold(phrase);
+		double idf = idf(0);
+		double average = averageLength();
+		PreparedStatement stmt = SIA.getInstance().getReadConnection().prepareStatement(
+				"SELECT conversationId, message FROM main.message WHERE message LIKE ? ESCAPE '\\'");
+		stmt.setString(1, "%" + phrase.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%");
+		ResultSet rs = stmt.executeQuery();
+		for (int i = 1; rs.next(); i++) {
+			score(rs.getInt(1), rs.getString(2), folded, idf, average);
+			if (i % BATCH == 0)
+				report();
+		}
+		rs.close();
+		stmt.close();
+	}
+
+	private void score(int conversationId, String message, String folded, double idf, double average) {
+		String text = TrigramIndex.fold(message);
+		int tf = 0;
+		for (int i = text.indexOf(folded); i != -1; i = text.indexOf(folded, i + folded.length()))
+			tf++;
+		if (tf > 0)
+			offer(conversationId, idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * text.length() / average)));
+	}
+
+	/**
+	 * Keep conversation if it is among the best ones
+	 */
+	private void offer(int conversationId, double score) {
+		Hit hit = hits.get(conversationId);
+		if (hit != null) {
+			if (score > hit.score) {
+				heap.remove(hit);
+				hit.score = score;
+				heap.add(hit);
+				changed = true;
+			}
+			return;
+		}
+		if (heap.size() == limit && score <= heap.peek().score)
+			return;
+		hit = new Hit();
+		hit.conversationId = conversationId;
+		hit.score = score;
+		heap.add(hit);
+		hits.put(conversationId, hit);
+		if (heap.size() > limit)
+			hits.remove(heap.poll().conversationId);
+		changed = true;
+	}
+
+	private void report() throws SormulaException {
+		if (listener == null || !changed || System.currentTimeMillis() - reported < REPORT_INTERVAL)
+			return;
+		listener.found(conversations());
+		changed = false;
+		reported = System.currentTimeMillis();
+	}
+
+	/**
+	 * Returns conversations in the heap, best first
+	 */
+	private List<Conversation> conversations() throws SormulaException {
+		List<Hit> best = new ArrayList<Hit>(heap);
+		Collections.sort(best, Collections.reverseOrder(WORST_FIRST));
+		Map<Integer, Conversation> byId = new HashMap<Integer, Conversation>();
+		for (int from = 0; from < best.size(); from += ConversationCursor.PAGE_SIZE) {
+			Object[] ids = new Object[ConversationCursor.PAGE_SIZE];
+			for (int i = from; i < Math.min(best.size(), from + ConversationCursor.PAGE_SIZE); i++)
+				ids[i - from] = best.get(i).conversationId;
+			for (Conversation conversation : SIA.getInstance().getORM().<Conversation> select("conversation.page", ids))
+				byId.put(conversation.getId(), conversation);
+		}
+		List<Conversation> conversations = new ArrayList<Conversation>(best.size());
+		for (Hit hit : best)
+			if (byId.containsKey(hit.conversationId))
+				conversations.add(byId.get(hit.conversationId));
+		return conversations;
+	}
+
+	/**
+	 * BM25 inverse document frequency
+	 * @param matching number of messages containing phrase, 0 if unknown
+	 */
+	private static double idf(int matching) throws SQLException {
+		if (matching == 0)
+			return 1;
+		// the highest ID is close enough to the number of messages
+		double messages = Math.max(matching, count("SELECT IFNULL(MAX(id), 0) FROM main.message"));
+		return Math.log((messages - matching + 0.5) / (matching + 0.5) + 1);
+	}
+
+	/**
+	 * Average message length, of latest messages
+	 */
+	private static double averageLength() throws SQLException {
+		Connection connection = SIA.getInstance().getReadConnection();
+		Statement stmt = connection.createStatement();
+		ResultSet rs = stmt.executeQuery("SELECT AVG(length(message)) FROM (SELECT message FROM main.message "
+				+ "ORDER BY id DESC LIMIT " + LENGTH_SAMPLE + ")");
+		double average = rs.next() ? rs.getDouble(1) : 0;
+		rs.close();
+		stmt.close();
+		return average > 0 ? average : 1;
+	}
+
+	private static long count(String sql) throws SQLException {
+		Statement stmt = SIA.getInstance().getReadConnection().createStatement();
+		ResultSet rs = stmt.executeQuery(sql);
+		long count = rs.next() ? rs.getLong(1) : 0;
+		rs.close();
+		stmt.close();
+		return count;
+	}
+}
@@ -0,0 +1,141 @@
+package sia.utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import sia.models.Conversation;
+
+/**
+ * Import checkpoint.
+ *
+ * Progress of one import source (identified by data source and files) kept in
+ * the import_checkpoint table. Position is the largest conversation position
+ * such that every conversation of the source at or before it is already in the
+ * file database; an interrupted import of the same source skips them, parsers
+ * able to seek don't even read them again. Rows are written in the transaction
+ * copying the staged conversations, so the checkpoint is exactly as durable as
+ * the data. A checkpoint without source is kept in memory only.
+ *
+ * @author jumper
+ */
+public class ImportCheckpoint {
+	private Connection connection;
+	private String source;
+	private int position;
+	private int saved;
+	private int[] positions;
+	private BitSet durable;
+	private int next;
+
+	/**
+	 * Default and only constructor, loads checkpoint of given source
+	 * @param connection database connection
+	 * @param source source identity or null
+	 * @throws SQLException
+	 */
+	public ImportCheckpoint(Connection connection, String source) throws SQLException {
+		this.connection = connection;
+		this.source = source;
+		this.positions = new int[0];
+		this.durable = new BitSet();
+		if (source == null)
+			return;
+		synchronized (connection) {
+			PreparedStatement stmt = connection.prepareStatement("SELECT position, saved FROM main.import_checkpoint WHERE source = ?");
+			stmt.setString(1, source);
+			ResultSet rs = stmt.executeQuery();
+			if (rs.next()) {
+				position = rs.getInt(1);
+				saved = rs.getInt(2);
+			}
+			rs.close();
+			stmt.close();
+		}
+	}
+
+	/**
+	 * Returns position, 0 if nothing is saved yet
+	 * @return position
+	 */
+	public int getPosition() {
+		return position;
+	}
+
+	/**
+	 * Returns number of conversations already saved
+	 * @return saved conversations
+	 */
+	public int getSaved() {
+		return saved;
+	}
+
+	/**
+	 * Set conversations of the source
+	 * @param conversations conversations with positions set
+	 */
+	public void track(List<Conversation> conversations) {
+		positions = new int[conversations.size()];
+		for (int i = 0; i < positions.length; i++)
+			positions[i] = conversations.get(i).getPosition();
+		Arrays.sort(positions);
+		next = 0;
+	}
+
+	/**
+	 * Returns true if conversation was saved by an interrupted import
+	 * @param conversation
+	 * @return true if conversation is durable
+	 */
+	public boolean isSaved(Conversation conversation) {
+		return conversation.getPosition() > 0 && conversation.getPosition() <= position;
+	}
+
+	/**
+	 * Mark conversation as saved, takes effect with the next {@link #write()}
+	 * @param conversation
+	 */
+	public void saved(Conversation conversation) {
+		if (conversation.getPosition() > 0)
+			durable.set(conversation.getPosition());
+		saved++;
+	}
+
+	/**
+	 * Write checkpoint, caller commits
+	 * @throws SQLException
+	 */
+	public void write() throws SQLException {
+		while (next < positions.length && (positions[next] <= position || durable.get(positions[next])))
+			position = Math.max(position, positions[next++]);
+		if (source == null)
+			return;
+		PreparedStatement stmt = connection.prepareStatement("INSERT OR REPLACE INTO main.import_checkpoint (source, position, saved, time) VALUES (?, ?, ?, ?)");
+		stmt.setString(1, source);
+		stmt.setInt(2, position);
+		stmt.setInt(3, saved);
+		stmt.setLong(4, System.currentTimeMillis());
+		stmt.executeUpdate();
+		stmt.close();
+	}
+
+	/**
+	 * Remove checkpoint of finished import, caller commits
+	 * @throws SQLException
+	 */
+	public void clear() throws SQLException {
+		position = 0;
+		saved = 0;
+		durable.clear();
+		if (source == null)
+			return;
+		PreparedStatement stmt = connection.prepareStatement("DELETE FROM main.import_checkpoint WHERE source = ?");
+		stmt.setString(1, source);
+		stmt.executeUpdate();
+		stmt.close();
+	}
+}
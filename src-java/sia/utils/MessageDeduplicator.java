@@ -0,0 +1,138 @@
+package sia.utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import sia.models.Message;
+
+/**
+ * Message deduplicator.
+ *
+ * Keeps fingerprints of messages per conversation. Fingerprints of an existing
+ * conversation are loaded from the file database the first time it is seen,
+ * so duplicates of already archived messages are dropped before insert.
+ * Loading synchronizes on the connection, which may be shared with a bulk writer.
+ *
+ * @author jumper
+ */
+public class MessageDeduplicator {
+	private Connection connection;
+	private Map<Integer, LongHashSet> conversations;
+	private PreparedStatement select;
+	private int duplicates;
+
+	/**
+	 * Default and only constructor
+	 * @param connection database connection
+	 */
+	public MessageDeduplicator(Connection connection) {
+		this.connection = connection;
+		this.conversations = new HashMap<Integer, LongHashSet>();
+	}
+
+	/**
+	 * Compute message fingerprint and remember it
+	 * @param message message with conversation ID set
+	 * @param existing true if conversation is already stored in the file database
+	 * @return true if message is new, false if it is a duplicate
+	 * @throws SQLException
+	 */
+	public boolean add(Message message, boolean existing) throws SQLException {
+		message.setFingerprint(Message.fingerprint(message.getMessage(), message.getTime().getTime(),
+				message.getReceived()));
+		LongHashSet fingerprints = conversations.get(message.getConversationId());
+		if (fingerprints == null) {
+			fingerprints = new LongHashSet();
+			if (existing)
+				load(message.getConversationId(), fingerprints);
+			conversations.put(message.getConversationId(), fingerprints);
+		}
+		if (fingerprints.add(message.getFingerprint()))
+			return true;
+		duplicates++;
+		return false;
+	}
+
+	/**
+	 * Returns number of dropped duplicates
+	 * @return duplicates count
+	 */
+	public int getDuplicates() {
+		return duplicates;
+	}
+
+	/**
+	 * Release prepared statement
+	 */
+	public void close() {
+		if (select != null) {
+			try {
+				select.close();
+			} catch (SQLException e) {
+				// nothing to release
+			}
+			select = null;
+		}
+	}
+
+	private void load(int conversationId, LongHashSet fingerprints) throws SQLException {
+		synchronized (connection) {
+			if (select == null)
+				select = connection.prepareStatement("SELECT fingerprint FROM main.message WHERE conversationId = ?");
+			select.setInt(1, conversationId);
+			ResultSet rs = select.executeQuery();
+			while (rs.next())
+				fingerprints.add(rs.getLong(1));
+			rs.close();
+		}
+	}
+
+	/**
+	 * Open addressing set of longs, one long per slot instead of a boxed entry.
+	 * 0 is the empty slot marker and is tracked aside.
+	 */
+	static class LongHashSet {
+		private long[] slots = new long[16];
+		private int size;
+		private boolean zero;
+
+		boolean add(long value) {
+			if (value == 0) {
+				if (zero)
+					return false;
+				zero = true;
+				return true;
+			}
+			if ((size + 1) * 2 > slots.length)
+				grow();
+			if (!insert(slots, value))
+				return false;
+			size++;
+			return true;
+		}
+
+		private static boolean insert(long[] slots, long value) {
+			int mask = slots.length - 1;
+			int i = (int) (value ^ (value >>> 32)) * 0x9E3779B9 & mask;
+			while (slots[i] != 0) {
+				if (slots[i] == value)
+					return false;
+				i = (i + 1) & mask;
+			}
+			slots[i] = value;
+			return true;
+		}
+
+		private void grow() {
+			long[] bigger = new long[slots.length * 2];
+			for (long value : slots)
+				if (value != 0)
+					insert(bigger, value);
+			slots = bigger;
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package sia.utils;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sormula.SormulaException;
+
+import sia.models.Contact;
+import sia.models.ContactAccount;
+import sia.ui.SIA;
+
+/**
+ * Message search.
+ *
+ * Finds conversations containing a phrase. Phrases of at least
+ * {@link #MIN_INDEXED_LENGTH} characters are looked up in the trigram index
+ * if the application keeps one, otherwise in the full-text index (trigrams
+ * as well, so any substring matches, letters with diacritics are case folded
+ * too); shorter phrases, or databases without an index, fall back to LIKE
+ * scan. The phrase is always passed as a parameter and matched literally.
+ *
+ * @author jumper
+ */
+public class MessageSearch {
+	/**
+	 * Shortest phrase the trigram index can find
+	 */
+	public static final int MIN_INDEXED_LENGTH = 3;
+	private static final int BATCH = 500;
+	private static final AtomicInteger matchTables = new AtomicInteger();
+
+	/**
+	 * Returns cursor over conversations of contact containing phrase
+	 * @param contact contact
+	 * @param phrase searched phrase, empty for all conversations
+	 * @param column sort column: time, title or length
+	 * @param descending true for descending order
+	 * @return cursor, to be closed
+	 * @throws SormulaException
+	 */
+	public static ConversationCursor cursor(Contact contact, String phrase, String column, boolean descending)
+			throws SormulaException {
+		return cursor(accounts(contact), join(contact), phrase, column, descending);
+	}
+
+	/**
+	 * Returns cursor over conversations of contact account containing phrase
+	 * @param contactAccount contact account
+	 * @param phrase searched phrase, empty for all conversations
+	 * @param column sort column: time, title or length
+	 * @param descending true for descending order
+	 * @return cursor, to be closed
+	 * @throws SormulaException
+	 */
+	public static ConversationCursor cursor(ContactAccount contactAccount, String phrase, String column,
+			boolean descending) throws SormulaException {
+		return cursor(accounts(contactAccount), join(contactAccount), phrase, column, descending);
+	}
+
+	/**
+	 * Returns true if phrase is looked up in an index
+	 * @param phrase
+	 * @return true if index is used
+	 */
+	public static boolean isIndexed(String phrase) {
+		return (SIA.getInstance().getTrigramIndex() != null || SIA.getInstance().hasMessageIndex())
+				&& phrase.length() >= MIN_INDEXED_LENGTH;
+	}
+
+	private static String accounts(Contact contact) {
+		return "contactAccountId IN (SELECT id FROM main.contactaccount WHERE contactId = " + contact.getId() + ")";
+	}
+
+	private static String accounts(ContactAccount contactAccount) {
+		return "contactAccountId = " + contactAccount.getId();
+	}
+
+	private static String join(Contact contact) {
+		return "JOIN main.contactaccount ca ON ca.id = c.contactAccountId AND ca.contactId = " + contact.getId();
+	}
+
+	private static String join(ContactAccount contactAccount) {
+		return "AND c.contactAccountId = " + contactAccount.getId();
+	}
+
+	private static ConversationCursor cursor(String accounts, String join, String phrase, String column,
+			boolean descending) throws SormulaException {
+		if (phrase.length() == 0)
+			return new ConversationCursor(accounts, null, column, descending);
+		// matching IDs are kept aside, so pages don't search again
+		Set<Integer> ids = match(join, phrase);
+		String table = "conversation_match_" + matchTables.incrementAndGet();
+		Connection connection = SIA.getInstance().getReadConnection();
+		try {
+			Statement stmt = connection.createStatement();
+			stmt.executeUpdate("CREATE TEMP TABLE " + table + " (id INTEGER PRIMARY KEY)");
+			stmt.close();
+			PreparedStatement insert = connection.prepareStatement("INSERT INTO temp." + table + " (id) VALUES (?)");
+			for (Integer id : ids) {
+				insert.setInt(1, id);
+				insert.addBatch();
+			}
+			insert.executeBatch();
+			insert.close();
+		} catch (SQLException e) {
+			throw new SormulaException("Message search failed", e);
+		}
+		return new ConversationCursor("id IN (SELECT id FROM temp." + table + ")", table, column, descending);
+	}
+
+	/**
+	 * Returns IDs of conversations containing phrase
+	 * @param join condition of conversation c
+	 * @param phrase searched phrase, not empty
+	 * @return conversation IDs
+	 * @throws SormulaException
+	 */
+	private static Set<Integer> match(String join, String phrase) throws SormulaException {
+		TrigramIndex trigrams = SIA.getInstance().getTrigramIndex();
+		if (trigrams != null && isIndexed(phrase)) {
+			try {
+				return verify(trigrams.candidates(phrase), join, phrase);
+			} catch (IOException e) {
+				throw new SormulaException("Trigram index unreadable", e);
+			}
+		}
+		String sql;
+		String parameter;
+		if (isIndexed(phrase)) {
+			sql = "SELECT DISTINCT m.conversationId FROM main.message_fts f JOIN main.message m ON m.id = f.rowid "
+					+ "JOIN main.conversation c ON m.conversationId = c.id " + join + " WHERE message_fts MATCH ?";
+			parameter = "\"" + phrase.replace("\"", "\"\"") + "\"";
+		} else {
+			sql = "SELECT DISTINCT m.conversationId FROM main.message m JOIN main.conversation c ON m.conversationId = c.id "
+					+ join + " WHERE m.message LIKE ? ESCAPE '\\'";
+			parameter = "%" + phrase.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+		}
+		Set<Integer> ids = new TreeSet<Integer>();
+		try {
+			PreparedStatement stmt = SIA.getInstance().getReadConnection().prepareStatement(sql);
+			stmt.setString(1, parameter);
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next())
+				ids.add(rs.getInt(1));
+			rs.close();
+			stmt.close();
+		} catch (SQLException e) {
+			throw new SormulaException("Message search failed", e);
+		}
+		return ids;
+	}
+
+	/**
+	 * Read candidate messages and keep conversations of those really containing phrase
+	 * @param candidates candidate message IDs
+	 * @param join condition of conversation c
+	 * @param phrase searched phrase
+	 * @return conversation IDs
+	 * @throws SormulaException
+	 */
+	private static Set<Integer> verify(int[] candidates, String join, String phrase) throws SormulaException {
+		String folded = TrigramIndex.fold(phrase);
+		Set<Integer> conversations = new TreeSet<Integer>();
+		Connection connection = SIA.getInstance().getReadConnection();
+		try {
+			Statement stmt = connection.createStatement();
+			for (int from = 0; from < candidates.length; from += BATCH) {
+				StringBuilder ids = new StringBuilder();
+				for (int i = from; i < Math.min(candidates.length, from + BATCH); i++)
+					ids.append(i > from ? "," : "").append(candidates[i]);
+				ResultSet rs = stmt.executeQuery("SELECT m.conversationId, m.message FROM main.message m "
+						+ "JOIN main.conversation c ON m.conversationId = c.id " + join + " WHERE m.id IN (" + ids + ")");
+				while (rs.next()) {
+					if (!conversations.contains(rs.getInt(1)) && TrigramIndex.fold(rs.getString(2)).contains(folded))
+						conversations.add(rs.getInt(1));
+				}
+				rs.close();
+			}
+			stmt.close();
+		} catch (SQLException e) {
+			throw new SormulaException("Message search failed", e);
+		}
+		return conversations;
+	}
+}
@@ -0,0 +1,151 @@
+package sia.utils;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.sormula.SormulaException;
+
+import sia.models.Message;
+import sia.ui.SIA;
+
+/**
+ * Message window.
+ *
+ * Messages of one conversation read a window at a time, in time order, so
+ * a very long conversation is never loaded as a whole. Windows are read by
+ * keyset on (time, id) after the last or before the first message read so
+ * far (named queries message.*), using the message_conversation_time index.
+ *
+ * @author jumper
+ */
+public class MessageWindow {
+	public static final int WINDOW_SIZE = 500;
+
+	private int conversationId;
+	private int windowSize;
+	private Message first;
+	private Message last;
+	private boolean hasPrevious;
+	private boolean hasNext;
+
+	/**
+	 * Constructor
+	 * @param conversationId
+	 */
+	public MessageWindow(int conversationId) {
+		this(conversationId, WINDOW_SIZE);
+	}
+
+	/**
+	 * Constructor
+	 * @param conversationId
+	 * @param windowSize number of messages read at a time
+	 */
+	public MessageWindow(int conversationId, int windowSize) {
+		this.conversationId = conversationId;
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * Returns first messages of conversation, starting over
+	 * @return first window
+	 * @throws SormulaException
+	 */
+	public List<Message> first() throws SormulaException {
+		List<Message> m = select("message.first");
+		hasPrevious = false;
+		hasNext = m.size() == windowSize;
+		first = m.isEmpty() ? null : m.get(0);
+		last = m.isEmpty() ? null : m.get(m.size() - 1);
+		return m;
+	}
+
+	/**
+	 * Start over after the first window without reading its messages, when
+	 * it's already shown (rendered from cache)
+	 * @return false if conversation is shorter than a window, first() has to be read then
+	 * @throws SormulaException
+	 */
+	public boolean skipFirst() throws SormulaException {
+		List<Message> m = SIA.getInstance().getORM().select("message.at", conversationId, windowSize - 1);
+		if (m.isEmpty())
+			return false;
+		hasPrevious = false;
+		hasNext = true;
+		first = null;
+		last = m.get(0);
+		return true;
+	}
+
+	/**
+	 * Returns last messages of conversation, starting over
+	 * @return last window, in time order
+	 * @throws SormulaException
+	 */
+	public List<Message> last() throws SormulaException {
+		List<Message> m = select("message.last");
+		Collections.reverse(m);
+		hasPrevious = m.size() == windowSize;
+		hasNext = false;
+		first = m.isEmpty() ? null : m.get(0);
+		last = m.isEmpty() ? null : m.get(m.size() - 1);
+		return m;
+	}
+
+	/**
+	 * Returns messages following the last one read
+	 * @return next window, empty at the end of conversation
+	 * @throws SormulaException
+	 */
+	public List<Message> next() throws SormulaException {
+		if (last == null)
+			return first();
+		if (!hasNext)
+			return Collections.emptyList();
+		List<Message> m = select("message.next", last.getTime(), last.getId());
+		hasNext = m.size() == windowSize;
+		if (!m.isEmpty())
+			last = m.get(m.size() - 1);
+		return m;
+	}
+
+	/**
+	 * Returns messages preceding the first one read
+	 * @return previous window, empty at the beginning of conversation
+	 * @throws SormulaException
+	 */
+	public List<Message> previous() throws SormulaException {
+		if (first == null || !hasPrevious)
+			return Collections.emptyList();
+		List<Message> m = select("message.previous", first.getTime(), first.getId());
+		Collections.reverse(m);
+		hasPrevious = m.size() == windowSize;
+		if (!m.isEmpty())
+			first = m.get(0);
+		return m;
+	}
+
+	/**
+	 * Returns true if there are messages before the first one read
+	 * @return true if previous window isn't empty
+	 */
+	public boolean hasPrevious() {
+		return hasPrevious;
+	}
+
+	/**
+	 * Returns true if there may be messages after the last one read
+	 * @return true if next window may not be empty
+	 */
+	public boolean hasNext() {
+		return hasNext;
+	}
+
+	private List<Message> select(String query, Object... key) throws SormulaException {
+		Object[] parameters = new Object[key.length + 2];
+		parameters[0] = conversationId;
+		System.arraycopy(key, 0, parameters, 1, key.length);
+		parameters[parameters.length - 1] = windowSize;
+		return SIA.getInstance().getORM().select(query, parameters);
+	}
+}
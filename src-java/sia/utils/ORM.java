@@ -1,21 +1,35 @@
 package sia.utils;
 
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.sormula.Database;
 import org.sormula.SormulaException;
 import org.sormula.Table;
 
+import sia.ui.SIA;
+
 /**
  * Object relational mapping.
  * 
+ * Besides Sormula tables there are named queries: parameterized selects
+ * defined once and run on statements kept prepared in a statement cache of
+ * each connection, by default the read-only connection of current thread.
+ * Cascades of rows selected by one call are selected once per primary key
+ * and shared.
+ * 
  * @author jumper
  */
 public class ORM {
 	private Database database;
 	private Database databaseTemp;
 	private Map<String, Table<Object>> dao;
+	private Map<String, Query<?>> queries;
+	private Map<Connection, StatementCache> statements;
 	
 	/**
 	 * Default and only constructor
@@ -25,6 +39,8 @@ public class ORM {
 		this.database = database;
 		this.databaseTemp = databaseTemp;
 		this.dao = new HashMap<String, Table<Object>>();
+		this.queries = new ConcurrentHashMap<String, Query<?>>();
+		this.statements = new HashMap<Connection, StatementCache>();
 	}
 	
 	/**
@@ -68,4 +84,137 @@ public class ORM {
 	public <T> Table<T> getTempTable(Class<T> type) {
 		return (Table<T>) this.dao.get(type.getName()+"_temp");
 	}
+	
+	/**
+	 * Returns bulk insert into file or temporary database.
+	 * Batch and commit sizes are taken from import.batch_size and import.commit_size,
+	 * commit size defaults to the group commit of the durability profile. Rows
+	 * written straight into the file database are committed once, on close.
+	 * @param temp true for temporary database
+	 * @return bulk insert, has to be closed or aborted
+	 * @throws SQLException
+	 */
+	public BulkInsert getBulkInsert(boolean temp) throws SQLException {
+		Database db = temp ? databaseTemp : database;
+		int commitSize = Integer.MAX_VALUE;
+		if (temp)
+			commitSize = Config.hasValue("import.commit_size") ? Config.getInt("import.commit_size") : SIA.getInstance().getDurability().getCommitSize();
+		return new BulkInsert(db.getConnection(), db.getSchema(),
+				Config.hasValue("import.batch_size") ? Config.getInt("import.batch_size") : BulkInsert.DEFAULT_BATCH_SIZE,
+				commitSize);
+	}
+
+	/**
+	 * Define named query of the file database
+	 * @param name query name
+	 * @param type model
+	 * @param conditions SQL following FROM (WHERE, ORDER BY, LIMIT) with ? for parameters
+	 */
+	public <T> void createQuery(String name, Class<T> type, String conditions) {
+		createQuery(name, type, conditions, true);
+	}
+
+	/**
+	 * Define named query of the file database
+	 * @param name query name
+	 * @param type model
+	 * @param conditions SQL following FROM (WHERE, ORDER BY, LIMIT) with ? for parameters
+	 * @param cascade false to leave one-to-one cascades null, for callers joining rows themselves
+	 */
+	public <T> void createQuery(String name, Class<T> type, String conditions, boolean cascade) {
+		queries.put(name, new Query<T>(type, getTable(type).getQualifiedTableName(), conditions, cascade));
+	}
+
+	/**
+	 * Run named query on read-only connection of current thread
+	 * @param name query name
+	 * @param parameters
+	 * @return selected rows
+	 * @throws SormulaException
+	 */
+	public <T> List<T> select(String name, Object... parameters) throws SormulaException {
+		return select(SIA.getInstance().getReadConnection(), name, parameters);
+	}
+
+	/**
+	 * Run named query
+	 * @param connection connection of the file database
+	 * @param name query name
+	 * @param parameters
+	 * @return selected rows
+	 * @throws SormulaException
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> List<T> select(Connection connection, String name, Object... parameters) throws SormulaException {
+		Query<T> query = (Query<T>) queries.get(name);
+		if (query == null)
+			throw new SormulaException("Unknown query: " + name);
+		return query.select(this, getStatementCache(connection), new HashMap<String, Object>(), parameters);
+	}
+
+	/**
+	 * Returns statement cache of the file database connection
+	 * @return statement cache
+	 */
+	public StatementCache getStatementCache() {
+		return getStatementCache(database.getConnection());
+	}
+
+	/**
+	 * Returns statement cache of connection
+	 * @param connection connection of the file database
+	 * @return statement cache
+	 */
+	public synchronized StatementCache getStatementCache(Connection connection) {
+		StatementCache cache = statements.get(connection);
+		if (cache == null) {
+			cache = new StatementCache(connection, StatementCache.DEFAULT_CAPACITY);
+			statements.put(connection, cache);
+		}
+		return cache;
+	}
+
+	/**
+	 * Close prepared statements of a connection, before it's closed
+	 * @param connection
+	 */
+	public synchronized void release(Connection connection) {
+		StatementCache cache = statements.remove(connection);
+		if (cache != null)
+			cache.close();
+	}
+
+	/**
+	 * Close prepared statements, before connections are closed
+	 */
+	public synchronized void close() {
+		for (StatementCache cache : statements.values())
+			cache.close();
+		statements.clear();
+	}
+
+	/**
+	 * Select cascaded row by primary key, once per call of named query
+	 * @param type model
+	 * @param key primary key
+	 * @param statements statement cache of the connection
+	 * @param selected rows already selected by this call
+	 * @return row, null if there is none
+	 * @throws SormulaException
+	 */
+	<T> T selectCascade(Class<T> type, Object key, StatementCache statements, Map<String, Object> selected)
+			throws SormulaException {
+		String id = type.getName() + "#" + key;
+		if (selected.containsKey(id))
+			return type.cast(selected.get(id));
+		String name = "#" + type.getName();
+		if (!queries.containsKey(name))
+			createQuery(name, type, "WHERE " + Columns.primaryKey(type) + " = ?");
+		@SuppressWarnings("unchecked")
+		Query<T> query = (Query<T>) queries.get(name);
+		List<T> rows = query.select(this, statements, selected, key);
+		T row = rows.isEmpty() ? null : rows.get(0);
+		selected.put(id, row);
+		return row;
+	}
 }
@@ -36,14 +36,14 @@ public class ParserFactory {
      * 
      * @return parser
      */
-    public Parser create(String className) {
+    public synchronized Parser create(String className) {
         interpreter.exec("from sia.py.fileparsers."+className+" import "+className);
         parserClass = interpreter.get(className);
         PyObject buildingObject = parserClass.__call__();
         return (Parser)buildingObject.__tojava__(Parser.class);
     }
     
-    public static ParserFactory getInstance() {
+    public static synchronized ParserFactory getInstance() {
     	if (instance == null)
     		instance = new ParserFactory();
     	return instance;
@@ -0,0 +1,14 @@
+package sia.utils;
+
+/**
+ * Progress listener
+ *
+ * @author jumper
+ */
+public interface ProgressListener {
+	/**
+	 * Called from the working thread when progress changed
+	 * @param monitor progress monitor
+	 */
+	public void progressChanged(ProgressMonitor monitor);
+}
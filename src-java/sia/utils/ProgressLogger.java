@@ -0,0 +1,47 @@
+package sia.utils;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Progress logger.
+ *
+ * Headless progress reporter: writes progress of every monitor it listens to
+ * into the log, at most once per interval and once on finish.
+ *
+ * @author jumper
+ */
+public class ProgressLogger implements ProgressListener {
+	public static final long DEFAULT_INTERVAL = 1000;
+
+	private long interval;
+	private volatile long logged;
+
+	private static final Logger logger = Logger.getLogger(ProgressLogger.class);
+
+	/**
+	 * Default constructor
+	 */
+	public ProgressLogger() {
+		this(DEFAULT_INTERVAL);
+	}
+
+	/**
+	 * Constructor
+	 * @param interval minimal time between two log entries in milliseconds
+	 */
+	public ProgressLogger(long interval) {
+		this.interval = interval;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void progressChanged(ProgressMonitor monitor) {
+		long now = System.currentTimeMillis();
+		if (!monitor.isFinished() && now - logged < interval)
+			return;
+		logged = now;
+		logger.info(monitor.isFinished() ? monitor + " in " + monitor.getElapsed() + " ms" : monitor.toString());
+	}
+}
@@ -0,0 +1,281 @@
+package sia.utils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress monitor.
+ *
+ * Counters of one long running operation (parsing, saving): items done out of
+ * total, bytes read and rows written. Items are counted per run (from start to
+ * finish), bytes and rows for the whole life of the monitor, since a run may
+ * start after files were read. Counters are atomic, so the working
+ * thread never locks; listeners are called from the working thread, at most
+ * once per interval, plus once on start and on finish.
+ *
+ * @author jumper
+ */
+public class ProgressMonitor {
+	public static final long DEFAULT_INTERVAL = 100;
+	private static final double SMOOTHING = 0.3d;
+
+	private String name;
+	private long interval;
+	private AtomicLong done = new AtomicLong();
+	private AtomicLong total = new AtomicLong();
+	private AtomicLong bytes = new AtomicLong();
+	private AtomicLong rows = new AtomicLong();
+	private AtomicLong notified = new AtomicLong();
+	private volatile long startTime;
+	private volatile boolean finished;
+	private volatile double rate;
+	private long sampleTime;
+	private long sampleDone;
+	private List<ProgressListener> listeners = new CopyOnWriteArrayList<ProgressListener>();
+
+	/**
+	 * Constructor
+	 * @param name operation name
+	 */
+	public ProgressMonitor(String name) {
+		this(name, DEFAULT_INTERVAL);
+	}
+
+	/**
+	 * Constructor
+	 * @param name operation name
+	 * @param interval minimal time between two listener calls in milliseconds
+	 */
+	public ProgressMonitor(String name, long interval) {
+		this.name = name;
+		this.interval = interval;
+	}
+
+	/**
+	 * Add listener
+	 * @param listener
+	 */
+	public void addListener(ProgressListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Remove listener
+	 * @param listener
+	 */
+	public void removeListener(ProgressListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Start (or restart) operation, items counters are reset
+	 * @param total number of items, 0 if unknown
+	 */
+	public void start(long total) {
+		this.done.set(0);
+		this.total.set(total);
+		this.finished = false;
+		this.rate = 0;
+		synchronized (this) {
+			startTime = System.currentTimeMillis();
+			sampleTime = startTime;
+			sampleDone = 0;
+		}
+		changed(true);
+	}
+
+	/**
+	 * Finish operation
+	 */
+	public void finish() {
+		finished = true;
+		changed(true);
+	}
+
+	/**
+	 * Set items done and total
+	 * @param done
+	 * @param total
+	 */
+	public void set(long done, long total) {
+		this.total.set(total);
+		this.done.set(done);
+		changed(false);
+	}
+
+	/**
+	 * Set total number of items
+	 * @param total
+	 */
+	public void setTotal(long total) {
+		this.total.set(total);
+		changed(false);
+	}
+
+	/**
+	 * One more item done
+	 */
+	public void increment() {
+		done.incrementAndGet();
+		changed(false);
+	}
+
+	/**
+	 * More items done
+	 * @param items
+	 */
+	public void add(long items) {
+		done.addAndGet(items);
+		changed(false);
+	}
+
+	/**
+	 * Count bytes read
+	 * @param count
+	 */
+	public void addBytes(long count) {
+		bytes.addAndGet(count);
+		changed(false);
+	}
+
+	/**
+	 * Count rows written
+	 * @param count
+	 */
+	public void addRows(long count) {
+		rows.addAndGet(count);
+		changed(false);
+	}
+
+	/**
+	 * Returns operation name
+	 * @return name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns items done
+	 * @return items done
+	 */
+	public long getDone() {
+		return done.get();
+	}
+
+	/**
+	 * Returns total number of items
+	 * @return total, 0 if unknown
+	 */
+	public long getTotal() {
+		return total.get();
+	}
+
+	/**
+	 * Returns bytes read
+	 * @return bytes read
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * Returns rows written
+	 * @return rows written
+	 */
+	public long getRows() {
+		return rows.get();
+	}
+
+	/**
+	 * Returns true if operation is finished
+	 * @return true if finished
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Returns progress percent, 100 only when operation is finished
+	 * @return progress percent
+	 */
+	public int getPercent() {
+		if (finished)
+			return 100;
+		long total = this.total.get();
+		if (total <= 0)
+			return 0;
+		return (int) Math.min(99, done.get() * 100 / total);
+	}
+
+	/**
+	 * Returns current rate (smoothed)
+	 * @return items per second
+	 */
+	public double getRate() {
+		return rate;
+	}
+
+	/**
+	 * Returns time elapsed since start
+	 * @return milliseconds
+	 */
+	public long getElapsed() {
+		return startTime == 0 ? 0 : System.currentTimeMillis() - startTime;
+	}
+
+	/**
+	 * Returns estimated time left
+	 * @return milliseconds, -1 if unknown
+	 */
+	public long getEta() {
+		long left = total.get() - done.get();
+		if (finished)
+			return 0;
+		if (rate <= 0 || total.get() <= 0)
+			return -1;
+		return (long) (Math.max(0, left) * 1000 / rate);
+	}
+
+	/**
+	 * Notify listeners, unless they were notified less than interval ago
+	 * @param force notify anyway
+	 */
+	private void changed(boolean force) {
+		long now = System.currentTimeMillis();
+		long last = notified.get();
+		if (!force && (now - last < interval || !notified.compareAndSet(last, now)))
+			return;
+		notified.set(now);
+		synchronized (this) {
+			long current = done.get();
+			if (now > sampleTime) {
+				double sample = (current - sampleDone) * 1000.0d / (now - sampleTime);
+				rate = rate == 0 ? sample : rate + SMOOTHING * (sample - rate);
+				sampleTime = now;
+				sampleDone = current;
+			}
+		}
+		for (ProgressListener listener : listeners)
+			listener.progressChanged(this);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder(name).append(": ").append(getPercent()).append("% (").append(getDone());
+		if (getTotal() > 0)
+			s.append('/').append(getTotal());
+		s.append("), ").append((long) getRate()).append("/s");
+		if (getEta() > 0)
+			s.append(", ETA ").append(getEta() / 1000).append(" s");
+		if (getRows() > 0)
+			s.append(", rows: ").append(getRows());
+		if (getBytes() > 0)
+			s.append(", bytes: ").append(getBytes());
+		return s.toString();
+	}
+}
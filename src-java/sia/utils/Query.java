@@ -0,0 +1,133 @@
+package sia.utils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.sormula.SormulaException;
+
+/**
+ * Named query.
+ *
+ * Parameterized select of rows of one model, mapped by {@link Columns} the
+ * way Sormula maps them; one-to-one cascades are selected by primary key,
+ * unless the query leaves them to the caller.
+ *
+ * @author jumper
+ */
+class Query<T> {
+	private Class<T> type;
+	private String sql;
+	private List<Field> columns;
+	private List<Field> cascades;
+	private List<Field> sources;
+
+	/**
+	 * Constructor
+	 * @param type model
+	 * @param table qualified table name
+	 * @param conditions SQL following FROM, with ? for parameters
+	 * @param cascading true to select one-to-one cascades, false to leave them null
+	 */
+	Query(Class<T> type, String table, String conditions, boolean cascading) {
+		this.type = type;
+		this.columns = Columns.columns(type);
+		this.cascades = cascading ? Columns.cascades(type) : new ArrayList<Field>();
+		this.sources = new ArrayList<Field>();
+		for (Field cascade : cascades)
+			sources.add(Columns.source(type, cascade));
+		StringBuilder sql = new StringBuilder("SELECT ");
+		for (int i = 0; i < columns.size(); i++)
+			sql.append(i > 0 ? ", " : "").append(columns.get(i).getName());
+		this.sql = sql.append(" FROM ").append(table).append(" ").append(conditions).toString();
+	}
+
+	/**
+	 * Returns model
+	 * @return model class
+	 */
+	Class<T> getType() {
+		return type;
+	}
+
+	/**
+	 * Select rows
+	 * @param orm selects cascades
+	 * @param statements statement cache
+	 * @param selected rows already selected by this call, by type and primary key
+	 * @param parameters
+	 * @return rows
+	 * @throws SormulaException
+	 */
+	List<T> select(ORM orm, StatementCache statements, Map<String, Object> selected, Object... parameters)
+			throws SormulaException {
+		List<T> rows = new ArrayList<T>();
+		try {
+			synchronized (statements) {
+				PreparedStatement stmt = statements.prepare(sql);
+				for (int i = 0; i < parameters.length; i++) {
+					if (parameters[i] instanceof Date)
+						stmt.setTimestamp(i + 1, new Timestamp(((Date) parameters[i]).getTime()));
+					else
+						stmt.setObject(i + 1, parameters[i]);
+				}
+				ResultSet rs = stmt.executeQuery();
+				try {
+					while (rs.next())
+						rows.add(read(rs));
+				} finally {
+					rs.close();
+				}
+			}
+			for (T row : rows)
+				for (int i = 0; i < cascades.size(); i++)
+					cascades.get(i).set(row, orm.selectCascade(cascades.get(i).getType(), sources.get(i).get(row), statements,
+							selected));
+		} catch (SQLException e) {
+			throw new SormulaException("Query failed: " + sql, e);
+		} catch (IllegalAccessException e) {
+			throw new SormulaException("Query failed: " + sql, e);
+		}
+		return rows;
+	}
+
+	private T read(ResultSet rs) throws SQLException, SormulaException {
+		T row;
+		try {
+			row = type.getDeclaredConstructor().newInstance();
+			for (int i = 0; i < columns.size(); i++) {
+				Field field = columns.get(i);
+				Class<?> t = field.getType();
+				if (t == int.class)
+					field.setInt(row, rs.getInt(i + 1));
+				else if (t == long.class)
+					field.setLong(row, rs.getLong(i + 1));
+				else if (t == boolean.class)
+					field.setBoolean(row, rs.getBoolean(i + 1));
+				else if (t == String.class)
+					field.set(row, rs.getString(i + 1));
+				else if (t == Date.class) {
+					Timestamp timestamp = rs.getTimestamp(i + 1);
+					field.set(row, timestamp == null ? null : new Date(timestamp.getTime()));
+				} else
+					field.set(row, rs.getObject(i + 1));
+			}
+		} catch (InstantiationException e) {
+			throw new SormulaException("Row can't be created: " + type.getName(), e);
+		} catch (IllegalAccessException e) {
+			throw new SormulaException("Row can't be created: " + type.getName(), e);
+		} catch (NoSuchMethodException e) {
+			throw new SormulaException("Row can't be created: " + type.getName(), e);
+		} catch (InvocationTargetException e) {
+			throw new SormulaException("Row can't be created: " + type.getName(), e);
+		}
+		return row;
+	}
+}
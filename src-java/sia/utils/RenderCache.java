@@ -0,0 +1,148 @@
+package sia.utils;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Render cache.
+ *
+ * Recently shown conversation documents, keyed by conversation ID and render
+ * settings, so going back to a conversation doesn't load and render its
+ * messages again. The cache is bounded by the total length of the documents
+ * and evicts the least recently used ones; conversations touched by an import
+ * are invalidated.
+ *
+ * @author jumper
+ */
+public class RenderCache {
+	/**
+	 * Default capacity in characters (about 8 MB of strings)
+	 */
+	public static final long DEFAULT_CAPACITY = 4 * 1024 * 1024;
+
+	private static RenderCache instance;
+
+	private long capacity;
+	private long size;
+	private LinkedHashMap<Key, String> documents;
+
+	/**
+	 * Cache key: conversation and settings it was rendered with
+	 */
+	private static class Key {
+		private int conversationId;
+		private String settings;
+
+		private Key(int conversationId, String settings) {
+			this.conversationId = conversationId;
+			this.settings = settings;
+		}
+
+		@Override
+		public int hashCode() {
+			return conversationId * 31 + settings.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return conversationId == k.conversationId && settings.equals(k.settings);
+		}
+	}
+
+	/**
+	 * Constructor
+	 * @param capacity maximum total length of cached documents
+	 */
+	public RenderCache(long capacity) {
+		this.capacity = capacity;
+		this.documents = new LinkedHashMap<Key, String>(16, 0.75f, true);
+	}
+
+	/**
+	 * Returns shared cache
+	 * @return render cache
+	 */
+	public static synchronized RenderCache getInstance() {
+		if (instance == null)
+			instance = new RenderCache(DEFAULT_CAPACITY);
+		return instance;
+	}
+
+	/**
+	 * Returns cached document
+	 * @param conversationId
+	 * @param settings render settings
+	 * @return document, null if not cached
+	 */
+	public synchronized String get(int conversationId, String settings) {
+		return documents.get(new Key(conversationId, settings));
+	}
+
+	/**
+	 * Cache document, evicting least recently used ones to stay within capacity
+	 * @param conversationId
+	 * @param settings render settings
+	 * @param document rendered document
+	 */
+	public synchronized void put(int conversationId, String settings, String document) {
+		Key key = new Key(conversationId, settings);
+		String old = documents.remove(key);
+		if (old != null)
+			size -= old.length();
+		if (document.length() > capacity)
+			return;
+		documents.put(key, document);
+		size += document.length();
+		Iterator<String> eldest = documents.values().iterator();
+		while (size > capacity) {
+			size -= eldest.next().length();
+			eldest.remove();
+		}
+	}
+
+	/**
+	 * Remove documents of conversations, with any settings
+	 * @param conversationIds
+	 */
+	public synchronized void invalidate(Collection<Integer> conversationIds) {
+		if (documents.isEmpty())
+			return;
+		Iterator<Map.Entry<Key, String>> it = documents.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Key, String> entry = it.next();
+			if (conversationIds.contains(entry.getKey().conversationId)) {
+				size -= entry.getValue().length();
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Remove all documents
+	 */
+	public synchronized void clear() {
+		documents.clear();
+		size = 0;
+	}
+
+	/**
+	 * Returns total length of cached documents
+	 * @return size in characters
+	 */
+	public synchronized long size() {
+		return size;
+	}
+
+	/**
+	 * Returns number of cached documents
+	 * @return number of documents
+	 */
+	public synchronized int count() {
+		return documents.size();
+	}
+}
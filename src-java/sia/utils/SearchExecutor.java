@@ -0,0 +1,220 @@
+package sia.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Search executor.
+ *
+ * Runs queries typed by the user on a background thread. A query waits a
+ * short delay before it starts, so a burst of keystrokes runs only the last
+ * one; a newer query cancels the pending one and interrupts the running one
+ * (SQLite interrupts the statement the connection is executing). Only the
+ * executor thread's own reader is interrupted, resolved for every query since
+ * results (cursors) take the reader they were read from with them, and no
+ * other thread reads through it. Without readers queries run on the writer,
+ * where an interrupt could hit an import's write (with the journal off that
+ * may corrupt the database), so the running query finishes and its result is
+ * dropped. Results
+ * are handed to the delivery executor (the UI thread) and dropped there too
+ * if a newer query was submitted meanwhile, so only the latest result is
+ * ever shown. Dropped results holding resources (Closeable) are closed.
+ *
+ * @author jumper
+ */
+public class SearchExecutor {
+	public static final long DEFAULT_DELAY = 250;
+
+	private Connection connection;
+	private ConnectionManager connections;
+	private Executor delivery;
+	private long delay;
+	private ScheduledExecutorService executor;
+	private ScheduledFuture<?> pending;
+	private long generation;
+	private boolean running;
+
+	private static final Logger logger = Logger.getLogger(SearchExecutor.class);
+
+	/**
+	 * Query result callback, called by the delivery executor
+	 */
+	public interface Callback<T> {
+		/**
+		 * Query finished
+		 * @param result query result
+		 */
+		public void done(T result);
+
+		/**
+		 * Query failed
+		 * @param e cause
+		 */
+		public void failed(Exception e);
+	}
+
+	/**
+	 * Default and only constructor
+	 * @param name thread name
+	 * @param connection connection interrupted when a running query is superseded, may be null, never the writer
+	 * @param delivery executor results are delivered with
+	 * @param delay milliseconds a query waits for the next one
+	 */
+	public SearchExecutor(final String name, Connection connection, Executor delivery, long delay) {
+		this.connection = connection;
+		this.delivery = delivery;
+		this.delay = delay;
+		this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Interrupt the reader the executor thread is given instead of a fixed
+	 * connection, nothing if there are no readers
+	 * @param connections connection manager
+	 */
+	public synchronized void setConnections(ConnectionManager connections) {
+		this.connections = connections;
+		this.connection = null;
+	}
+
+	/**
+	 * Submit query after default delay, superseding previous ones
+	 * @param query
+	 * @param callback
+	 */
+	public <T> void submit(Callable<T> query, Callback<T> callback) {
+		submit(query, callback, delay);
+	}
+
+	/**
+	 * Submit query, superseding previous ones
+	 * @param query
+	 * @param callback
+	 * @param delay milliseconds to wait, 0 for user actions other than typing
+	 */
+	public synchronized <T> void submit(final Callable<T> query, final Callback<T> callback, long delay) {
+		final long id = supersede();
+		pending = executor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (!start(id))
+					return;
+				T result = null;
+				Exception error = null;
+				try {
+					result = query.call();
+				} catch (Exception e) {
+					error = e;
+				} finally {
+					finish();
+				}
+				if (!isLatest(id)) {
+					logger.debug("search superseded");
+					discard(result);
+					return;
+				}
+				deliver(id, callback, result, error);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Cancel pending and running query
+	 */
+	public synchronized void cancel() {
+		supersede();
+	}
+
+	/**
+	 * Cancel queries and stop the thread
+	 */
+	public void shutdown() {
+		cancel();
+		executor.shutdownNow();
+	}
+
+	private synchronized long supersede() {
+		generation++;
+		if (pending != null)
+			pending.cancel(false);
+		pending = null;
+		if (running && connection != null && (connections == null || interruptible(connection))) {
+			try {
+				Statement stmt = connection.createStatement();
+				stmt.cancel();
+				stmt.close();
+			} catch (SQLException e) {
+				logger.debug("search not interrupted: " + e.getMessage());
+			}
+		}
+		return generation;
+	}
+
+	private synchronized boolean start(long id) {
+		// called on the executor thread, so this is the reader the query uses;
+		// the previous one may have been handed over to a delivered cursor
+		if (connections != null)
+			connection = connections.getReader();
+		running = id == generation;
+		return running;
+	}
+
+	private synchronized void finish() {
+		running = false;
+		if (connections != null)
+			connection = null;
+	}
+
+	private boolean interruptible(Connection connection) {
+		return connections.hasReaders() && connection != connections.getWriter();
+	}
+
+	private synchronized boolean isLatest(long id) {
+		return id == generation;
+	}
+
+	private static void discard(Object result) {
+		if (result instanceof Closeable) {
+			try {
+				((Closeable) result).close();
+			} catch (IOException e) {
+				logger.debug("search result not closed: " + e.getMessage());
+			}
+		}
+	}
+
+	private <T> void deliver(final long id, final Callback<T> callback, final T result, final Exception error) {
+		delivery.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (!isLatest(id)) {
+					discard(result);
+					return;
+				}
+				if (error != null)
+					callback.failed(error);
+				else
+					callback.done(result);
+			}
+		});
+	}
+}
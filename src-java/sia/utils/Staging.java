@@ -0,0 +1,37 @@
+package sia.utils;
+
+/**
+ * Staging strategy of an import, chosen from the number of parsed messages
+ * unless import.staging configuration key says otherwise.
+ *
+ * MEMORY stages rows in the in-memory aux1 database and copies them to the file
+ * database afterwards: fastest for small imports, but the whole import is held
+ * in the heap and written twice. DISK does the same with aux1 backed by a
+ * temporary file. DIRECT writes straight into the file database, one
+ * transaction per checkpoint chunk.
+ *
+ * @author jumper
+ */
+public enum Staging {
+	MEMORY, DISK, DIRECT;
+
+	/**
+	 * Largest import (in messages) staged in memory when import.staging_limit isn't set
+	 */
+	public static final int DEFAULT_MEMORY_LIMIT = 100000;
+
+	/**
+	 * Returns strategy for an import of given size
+	 * @param messagesCount number of parsed messages
+	 * @return staging strategy
+	 */
+	public static Staging choose(int messagesCount) {
+		String value = Config.get("import.staging");
+		for (Staging s : values()) {
+			if (value != null && s.name().equalsIgnoreCase(value.trim()))
+				return s;
+		}
+		int limit = Config.hasValue("import.staging_limit") ? Config.getInt("import.staging_limit") : DEFAULT_MEMORY_LIMIT;
+		return messagesCount <= limit ? MEMORY : DIRECT;
+	}
+}
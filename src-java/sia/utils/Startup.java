@@ -0,0 +1,203 @@
+package sia.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Staged startup.
+ *
+ * Startup stages with their dependencies, each started as soon as the
+ * stages it depends on are done: on a small executor, or on the thread
+ * waiting for stages when the stage needs it (dialogs of the UI thread).
+ * A failed stage fails its dependents too, with the same exception. Stage
+ * times are logged.
+ *
+ * @author jumper
+ */
+public class Startup {
+	public static final int DEFAULT_THREADS = 2;
+	private static final long POLL = 10;
+
+	private Map<String, Stage> stages;
+	private BlockingQueue<Stage> local;
+	private ExecutorService executor;
+	private long started;
+
+	private static final Logger logger = Logger.getLogger(Startup.class);
+
+	/**
+	 * Startup stage
+	 */
+	public interface Task {
+		/**
+		 * Run stage
+		 * @throws Exception
+		 */
+		public void run() throws Exception;
+	}
+
+	private class Stage implements Runnable {
+		private String name;
+		private Task task;
+		private boolean onCaller;
+		private int waiting;
+		private List<Stage> dependents = new ArrayList<Stage>();
+		private CountDownLatch finished = new CountDownLatch(1);
+		private volatile Exception error;
+		private volatile long time = -1;
+
+		@Override
+		public void run() {
+			long start = System.currentTimeMillis();
+			try {
+				task.run();
+			} catch (Exception e) {
+				error = e;
+			}
+			time = System.currentTimeMillis() - start;
+			logger.debug("startup: " + name + " " + time + " ms" + (error != null ? ", failed: " + error : ""));
+			finish(this, error);
+		}
+	}
+
+	/**
+	 * Constructor
+	 * @param threads executor threads
+	 */
+	public Startup(final int threads) {
+		this.stages = new LinkedHashMap<String, Stage>();
+		this.local = new LinkedBlockingQueue<Stage>();
+		this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private int count;
+
+			@Override
+			public synchronized Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "startup-" + ++count);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Add stage run by the executor
+	 * @param name stage name
+	 * @param task stage
+	 * @param dependencies stages which have to be done first, added before
+	 */
+	public void add(String name, Task task, String... dependencies) {
+		add(name, task, false, dependencies);
+	}
+
+	/**
+	 * Add stage run by the thread waiting in {@link #await(String...)}
+	 * @param name stage name
+	 * @param task stage
+	 * @param dependencies stages which have to be done first, added before
+	 */
+	public void addOnCaller(String name, Task task, String... dependencies) {
+		add(name, task, true, dependencies);
+	}
+
+	private synchronized void add(String name, Task task, boolean onCaller, String... dependencies) {
+		Stage stage = new Stage();
+		stage.name = name;
+		stage.task = task;
+		stage.onCaller = onCaller;
+		for (String dependency : dependencies) {
+			Stage before = stages.get(dependency);
+			if (before == null)
+				throw new IllegalArgumentException("Unknown stage: " + dependency);
+			before.dependents.add(stage);
+			stage.waiting++;
+		}
+		stages.put(name, stage);
+	}
+
+	/**
+	 * Start stages without dependencies
+	 */
+	public synchronized void start() {
+		started = System.currentTimeMillis();
+		for (Stage stage : stages.values())
+			if (stage.waiting == 0)
+				schedule(stage);
+	}
+
+	/**
+	 * Wait for stages, running stages of the calling thread meanwhile
+	 * @param names stage names
+	 * @throws Exception exception of the first failed stage
+	 */
+	public void await(String... names) throws Exception {
+		for (String name : names) {
+			Stage stage;
+			synchronized (this) {
+				stage = stages.get(name);
+			}
+			if (stage == null)
+				throw new IllegalArgumentException("Unknown stage: " + name);
+			while (!stage.finished.await(0, TimeUnit.MILLISECONDS)) {
+				Stage next = local.poll(POLL, TimeUnit.MILLISECONDS);
+				if (next != null)
+					next.run();
+			}
+			if (stage.error != null)
+				throw stage.error;
+		}
+		logger.debug("startup: " + join(names) + " ready after " + (System.currentTimeMillis() - started) + " ms");
+	}
+
+	/**
+	 * Returns time a stage took
+	 * @param name stage name
+	 * @return milliseconds, -1 if not run
+	 */
+	public synchronized long getTime(String name) {
+		return stages.get(name).time;
+	}
+
+	/**
+	 * Let running stages finish, no other stages are started
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	private void schedule(Stage stage) {
+		if (stage.onCaller)
+			local.add(stage);
+		else
+			executor.execute(stage);
+	}
+
+	private synchronized void finish(Stage stage, Exception error) {
+		for (Stage dependent : stage.dependents) {
+			if (error != null) {
+				dependent.error = error;
+				finish(dependent, error);
+			} else if (--dependent.waiting == 0 && dependent.error == null) {
+				schedule(dependent);
+			}
+		}
+		stage.finished.countDown();
+	}
+
+	private static String join(String[] names) {
+		StringBuilder joined = new StringBuilder();
+		for (String name : names)
+			joined.append(joined.length() > 0 ? ", " : "").append(name);
+		return joined.toString();
+	}
+}
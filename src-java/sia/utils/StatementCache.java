@@ -0,0 +1,112 @@
+package sia.utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Prepared statement cache.
+ *
+ * Statements of one connection kept prepared by their SQL, so a query run
+ * again isn't parsed and planned by SQLite again. Least recently used
+ * statements are closed when the cache is full. A cached statement is shared,
+ * so it has to be used while holding the cache lock and never closed by the
+ * user.
+ *
+ * @author jumper
+ */
+public class StatementCache {
+	public static final int DEFAULT_CAPACITY = 64;
+
+	private Connection connection;
+	private Map<String, PreparedStatement> statements;
+	private long hits;
+	private long misses;
+
+	private static final Logger logger = Logger.getLogger(StatementCache.class);
+
+	/**
+	 * Constructor
+	 * @param connection
+	 * @param capacity maximum number of prepared statements
+	 */
+	public StatementCache(Connection connection, final int capacity) {
+		this.connection = connection;
+		this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (size() <= capacity)
+					return false;
+				close(eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Returns prepared statement, preparing it on first use
+	 * @param sql
+	 * @return statement with cleared parameters
+	 * @throws SQLException
+	 */
+	public synchronized PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement stmt = statements.get(sql);
+		if (stmt != null) {
+			hits++;
+			stmt.clearParameters();
+			return stmt;
+		}
+		misses++;
+		stmt = connection.prepareStatement(sql);
+		statements.put(sql, stmt);
+		return stmt;
+	}
+
+	/**
+	 * Returns number of statements reused
+	 * @return hits
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns number of statements prepared
+	 * @return misses
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns number of cached statements
+	 * @return number of statements
+	 */
+	public synchronized int size() {
+		return statements.size();
+	}
+
+	/**
+	 * Close all statements, before the connection is closed
+	 */
+	public synchronized void close() {
+		for (PreparedStatement stmt : statements.values())
+			close(stmt);
+		statements.clear();
+		logger.debug("statement cache: " + hits + " hits, " + misses + " misses");
+	}
+
+	private static void close(PreparedStatement stmt) {
+		try {
+			stmt.close();
+		} catch (SQLException e) {
+			logger.debug("statement not closed: " + e.getMessage());
+		}
+	}
+}
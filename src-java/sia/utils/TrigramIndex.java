@@ -0,0 +1,372 @@
+package sia.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Trigram index.
+ *
+ * Inverted index of message texts kept by the application itself, for
+ * databases without full-text search. Every three consecutive characters
+ * (case folded) of a message map to the IDs of messages containing them; a
+ * phrase can only be in messages containing all its trigrams, so candidates
+ * are the intersection of its posting lists and only they need to be read.
+ *
+ * The index lives in a file next to the database: a sorted directory of
+ * trigrams followed by posting lists, sorted by message ID. The directory is
+ * held in memory, posting lists are read through a file channel when needed.
+ * The file isn't memory mapped: a mapping is only released when garbage
+ * collected, and until then Windows won't let the file be replaced.
+ * Messages are only ever appended, so the file records the last indexed
+ * message ID and the number of messages up to it; new messages are added by
+ * {@link #update(Connection)}, and when the database no longer agrees with
+ * these counters (messages removed, database restored from a copy) the index
+ * is rebuilt.
+ *
+ * @author jumper
+ */
+public class TrigramIndex {
+	private static final int MAGIC = 0x53494133;
+	private static final int VERSION = 1;
+	private static final int HEADER = 4 + 4 + 8 + 8 + 4;
+	private static final int ENTRY = 8 + 4 + 4;
+
+	private File file;
+	private FileChannel channel;
+	private ByteBuffer directory;
+	private int keys;
+	private long lastMessageId;
+	private long messagesCount;
+
+	private static final Logger logger = Logger.getLogger(TrigramIndex.class);
+
+	/**
+	 * Default and only constructor
+	 * @param file index file
+	 */
+	public TrigramIndex(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Read index file and bring it up to date with the database
+	 * @param connection database connection
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	public synchronized void open(Connection connection) throws SQLException, IOException {
+		if (file.length() >= HEADER)
+			load();
+		if (directory != null && isStale(connection)) {
+			logger.debug("trigram index stale, rebuilding");
+			release();
+		}
+		if (directory == null) {
+			keys = 0;
+			lastMessageId = 0;
+			messagesCount = 0;
+		}
+		update(connection);
+	}
+
+	/**
+	 * Add messages saved since last update. Call it after messages are committed.
+	 * @param connection database connection
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	public synchronized void update(Connection connection) throws SQLException, IOException {
+		Map<Long, IntList> added = new HashMap<Long, IntList>();
+		long last = lastMessageId;
+		int count = 0;
+		synchronized (connection) {
+			PreparedStatement stmt = connection.prepareStatement("SELECT id, message FROM main.message WHERE id > ? ORDER BY id");
+			stmt.setLong(1, lastMessageId);
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next()) {
+				int id = rs.getInt(1);
+				String text = fold(rs.getString(2));
+				for (int i = 0; i + 3 <= text.length(); i++) {
+					long key = key(text, i);
+					IntList postings = added.get(key);
+					if (postings == null) {
+						postings = new IntList();
+						added.put(key, postings);
+					}
+					postings.addUnique(id);
+				}
+				last = id;
+				count++;
+			}
+			rs.close();
+			stmt.close();
+		}
+		if (count == 0 && directory != null)
+			return;
+		write(added, last, messagesCount + count);
+		load();
+		logger.debug("trigram index: " + count + " messages added, " + keys + " trigrams");
+	}
+
+	/**
+	 * Returns IDs of messages which may contain phrase: containing all its
+	 * trigrams. They still have to be checked against the phrase.
+	 * @param phrase searched phrase, at least 3 characters
+	 * @return sorted message IDs
+	 * @throws IOException
+	 */
+	public synchronized int[] candidates(String phrase) throws IOException {
+		String text = fold(phrase);
+		if (text.length() < 3)
+			throw new IllegalArgumentException("Phrase shorter than 3 characters");
+		// closed by an interrupt of a reading thread
+		if (channel != null && !channel.isOpen())
+			load();
+		int[] result = null;
+		for (int i = 0; i + 3 <= text.length() && (result == null || result.length > 0); i++) {
+			int[] postings = postings(key(text, i));
+			result = result == null ? postings : intersect(result, postings);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns last indexed message ID
+	 * @return message ID
+	 */
+	public synchronized long getLastMessageId() {
+		return lastMessageId;
+	}
+
+	/**
+	 * Close index file
+	 */
+	public synchronized void close() {
+		release();
+	}
+
+	/**
+	 * Fold text case, the same way for messages and phrases
+	 * @param text
+	 * @return folded text
+	 */
+	public static String fold(String text) {
+		char[] chars = text.toCharArray();
+		for (int i = 0; i < chars.length; i++)
+			chars[i] = Character.toLowerCase(chars[i]);
+		return new String(chars);
+	}
+
+	private boolean isStale(Connection connection) throws SQLException {
+		synchronized (connection) {
+			PreparedStatement stmt = connection.prepareStatement("SELECT COUNT(*), IFNULL(MAX(id), 0) FROM main.message WHERE id <= ?");
+			stmt.setLong(1, lastMessageId);
+			ResultSet rs = stmt.executeQuery();
+			rs.next();
+			boolean stale = rs.getLong(1) != messagesCount || rs.getLong(2) != lastMessageId;
+			rs.close();
+			stmt.close();
+			return stale;
+		}
+	}
+
+	private static long key(String text, int i) {
+		return ((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2);
+	}
+
+	private int[] postings(long key) throws IOException {
+		int entry = find(key);
+		return entry < 0 ? new int[0] : postingsAt(entry);
+	}
+
+	/**
+	 * Returns directory entry of trigram, -1 if not indexed
+	 */
+	private int find(long key) {
+		if (directory == null)
+			return -1;
+		int low = 0;
+		int high = keys - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			long found = directory.getLong(middle * ENTRY);
+			if (found < key)
+				low = middle + 1;
+			else if (found > key)
+				high = middle - 1;
+			else
+				return middle;
+		}
+		return -1;
+	}
+
+	private int[] postingsAt(int entry) throws IOException {
+		int offset = directory.getInt(entry * ENTRY + 8);
+		int[] postings = new int[directory.getInt(entry * ENTRY + 12)];
+		read(offset, postings.length * 4).asIntBuffer().get(postings);
+		return postings;
+	}
+
+	private static int[] intersect(int[] a, int[] b) {
+		int[] result = new int[Math.min(a.length, b.length)];
+		int n = 0;
+		for (int i = 0, j = 0; i < a.length && j < b.length;) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				result[n++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	/**
+	 * Merge index with added postings into a new file, replacing the old one
+	 */
+	private void write(Map<Long, IntList> added, long last, long count) throws IOException {
+		long[] merged = new long[keys + added.size()];
+		int n = 0;
+		for (int i = 0; i < keys; i++)
+			merged[n++] = directory.getLong(i * ENTRY);
+		for (Long key : added.keySet())
+			if (find(key) < 0)
+				merged[n++] = key;
+		merged = Arrays.copyOf(merged, n);
+		Arrays.sort(merged);
+		// entries of existing trigrams, merged array and directory are both sorted
+		int[] existing = new int[merged.length];
+		for (int i = 0, j = 0; i < merged.length; i++)
+			existing[i] = j < keys && directory.getLong(j * ENTRY) == merged[i] ? j++ : -1;
+
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(last);
+			out.writeLong(count);
+			out.writeInt(merged.length);
+			int offset = HEADER + merged.length * ENTRY;
+			int[] lengths = new int[merged.length];
+			for (int i = 0; i < merged.length; i++) {
+				IntList more = added.get(merged[i]);
+				lengths[i] = (existing[i] < 0 ? 0 : directory.getInt(existing[i] * ENTRY + 12))
+						+ (more == null ? 0 : more.size());
+				out.writeLong(merged[i]);
+				out.writeInt(offset);
+				out.writeInt(lengths[i]);
+				offset += lengths[i] * 4;
+			}
+			for (int i = 0; i < merged.length; i++) {
+				if (existing[i] >= 0)
+					for (int id : postingsAt(existing[i]))
+						out.writeInt(id);
+				IntList more = added.get(merged[i]);
+				for (int j = 0; more != null && j < more.size(); j++)
+					out.writeInt(more.get(j));
+			}
+		} finally {
+			out.close();
+		}
+		// closed before replacing, Windows doesn't rename or delete open files
+		release();
+		if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file)))
+			throw new IOException("Can't replace trigram index " + file);
+	}
+
+	/**
+	 * Open index file and read its header and directory
+	 */
+	private void load() throws IOException {
+		release();
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		channel = raf.getChannel();
+		boolean loaded = false;
+		try {
+			ByteBuffer header = read(0, HEADER);
+			if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				logger.debug("trigram index " + file + " unreadable");
+				return;
+			}
+			lastMessageId = header.getLong(8);
+			messagesCount = header.getLong(16);
+			keys = header.getInt(24);
+			directory = read(HEADER, keys * ENTRY);
+			loaded = true;
+		} finally {
+			if (!loaded)
+				release();
+		}
+	}
+
+	/**
+	 * Close index file, forgetting its directory
+	 */
+	private void release() {
+		directory = null;
+		if (channel == null)
+			return;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			logger.debug("trigram index not closed: " + e.getMessage());
+		}
+		channel = null;
+	}
+
+	/**
+	 * Read bytes of index file
+	 */
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(length);
+		while (bytes.hasRemaining())
+			if (channel.read(bytes, position + bytes.position()) < 0)
+				throw new EOFException("Trigram index " + file + " truncated");
+		bytes.flip();
+		return bytes;
+	}
+
+	/**
+	 * Growable list of ints, sorted when filled in ascending order
+	 */
+	static class IntList {
+		private int[] values = new int[4];
+		private int size;
+
+		void addUnique(int value) {
+			if (size > 0 && values[size - 1] == value)
+				return;
+			if (size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			values[size++] = value;
+		}
+
+		int get(int i) {
+			return values[i];
+		}
+
+		int size() {
+			return size;
+		}
+	}
+}
@@ -32,13 +32,13 @@ class FmaParser(Parser):
 		f.close()
 
 	def getUserAccounts(self):
-		self.userAccountsLoadProgress = 100
+		self.setUserAccountsLoadProgress(100)
 		if self.messagesContent <> None: 
 			return [UserAccount(0, self.protocol, "")]
 		return None
 		
 	def getContacts(self, userAccounts):
-		self.contactsLoadProgress = 0
+		self.setContactsLoadProgress(0)
 		contactAccountsTemp = {}
 		sms = re.split('\<sms\>', self.messagesContent)
 		pattern = '\<from\>(.*)\s*\[(.*)\]\<\/from\>\s*\<msg\>(.*)\<\/msg\>\s*\<date\>(.*)\<\/date\>'
@@ -62,7 +62,7 @@ class FmaParser(Parser):
 				msg = Message(0, None, content, date, True)
 				contactAccountsTemp[ca].append(msg)
 				self.messagesCount += 1
-			self.contactsLoadProgress = i * 100 /len(sms)
+			self.contactsProgress.set(i + 1, len(sms))
 		
 		contacts = []
 		for ca in contactAccountsTemp.iterkeys():
@@ -70,5 +70,5 @@ class FmaParser(Parser):
 			cnt = Contact(0, "", "", ca.name)
 			cnt.addContactAccount(ca)
 			contacts.append(cnt)
-		self.contactsLoadProgress = 100
+		self.setContactsLoadProgress(100)
 		return contacts
@@ -33,44 +33,61 @@ class GtalkParser(Parser):
 		None
 
 	def getUserAccounts(self):
-		self.userAccountsLoadProgress = 0
+		self.setUserAccountsLoadProgress(0)
 		if self.passwords == None:
 			return None
 		self.M = imaplib.IMAP4_SSL('imap.gmail.com')
-		self.userAccountsLoadProgress = 25
+		self.setUserAccountsLoadProgress(25)
 		try:
 			self.M.login(self.passwords[0], self.passwords[1])
 		except Exception:
 			ex = ValueError()
 			ex.message = 'Incorrect login and/or password.'
 			raise ex
-		self.userAccountsLoadProgress = 50
-		self.M.select(mailbox='[Gmail]/'+self.passwords[2], readonly='true')
-		self.userAccountsLoadProgress = 75
-		try:
-			typ, self.data = self.M.search(None, 'ALL')
-		except Exception:
+		self.setUserAccountsLoadProgress(50)
+		typ, data = self.M.select(mailbox='[Gmail]/'+self.passwords[2], readonly='true')
+		if typ <> 'OK':
 			ex = ValueError()
 			ex.message = 'Incorrect chats label.'
 			raise ex
-		self.userAccountsLoadProgress = 100
+		self.setUserAccountsLoadProgress(75)
+		# UIDs are stable across sessions only while UIDVALIDITY stays the same
+		typ, validity = self.M.response('UIDVALIDITY')
+		if validity and validity[0] <> None:
+			self.sourceVersion = validity[0]
+		self.setUserAccountsLoadProgress(100)
 		return [UserAccount(0, self.protocol, self.passwords[0])]
 	
 	def getContacts(self, userAccounts):
-		self.contactsLoadProgress = 0
+		self.setContactsLoadProgress(0)
 		try:
 			self.M.recent()
 		except:
+			version = self.sourceVersion
 			self.getUserAccounts()
+			if version <> self.sourceVersion:
+				e = Exception()
+				e.message = 'Chats label changed on the server, start the import again.'
+				raise e
 		contactAccounts = {}
-		convNums = self.data[0].split()
-		for num in convNums:
+		# UIDs above the resume position only, but n:* always matches the last UID
+		typ, data = self.M.uid('SEARCH', 'UID', str(self.resumePosition + 1) + ':*')
+		if typ <> 'OK':
+			e = Exception(typ+'')
+			e.message = 'Conversations not found.'
+			raise e
+		convNums = data[0].split()
+		for i, num in enumerate(convNums):
 			if self.isAborted():
 				self.M.close()
 				self.M.logout()
 				return None
 			
-			typ, data = self.M.fetch(num, '(RFC822)')
+			# already saved by an interrupted import
+			if int(num) <= self.resumePosition:
+				continue
+			
+			typ, data = self.M.uid('FETCH', num, '(RFC822)')
 			if typ <> 'OK':
 				e = Exception(typ+'')
 				e.message = 'Message '+num+' not found.'
@@ -118,6 +135,7 @@ class GtalkParser(Parser):
 			conversation = Conversation(0, time, root[0].find('{jabber:client}body').text, len(root), contactAccount, userAccounts[0])
 			time.setTime(long(root[-1].find('{google:timestamp}time').get('ms')))
 			conversation.endTime = time
+			conversation.position = int(num)
 			contactAccount.conversations.add(conversation)
 			
 			# parse messages
@@ -137,7 +155,7 @@ class GtalkParser(Parser):
 			self.messagesCount += len(root)
 			
 			# set progress
-			self.contactsLoadProgress = int(num) * 100 / len(convNums)
+			self.contactsProgress.set(i + 1, len(convNums))
 				
 		# prepare contact list with contact accounts and conversations 
 		contacts = []
@@ -149,7 +167,7 @@ class GtalkParser(Parser):
 		# close IMAP connection
 		self.M.close()
 		self.M.logout()
-		self.contactsLoadProgress = 100
+		self.setContactsLoadProgress(100)
 		return contacts
 	
 	def get_first_text_block(self, email_message_instance):
@@ -58,11 +58,10 @@ class KaduParser(Parser):
 		'''
 		accounts = dict of turples: uuid of account = (uid, protocol, contactid)
 		'''
-		self.userAccountsLoadProgress = 0
+		self.setUserAccountsLoadProgress(0)
 		self.element = ET.XML(self.conf)
 		accountsxml = self.element.find("Accounts")
 		useraccounts = []
-		num = len(accountsxml)/100
 		for account in accountsxml:
 			self.contactxml = self.element.find("Contacts")
 			iden = ""
@@ -73,8 +72,8 @@ class KaduParser(Parser):
 			acc = UserAccount(0, self.protocols[account.find("Protocol").text], account.find("Id").text)
 			self.accounts[account.attrib["uuid"]] = (acc, iden) 
 			useraccounts.append(acc)
-			self.userAccountsLoadProgress+=num		
-		self.userAccountsLoadProgress = 100
+			self.userAccountsProgress.set(len(useraccounts), len(accountsxml))
+		self.setUserAccountsLoadProgress(100)
 		return useraccounts
 		
 	def getContacts(self, userAccounts):
@@ -151,7 +150,7 @@ class KaduParser(Parser):
 				#print self.accounts[chat.find("Account").text][0]
 				if len(msgs) > 0:
 					self.contacts[chat.find("Contact").text].setConversations(ConversationHelper.messagesToConversations(msgs, self.contacts[chat.find("Contact").text], self.accounts[chat.find("Account").text][0]))
-		self.contactsLoadProgress = 100
+		self.setContactsLoadProgress(100)
 		return contactslist
 			
 			
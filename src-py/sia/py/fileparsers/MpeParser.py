@@ -30,13 +30,13 @@ class MpeParser(Parser):
 		self.xmlRoot = minidom.parse(files[0])
 
 	def getUserAccounts(self):
-		self.userAccountsLoadProgress = 100
+		self.setUserAccountsLoadProgress(100)
 		if self.xmlRoot <> None: 
 			return [UserAccount(0, self.protocol, "")]
 		return None
 		
 	def getContacts(self, userAccounts):
-		self.contactsLoadProgress = 0
+		self.setContactsLoadProgress(0)
 		contactAccountsTemp = {}
 		nodes = self.xmlRoot.firstChild.childNodes
 		for i in range(len(nodes)):
@@ -63,7 +63,7 @@ class MpeParser(Parser):
 			msg = Message(0, None, content, date, True)
 			contactAccountsTemp[ca].append(msg)
 			self.messagesCount += 1
-			self.contactsLoadProgress = i * 100 /len(nodes)
+			self.contactsProgress.set(i + 1, len(nodes))
 		
 		contacts = []
 		for ca in contactAccountsTemp.iterkeys():
@@ -71,5 +71,5 @@ class MpeParser(Parser):
 			cnt = Contact(0, "", "", ca.name)
 			cnt.addContactAccount(ca)
 			contacts.append(cnt)
-		self.contactsLoadProgress = 100
+		self.setContactsLoadProgress(100)
 		return contacts
\ No newline at end of file
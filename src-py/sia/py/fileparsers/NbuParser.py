@@ -28,13 +28,13 @@ class NbuParser(Parser):
 		self.file = open(files[0], 'r')
 
 	def getUserAccounts(self):
-		self.userAccountsLoadProgress = 100
+		self.setUserAccountsLoadProgress(100)
 		if self.file <> None: 
 			return [UserAccount(0, self.protocol, "")]
 		return None
 		
 	def getContacts(self, userAccounts):
-		self.contactsLoadProgress = 0
+		self.setContactsLoadProgress(0)
 		vmsg = False
 		vcard = False
 		vbody = False
@@ -47,7 +47,7 @@ class NbuParser(Parser):
 			if 'BEGIN:' in line:
 				vsection = line.split('BEGIN:')[1]
 				if vsection == 'VMSG':
-					self.contactsLoadProgress = 50
+					self.setContactsLoadProgress(50)
 					self.messagesCount += 1
 					vmsg = True
 					msg = Message()
@@ -131,5 +131,5 @@ class NbuParser(Parser):
 				cnt = Contact(0, '', '', names[0])
 			cnt.addContactAccount(ca)
 			contacts.append(cnt)
-		self.contactsLoadProgress = 100
+		self.setContactsLoadProgress(100)
 		return contacts
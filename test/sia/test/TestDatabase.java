@@ -0,0 +1,108 @@
+package sia.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import sia.test.py.fileparsers.ParserFactoryTest;
+import sia.ui.SIA;
+import sia.utils.Dictionaries;
+
+/**
+ * Test database.
+ *
+ * Fresh copies of the test database (sia.db next to the parser fixtures),
+ * so tests never upgrade or change the shared file, and their removal
+ * together with every file SQLite and the application keep beside them.
+ *
+ * @author jumper
+ */
+public final class TestDatabase {
+	private static final String[] FILES = { "", "-journal", "-wal", "-shm", ".lock", ".trigram" };
+
+	private TestDatabase() {
+	}
+
+	/**
+	 * Copy test database to a temporary file
+	 * @param prefix temporary file prefix
+	 * @return database file
+	 * @throws Exception
+	 */
+	public static File copy(String prefix) throws Exception {
+		return copy(prefix, new File(resource("sia.db")));
+	}
+
+	/**
+	 * Copy a database to a temporary file
+	 * @param prefix temporary file prefix
+	 * @param template database to copy
+	 * @return database file
+	 * @throws Exception
+	 */
+	public static File copy(String prefix, File template) throws Exception {
+		File db = File.createTempFile(prefix, ".db");
+		InputStream in = new FileInputStream(template);
+		OutputStream out = new FileOutputStream(db);
+		byte[] buffer = new byte[65536];
+		int read;
+		while ((read = in.read(buffer)) > 0)
+			out.write(buffer, 0, read);
+		out.close();
+		in.close();
+		return db;
+	}
+
+	/**
+	 * Initialize application on database: database, staging, ORM and dictionaries
+	 * @param db database file
+	 * @throws Exception
+	 */
+	public static void open(File db) throws Exception {
+		SIA.getInstance().dbInit(db.getPath());
+		SIA.getInstance().tmpInit();
+		SIA.getInstance().ormInit();
+		Dictionaries.getInstance().init();
+	}
+
+	/**
+	 * Copy test database and initialize application on the copy
+	 * @param prefix temporary file prefix
+	 * @return database file
+	 * @throws Exception
+	 */
+	public static File create(String prefix) throws Exception {
+		File db = copy(prefix);
+		open(db);
+		return db;
+	}
+
+	/**
+	 * Close application and delete database
+	 * @param db database file
+	 */
+	public static void close(File db) {
+		SIA.getInstance().close(null);
+		delete(db);
+	}
+
+	/**
+	 * Delete database with its journal, WAL, lock and index files
+	 * @param db database file
+	 */
+	public static void delete(File db) {
+		for (String suffix : FILES)
+			new File(db.getPath() + suffix).delete();
+	}
+
+	/**
+	 * Returns path of a test resource next to the parser fixtures
+	 * @param name resource name
+	 * @return path
+	 */
+	public static String resource(String name) {
+		return ParserFactoryTest.class.getClassLoader().getResource("sia/test/py/fileparsers/" + name).getPath();
+	}
+}
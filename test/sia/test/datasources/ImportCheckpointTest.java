@@ -0,0 +1,120 @@
+package sia.test.datasources;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import sia.datasources.FMADataSource;
+import sia.models.Contact;
+import sia.test.TestDatabase;
+import sia.ui.SIA;
+import sia.utils.Dictionaries;
+
+/**
+ * Import checkpoint test.
+ *
+ * @author jumper
+ */
+public class ImportCheckpointTest {
+	private static final String[] TABLES = { "useraccount", "contact", "contactaccount", "conversation", "message" };
+	private static final String MERGE_1 = "FmaParserTest-conversation-merge-1.xml";
+	private static final String MERGE_2 = "FmaParserTest-conversation-merge-2.xml";
+	private File db;
+
+	@Before
+	public void setUp() throws Exception {
+		db = TestDatabase.create("sia-import-checkpoint");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestDatabase.close(db);
+	}
+
+	@Test
+	public void testChunkedSaveMatchesSingleChunk() throws Exception {
+		int[] before = count();
+		setCheckpointSize(1);
+		importFile(MERGE_1);
+		importFile(MERGE_2);
+		int[] after = count();
+		for (int i = 0; i < after.length; i++)
+			after[i] -= before[i];
+		assertArrayEquals(new int[] { 1, 4, 4, 4, 13 }, after);
+		assertEquals("Finished imports leave no checkpoint", 0, checkpoints());
+	}
+
+	@Test
+	public void testResumeSkipsSavedConversations() throws Exception {
+		Source first = importFile(MERGE_1);
+		int[] before = count();
+		PreparedStatement stmt = SIA.getInstance().getConnection().prepareStatement(
+				"INSERT INTO import_checkpoint (source, position, saved, time) VALUES (?, 2, 2, 0)");
+		stmt.setString(1, first.getIdentity());
+		stmt.executeUpdate();
+		stmt.close();
+		Source resumed = importFile(MERGE_1);
+		assertEquals(2, resumed.getResumedCount());
+		assertEquals(0, resumed.getSavedRows());
+		assertArrayEquals(before, count());
+		assertEquals(0, checkpoints());
+	}
+
+	private static Source importFile(String file) throws Exception {
+		Source source = new Source();
+		source.initParser();
+		source.loadFiles(new String[] { TestDatabase.resource(file) });
+		source.getUserAccounts();
+		source.getContacts();
+		source.mapContacts(Dictionaries.getInstance().getContacts());
+		List<Contact> contacts = new ArrayList<Contact>(Dictionaries.getInstance().getContacts());
+		contacts.addAll(source.getContacts());
+		source.save(contacts);
+		Dictionaries.getInstance().loadContacts();
+		return source;
+	}
+
+	private static void setCheckpointSize(int size) throws Exception {
+		Statement stmt = SIA.getInstance().getConnection().createStatement();
+		stmt.executeUpdate("INSERT OR REPLACE INTO configuration (key, value) VALUES ('import.checkpoint_size', '" + size + "')");
+		stmt.close();
+		Dictionaries.getInstance().init();
+	}
+
+	private static int checkpoints() throws Exception {
+		return count("import_checkpoint");
+	}
+
+	private static int[] count() throws Exception {
+		int[] counts = new int[TABLES.length];
+		for (int i = 0; i < TABLES.length; i++)
+			counts[i] = count(TABLES[i]);
+		return counts;
+	}
+
+	private static int count(String table) throws Exception {
+		Statement stmt = SIA.getInstance().getConnection().createStatement();
+		ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM main." + table);
+		rs.next();
+		int count = rs.getInt(1);
+		rs.close();
+		stmt.close();
+		return count;
+	}
+
+	private static class Source extends FMADataSource {
+		public String getIdentity() {
+			return getSourceIdentity();
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package sia.test.datasources;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+
+import org.junit.Test;
+
+import sia.datasources.FMADataSource;
+import sia.datasources.ImportSession;
+import sia.models.Contact;
+import sia.test.TestDatabase;
+import sia.ui.HeadlessImport;
+import sia.ui.SIA;
+import sia.utils.Dictionaries;
+
+/**
+ * Import session test.
+ *
+ * Both conversation merge fixtures are imported in one session into a fresh
+ * copy of the test database, sequentially and in parallel, and must give the
+ * same rows as importing them one after another.
+ *
+ * @author jumper
+ */
+public class ImportSessionTest {
+	private static final String[] TABLES = { "useraccount", "contact", "contactaccount", "conversation", "message" };
+	private static final String MERGE_1 = "FmaParserTest-conversation-merge-1.xml";
+	private static final String MERGE_2 = "FmaParserTest-conversation-merge-2.xml";
+
+	@Test
+	public void testParallelMatchesSequential() throws Exception {
+		int[] sequential = importFiles(1, MERGE_1, MERGE_2);
+		assertEquals("Merged conversations", 4, sequential[3]);
+		assertEquals("Messages", 13, sequential[4]);
+		assertArrayEquals(sequential, importFiles(1, MERGE_2, MERGE_1));
+		assertArrayEquals(sequential, importFiles(2, MERGE_1, MERGE_2));
+	}
+
+	@Test
+	public void testSameSourceTwice() throws Exception {
+		assertArrayEquals(importFiles(1, MERGE_1), importFiles(2, MERGE_1, MERGE_1));
+	}
+
+	@Test
+	public void testHeadlessImport() throws Exception {
+		File db = TestDatabase.create("sia-import-session");
+		try {
+			int[] before = count();
+			HeadlessImport.run(new String[] { HeadlessImport.IMPORT, "FMADataSource", TestDatabase.resource(MERGE_1),
+					HeadlessImport.IMPORT, "Float's Mobile Agent", TestDatabase.resource(MERGE_2) }, 2);
+			int[] after = count();
+			for (int i = 0; i < after.length; i++)
+				after[i] -= before[i];
+			assertEquals("Messages", 13, after[4]);
+		} finally {
+			TestDatabase.close(db);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testHeadlessUnknownSource() throws Exception {
+		File db = TestDatabase.create("sia-import-session");
+		try {
+			HeadlessImport.run(new String[] { HeadlessImport.IMPORT, "NoSuchDataSource", "a.xml" }, 1);
+		} finally {
+			TestDatabase.close(db);
+		}
+	}
+
+	/**
+	 * Import files in one session into a fresh database
+	 * @return number of rows added to each of TABLES
+	 */
+	private static int[] importFiles(int threads, String... files) throws Exception {
+		File db = TestDatabase.create("sia-import-session");
+		try {
+			int[] before = count();
+			List<Contact> contacts = Dictionaries.getInstance().getContacts();
+			int known = contacts.size();
+			ImportSession session = new ImportSession(contacts, threads);
+			for (String file : files)
+				session.add(new FMADataSource(), new String[] { TestDatabase.resource(file) });
+			session.run();
+			assertEquals(100, session.getProgress());
+			// the caller's contacts are brought up to date by the change set only
+			assertEquals(known, contacts.size());
+			Dictionaries.getInstance().apply(session.getChanges());
+			assertEquals(count("contact"), Dictionaries.getInstance().getContacts().size());
+			int[] after = count();
+			for (int i = 0; i < after.length; i++)
+				after[i] -= before[i];
+			return after;
+		} finally {
+			TestDatabase.close(db);
+		}
+	}
+
+	private static int count(String table) throws Exception {
+		Statement stmt = SIA.getInstance().getConnection().createStatement();
+		ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM main." + table);
+		rs.next();
+		int count = rs.getInt(1);
+		rs.close();
+		stmt.close();
+		return count;
+	}
+
+	private static int[] count() throws Exception {
+		int[] counts = new int[TABLES.length];
+		Statement stmt = SIA.getInstance().getConnection().createStatement();
+		for (int i = 0; i < TABLES.length; i++) {
+			ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM main." + TABLES[i]);
+			rs.next();
+			counts[i] = rs.getInt(1);
+			rs.close();
+		}
+		stmt.close();
+		return counts;
+	}
+}
@@ -0,0 +1,100 @@
+package sia.test.datasources;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import sia.datasources.DataSource;
+import sia.datasources.FMADataSource;
+import sia.models.Contact;
+import sia.test.TestDatabase;
+import sia.ui.SIA;
+import sia.utils.Dictionaries;
+import sia.utils.Staging;
+
+/**
+ * Staging strategy test.
+ *
+ * Both conversation merge fixtures are imported with every staging strategy
+ * and must give the same rows.
+ *
+ * @author jumper
+ */
+public class StagingTest {
+	private static final String[] TABLES = { "useraccount", "contact", "contactaccount", "conversation", "message" };
+
+	@Test
+	public void testStrategiesGiveSameRows() throws Exception {
+		int[] expected = new int[] { 1, 4, 4, 4, 13 };
+		for (Staging staging : Staging.values())
+			assertArrayEquals(staging.name(), expected, importFiles(staging));
+	}
+
+	@Test
+	public void testChooseBySize() throws Exception {
+		File db = TestDatabase.create("sia-staging-test");
+		try {
+			assertEquals(Staging.MEMORY, Staging.choose(Staging.DEFAULT_MEMORY_LIMIT));
+			assertEquals(Staging.DIRECT, Staging.choose(Staging.DEFAULT_MEMORY_LIMIT + 1));
+			configure("import.staging", "disk");
+			assertEquals(Staging.DISK, Staging.choose(1));
+		} finally {
+			TestDatabase.close(db);
+		}
+	}
+
+	private static int[] importFiles(Staging staging) throws Exception {
+		File db = TestDatabase.create("sia-staging-test");
+		try {
+			configure("import.staging", staging.name().toLowerCase());
+			int[] before = count();
+			for (String file : new String[] { "FmaParserTest-conversation-merge-1.xml",
+					"FmaParserTest-conversation-merge-2.xml" }) {
+				DataSource source = new FMADataSource();
+				source.initParser();
+				source.loadFiles(new String[] { TestDatabase.resource(file) });
+				source.getUserAccounts();
+				source.getContacts();
+				source.mapContacts(Dictionaries.getInstance().getContacts());
+				List<Contact> contacts = new ArrayList<Contact>(Dictionaries.getInstance().getContacts());
+				contacts.addAll(source.getContacts());
+				source.save(contacts);
+				assertEquals(staging, source.getStaging());
+				Dictionaries.getInstance().loadContacts();
+			}
+			int[] after = count();
+			for (int i = 0; i < after.length; i++)
+				after[i] -= before[i];
+			return after;
+		} finally {
+			TestDatabase.close(db);
+		}
+	}
+
+	private static void configure(String key, String value) throws Exception {
+		Statement stmt = SIA.getInstance().getConnection().createStatement();
+		stmt.executeUpdate("INSERT OR REPLACE INTO configuration (key, value) VALUES ('" + key + "', '" + value + "')");
+		stmt.close();
+		Dictionaries.getInstance().init();
+	}
+
+	private static int[] count() throws Exception {
+		int[] counts = new int[TABLES.length];
+		Statement stmt = SIA.getInstance().getConnection().createStatement();
+		for (int i = 0; i < TABLES.length; i++) {
+			ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM main." + TABLES[i]);
+			rs.next();
+			counts[i] = rs.getInt(1);
+			rs.close();
+		}
+		stmt.close();
+		return counts;
+	}
+}
@@ -0,0 +1,129 @@
+package sia.test.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import sia.datasources.DataSource;
+import sia.datasources.FMADataSource;
+import sia.models.Contact;
+import sia.test.TestDatabase;
+import sia.ui.SIA;
+import sia.utils.Activity;
+import sia.utils.Dictionaries;
+
+/**
+ * Activity rollup test.
+ *
+ * Rollup maintained import by import must equal aggregating all messages.
+ *
+ * @author jumper
+ */
+public class ActivityTest {
+	private File db;
+
+	@Before
+	public void setUp() throws Exception {
+		db = TestDatabase.create("sia-activity-test");
+	}
+
+	@After
+	public void tearDown() {
+		TestDatabase.close(db);
+	}
+
+	@Test
+	public void testIncrementalRollup() throws Exception {
+		load("FmaParserTest-conversation-merge-1.xml");
+		assertEquals(aggregate(), rollup());
+		load("FmaParserTest-conversation-merge-2.xml");
+		assertEquals(aggregate(), rollup());
+		load("FmaParserTest-sample.xml");
+		assertEquals(aggregate(), rollup());
+		assertFalse(rollup().isEmpty());
+	}
+
+	@Test
+	public void testContacts() throws Exception {
+		load("FmaParserTest-sample.xml");
+		Dictionaries.getInstance().loadContacts();
+		List<Contact> contacts = Dictionaries.getInstance().getContacts();
+		int total = 0;
+		for (Contact contact : contacts) {
+			int messages = 0;
+			for (Activity.Row row : Activity.history(contact, Activity.Period.MONTH))
+				messages += row.getMessages();
+			Activity.Row row = Activity.totals().get(contact.getId());
+			total += messages;
+		}
+		assertEquals(count("SELECT COUNT(1) FROM message m JOIN conversation c ON c.id = m.conversationId "
+				+ "JOIN contactaccount ca ON ca.id = c.contactAccountId JOIN contact ct ON ct.id = ca.contactId"), total);
+
+		List<Contact> sorted = Activity.sort(contacts, Activity.Order.MOST_ACTIVE);
+		assertEquals(contacts.size(), sorted.size());
+		for (int i = 1; i < sorted.size(); i++)
+			assertFalse(messages(sorted.get(i - 1)) < messages(sorted.get(i)));
+	}
+
+	private static int messages(Contact contact) throws Exception {
+		Activity.Row row = Activity.totals().get(contact.getId());
+		return row == null ? 0 : row.getMessages();
+	}
+
+	private static void load(String file) throws Exception {
+		DataSource source = new FMADataSource();
+		source.initParser();
+		source.loadFiles(new String[] { TestDatabase.resource(file) });
+		source.getUserAccounts();
+		source.getContacts();
+		source.mapContacts(Dictionaries.getInstance().getContacts());
+		List<Contact> contacts = new ArrayList<Contact>(Dictionaries.getInstance().getContacts());
+		contacts.addAll(source.getContacts());
+		source.save(contacts);
+		Dictionaries.getInstance().loadContacts();
+	}
+
+	private static String aggregate() throws Exception {
+		return rows("SELECT c.contactAccountId, c.userAccountId, date(m.time / 1000, 'unixepoch', 'localtime'), COUNT(1), "
+				+ "SUM(m.received > 0), MIN(m.time), MAX(m.time) FROM message m JOIN conversation c ON c.id = m.conversationId "
+				+ "GROUP BY 1, 2, 3 ORDER BY 1, 2, 3");
+	}
+
+	private static String rollup() throws Exception {
+		return rows("SELECT contactAccountId, userAccountId, day, messages, received, firstTime, lastTime FROM activity "
+				+ "ORDER BY 1, 2, 3");
+	}
+
+	private static String rows(String sql) throws Exception {
+		StringBuilder rows = new StringBuilder();
+		Statement stmt = SIA.getInstance().getConnection().createStatement();
+		ResultSet rs = stmt.executeQuery(sql);
+		while (rs.next()) {
+			for (int i = 1; i <= 7; i++)
+				rows.append(rs.getString(i)).append(' ');
+			rows.append('\n');
+		}
+		rs.close();
+		stmt.close();
+		return rows.toString();
+	}
+
+	private static int count(String sql) throws Exception {
+		Statement stmt = SIA.getInstance().getConnection().createStatement();
+		ResultSet rs = stmt.executeQuery(sql);
+		rs.next();
+		int count = rs.getInt(1);
+		rs.close();
+		stmt.close();
+		return count;
+	}
+}
@@ -0,0 +1,181 @@
+package sia.test.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import sia.models.Conversation;
+import sia.test.TestDatabase;
+import sia.ui.SIA;
+import sia.utils.ConnectionManager;
+import sia.utils.ConversationCursor;
+import sia.utils.Dictionaries;
+import sia.utils.Durability;
+
+/**
+ * Connection manager test.
+ *
+ * @author jumper
+ */
+public class ConnectionManagerTest {
+	private File db;
+
+	@Before
+	public void setUp() throws Exception {
+		db = TestDatabase.copy("sia-connections-test");
+		Class.forName("org.sqlite.JDBC");
+		Connection connection = DriverManager.getConnection("jdbc:sqlite:" + db.getPath());
+		Statement stmt = connection.createStatement();
+		stmt.executeUpdate("INSERT OR REPLACE INTO configuration (key, value) VALUES ('db.durability', '"
+				+ Durability.WAL + "')");
+		stmt.close();
+		connection.close();
+		TestDatabase.open(db);
+	}
+
+	@After
+	public void tearDown() {
+		TestDatabase.close(db);
+	}
+
+	@Test
+	public void testReaders() throws Exception {
+		ConnectionManager connections = SIA.getInstance().getConnections();
+		assertEquals(Durability.WAL, SIA.getInstance().getDurability());
+		assertTrue(connections.hasReaders());
+		final Connection reader = SIA.getInstance().getReadConnection();
+		assertNotSame(connections.getWriter(), reader);
+		// a thread keeps its reader
+		assertSame(reader, SIA.getInstance().getReadConnection());
+		// no other thread gets it
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Connection other = executor.submit(new Callable<Connection>() {
+			@Override
+			public Connection call() throws Exception {
+				return SIA.getInstance().getReadConnection();
+			}
+		}).get();
+		executor.shutdown();
+		assertNotSame(reader, other);
+		assertNotSame(connections.getWriter(), other);
+	}
+
+	@Test
+	public void testCursorOwnsReader() throws Exception {
+		ConnectionManager connections = SIA.getInstance().getConnections();
+		Connection reader = SIA.getInstance().getReadConnection();
+		int open = connections.getReaders().size();
+		ConversationCursor cursor = new ConversationCursor("1", null, "time", false);
+		// handed over to the cursor, the thread reads through a new one
+		Connection next = SIA.getInstance().getReadConnection();
+		assertNotSame(reader, next);
+		assertEquals(open + 1, connections.getReaders().size());
+		assertEquals(count(next, "conversation"), cursor.size());
+		cursor.close();
+		assertTrue(reader.isClosed());
+		assertFalse(next.isClosed());
+		assertEquals(open, connections.getReaders().size());
+	}
+
+	@Test
+	public void testExclusiveWithoutReaders() throws Exception {
+		// default profile
+		Statement stmt = SIA.getInstance().getConnection().createStatement();
+		stmt.executeUpdate("DELETE FROM configuration WHERE key = 'db.durability'");
+		stmt.close();
+		SIA.getInstance().close(null);
+		TestDatabase.open(db);
+		ConnectionManager connections = SIA.getInstance().getConnections();
+		assertEquals(Durability.FAST, SIA.getInstance().getDurability());
+		assertFalse(connections.hasReaders());
+		assertSame(connections.getWriter(), SIA.getInstance().getReadConnection());
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		final int before = count(SIA.getInstance().getReadConnection(), "conversation");
+		Connection writer = SIA.getInstance().getConnection();
+		writer.setAutoCommit(false);
+		try {
+			Statement stmt = writer.createStatement();
+			stmt.executeUpdate("INSERT INTO conversation (time, endTime, length, title, contactAccountId, userAccountId) "
+					+ "VALUES (-1, -1, 0, 'uncommitted', 0, 0)");
+			stmt.close();
+			assertEquals(before + 1, count(writer, "conversation"));
+
+			// browsing meanwhile, on another thread, neither waits nor sees the import
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			int read = executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					ConversationCursor cursor = new ConversationCursor("1", null, "time", false);
+					int size = cursor.size();
+					cursor.close();
+					return size;
+				}
+			}).get();
+			executor.shutdown();
+			assertEquals(before, read);
+			writer.commit();
+		} finally {
+			writer.setAutoCommit(true);
+		}
+		assertEquals(before + 1, count(SIA.getInstance().getReadConnection(), "conversation"));
+	}
+
+	@Test
+	public void testReadOnly() throws Exception {
+		Connection reader = SIA.getInstance().getReadConnection();
+		Statement stmt = reader.createStatement();
+		try {
+			stmt.executeUpdate("DELETE FROM main.conversation");
+			fail("reader changed the database");
+		} catch (SQLException e) {
+			// expected
+		}
+		// temporary tables of searches are allowed
+		stmt.executeUpdate("CREATE TEMP TABLE connection_test (id INTEGER PRIMARY KEY)");
+		stmt.executeUpdate("INSERT INTO temp.connection_test (id) VALUES (1)");
+		stmt.executeUpdate("DROP TABLE temp.connection_test");
+		stmt.close();
+		List<Conversation> page = SIA.getInstance().getORM().select("conversation.page",
+				new Object[ConversationCursor.PAGE_SIZE]);
+		assertTrue(page.isEmpty());
+		Dictionaries.getInstance().loadContacts();
+		assertEquals(count(SIA.getInstance().getConnection(), "contact"), Dictionaries.getInstance().getContacts().size());
+	}
+
+	@Test
+	public void testLock() throws Exception {
+		ConnectionManager another = new ConnectionManager(db.getPath(), null);
+		assertFalse(another.lock(db.getPath() + ".lock"));
+		another.close();
+	}
+
+	private static int count(Connection connection, String table) throws SQLException {
+		Statement stmt = connection.createStatement();
+		ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM main." + table);
+		int count = rs.next() ? rs.getInt(1) : 0;
+		rs.close();
+		stmt.close();
+		return count;
+	}
+}
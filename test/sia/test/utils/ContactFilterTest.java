@@ -0,0 +1,93 @@
+package sia.test.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import sia.models.Contact;
+import sia.models.ContactAccount;
+import sia.utils.ContactFilter;
+
+/**
+ * Contact filter test.
+ *
+ * @author jumper
+ */
+public class ContactFilterTest {
+	private static final String[] NAMES = { "Anna", "Bartek", "Gosia", "Wujek", "Daniel", "Ola" };
+
+	@Test
+	public void testMatchesPlainFiltering() {
+		List<Contact> contacts = contacts(500);
+		ContactFilter filter = new ContactFilter(contacts);
+		for (String phrase : new String[] { "", "a", "An", "Anna", "Anna 1", "Anna 12", "gg", "gg:1", "GG:12", "48",
+				"4869", "x", "Ola 3" })
+			assertEquals(phrase, plain(contacts, phrase), describe(filter.filter(phrase)));
+	}
+
+	@Test
+	public void testNarrowingMatchesFreshFilter() {
+		List<Contact> contacts = contacts(300);
+		ContactFilter typed = new ContactFilter(contacts);
+		String phrase = "";
+		for (char c : "Wujek 2".toCharArray()) {
+			phrase += c;
+			assertEquals(phrase, describe(new ContactFilter(contacts).filter(phrase)), describe(typed.filter(phrase)));
+		}
+		for (int i = phrase.length() - 1; i >= 0; i--) {
+			phrase = phrase.substring(0, i);
+			assertEquals(phrase, describe(new ContactFilter(contacts).filter(phrase)), describe(typed.filter(phrase)));
+		}
+	}
+
+	private static List<Contact> contacts(int count) {
+		Random random = new Random(1);
+		List<Contact> contacts = new ArrayList<Contact>();
+		for (int i = 0; i < count; i++) {
+			String name = NAMES[i % NAMES.length] + " " + i;
+			Contact contact = new Contact(i + 1, i % 7 == 0 ? null : NAMES[i % NAMES.length], "K" + i, name);
+			int accounts = random.nextInt(4);
+			for (int j = 0; j < accounts; j++) {
+				String uid = j % 2 == 0 ? "gg:" + random.nextInt(10000) : "+48" + random.nextInt(1000000);
+				contact.addContactAccount(new ContactAccount(i * 10 + j, name, uid, null, contact, null));
+			}
+			contacts.add(contact);
+		}
+		return contacts;
+	}
+
+	/**
+	 * Filtering as the contact tree used to do it
+	 */
+	private static String plain(List<Contact> contacts, String s) {
+		StringBuilder result = new StringBuilder();
+		for (Contact c : contacts) {
+			String firstname = c.getFirstname() == null ? "" : c.getFirstname();
+			boolean contactContains = s.length() == 0 || firstname.indexOf(s) != -1 || c.getLastname().indexOf(s) != -1
+					|| c.getName().indexOf(s) != -1;
+			StringBuilder accounts = new StringBuilder();
+			for (ContactAccount ca : c.getContactAccounts()) {
+				if (contactContains || ca.getUid().toLowerCase().indexOf(s.toLowerCase().trim()) != -1)
+					accounts.append(' ').append(ca.getUid());
+			}
+			if (accounts.length() > 0)
+				result.append(c.getName()).append(':').append(accounts).append('\n');
+		}
+		return result.toString();
+	}
+
+	private static String describe(List<ContactFilter.Match> matches) {
+		StringBuilder result = new StringBuilder();
+		for (ContactFilter.Match match : matches) {
+			result.append(match.getContact().getName()).append(':');
+			for (ContactAccount ca : match.getContactAccounts())
+				result.append(' ').append(ca.getUid());
+			result.append('\n');
+		}
+		return result.toString();
+	}
+}
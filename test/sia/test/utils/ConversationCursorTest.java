@@ -0,0 +1,205 @@
+package sia.test.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import sia.datasources.DataSource;
+import sia.datasources.FMADataSource;
+import sia.models.Contact;
+import sia.models.ContactAccount;
+import sia.test.TestDatabase;
+import sia.ui.SIA;
+import sia.utils.ConversationCursor;
+import sia.utils.Dictionaries;
+import sia.utils.MessageSearch;
+
+/**
+ * Conversation cursor test.
+ *
+ * Paged reading must give the same order as sorting everything at once,
+ * read sequentially or jumping around.
+ *
+ * @author jumper
+ */
+public class ConversationCursorTest {
+	private static final int CONVERSATIONS = 1000;
+	private File db;
+	private ContactAccount contactAccount;
+
+	@Before
+	public void setUp() throws Exception {
+		db = TestDatabase.create("sia-cursor-test");
+		DataSource source = new FMADataSource();
+		source.initParser();
+		source.loadFiles(new String[] { TestDatabase.resource("FmaParserTest-conversation-merge-1.xml") });
+		source.getUserAccounts();
+		source.getContacts();
+		source.mapContacts(Dictionaries.getInstance().getContacts());
+		List<Contact> contacts = new ArrayList<Contact>(Dictionaries.getInstance().getContacts());
+		contacts.addAll(source.getContacts());
+		source.save(contacts);
+		Dictionaries.getInstance().loadContacts();
+		contactAccount = Dictionaries.getInstance().getContacts().get(0).getContactAccounts().get(0);
+
+		// many conversations with repeated titles and lengths, ties are ordered by ID
+		PreparedStatement insert = SIA.getInstance().getConnection().prepareStatement(
+				"INSERT INTO conversation (time, endTime, length, title, contactAccountId, userAccountId) "
+						+ "SELECT ?, ?, ?, ?, contactAccountId, userAccountId FROM conversation WHERE contactAccountId = ? LIMIT 1");
+		for (int i = 0; i < CONVERSATIONS; i++) {
+			insert.setLong(1, 1000000L + i * 7919L % 100000);
+			insert.setLong(2, 2000000L + i);
+			insert.setInt(3, i % 13);
+			insert.setString(4, i % 5 == 0 ? null : "title " + (i % 17));
+			insert.setInt(5, contactAccount.getId());
+			insert.executeUpdate();
+		}
+		insert.close();
+	}
+
+	@After
+	public void tearDown() {
+		TestDatabase.close(db);
+	}
+
+	@Test
+	public void testSequentialOrder() throws Exception {
+		for (String column : new String[] { "time", "title", "length" }) {
+			for (boolean descending : new boolean[] { false, true }) {
+				List<Integer> expected = expected(column, descending);
+				ConversationCursor cursor = MessageSearch.cursor(contactAccount, "", column, descending);
+				assertEquals(expected.size(), cursor.size());
+				for (int i = 0; i < cursor.size(); i++)
+					assertEquals(column + " " + descending + " " + i, expected.get(i).intValue(), cursor.get(i).getId());
+				cursor.close();
+			}
+		}
+	}
+
+	@Test
+	public void testRandomAccess() throws Exception {
+		List<Integer> expected = expected("title", true);
+		ConversationCursor cursor = MessageSearch.cursor(contactAccount, "", "title", true);
+		int[] order = new int[] { 950, 3, 501, 502, 99, 100, 101, cursor.size() - 1, 0, 750, 250 };
+		for (int i : order)
+			assertEquals("" + i, expected.get(i).intValue(), cursor.get(i).getId());
+		cursor.close();
+	}
+
+	@Test
+	public void testSortInMemory() throws Exception {
+		String[] columns = new String[] { "time", "title", "length" };
+		List<List<Integer>> expected = new ArrayList<List<Integer>>();
+		for (String column : columns) {
+			expected.add(expected(column, false));
+			expected.add(expected(column, true));
+		}
+		ConversationCursor cursor = MessageSearch.cursor(contactAccount, "", "time", true);
+		assertFalse(cursor.isLoaded());
+		for (int i = 0; i < cursor.size(); i++)
+			cursor.get(i);
+		assertTrue(cursor.isLoaded());
+
+		// sorting loaded rows doesn't read them again
+		Statement stmt = SIA.getInstance().getConnection().createStatement();
+		stmt.executeUpdate("DELETE FROM conversation WHERE contactAccountId = " + contactAccount.getId());
+		stmt.close();
+		for (int c = 0; c < columns.length; c++) {
+			for (int d = 0; d < 2; d++) {
+				cursor.sort(columns[c], d == 1);
+				List<Integer> ids = expected.get(c * 2 + d);
+				assertEquals(ids.size(), cursor.size());
+				for (int i = 0; i < ids.size(); i++)
+					assertEquals(columns[c] + " " + d + " " + i, ids.get(i).intValue(), cursor.get(i).getId());
+			}
+		}
+		cursor.close();
+	}
+
+	@Test
+	public void testSortNotLoaded() throws Exception {
+		List<Integer> expected = expected("length", false);
+		ConversationCursor cursor = MessageSearch.cursor(contactAccount, "", "time", true);
+		cursor.get(0);
+		cursor.sort("length", false);
+		assertFalse(cursor.isLoaded());
+		for (int i = 0; i < cursor.size(); i++)
+			assertEquals("" + i, expected.get(i).intValue(), cursor.get(i).getId());
+		cursor.close();
+	}
+
+	@Test
+	public void testPhraseCursor() throws Exception {
+		Contact contact = Dictionaries.getInstance().getContacts().get(0);
+		Set<Integer> expected = new HashSet<Integer>();
+		Statement stmt = SIA.getInstance().getConnection().createStatement();
+		ResultSet rs = stmt.executeQuery("SELECT DISTINCT m.conversationId FROM main.message m "
+				+ "JOIN main.conversation c ON c.id = m.conversationId JOIN main.contactaccount ca "
+				+ "ON ca.id = c.contactAccountId WHERE ca.contactId = " + contact.getId() + " AND m.message LIKE '%a%'");
+		while (rs.next())
+			expected.add(rs.getInt(1));
+		rs.close();
+		stmt.close();
+		ConversationCursor cursor = MessageSearch.cursor(contact, "a", "time", false);
+		Set<Integer> found = new HashSet<Integer>();
+		for (int i = 0; i < cursor.size(); i++)
+			found.add(cursor.get(i).getId());
+		assertEquals(expected, found);
+		assertTrue(tempTables() > 0);
+		cursor.close();
+		assertEquals(0, tempTables());
+		assertFalse(expected.isEmpty());
+	}
+
+	private List<Integer> expected(final String column, final boolean descending) throws Exception {
+		final List<Object[]> rows = new ArrayList<Object[]>();
+		Statement stmt = SIA.getInstance().getConnection().createStatement();
+		ResultSet rs = stmt.executeQuery("SELECT id, time, IFNULL(title, ''), length FROM conversation WHERE contactAccountId = "
+				+ contactAccount.getId());
+		while (rs.next())
+			rows.add(new Object[] { rs.getInt(1), rs.getLong(2), rs.getString(3), rs.getInt(4) });
+		rs.close();
+		stmt.close();
+		Collections.sort(rows, new Comparator<Object[]>() {
+			@SuppressWarnings({ "unchecked", "rawtypes" })
+			@Override
+			public int compare(Object[] a, Object[] b) {
+				int field = "time".equals(column) ? 1 : "title".equals(column) ? 2 : 3;
+				int result = ((Comparable) a[field]).compareTo(b[field]);
+				if (result == 0)
+					result = ((Integer) a[0]).compareTo((Integer) b[0]);
+				return descending ? -result : result;
+			}
+		});
+		List<Integer> ids = new ArrayList<Integer>();
+		for (Object[] row : rows)
+			ids.add((Integer) row[0]);
+		return ids;
+	}
+
+	// cursors keep their temporary tables on the reader of the thread
+	private static int tempTables() throws Exception {
+		Statement stmt = SIA.getInstance().getReadConnection().createStatement();
+		ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM temp.sqlite_master WHERE name LIKE 'conversation_match_%'");
+		rs.next();
+		int count = rs.getInt(1);
+		rs.close();
+		stmt.close();
+		return count;
+	}
+}
@@ -0,0 +1,143 @@
+package sia.test.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.Connection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.sormula.Table;
+
+import sia.fileparsers.Parser;
+import sia.models.Contact;
+import sia.models.ContactAccount;
+import sia.models.Conversation;
+import sia.models.UserAccount;
+import sia.test.TestDatabase;
+import sia.ui.SIA;
+import sia.utils.ConversationIndex;
+import sia.utils.ORM;
+import sia.utils.ParserFactory;
+
+/**
+ * Conversation index test.
+ *
+ * Conversations of FmaParserTest-conversation-merge-1.xml are stored in a
+ * copy of the test database (in a transaction rolled back afterwards), then
+ * every conversation of FmaParserTest-conversation-merge-2.xml is looked up
+ * both with the merge query and with the index.
+ *
+ * @author jumper
+ */
+public class ConversationIndexTest {
+	private static final long INTERVAL = 3600000L;
+	private static Connection connection;
+	private static Map<ContactAccount, ContactAccount> stored;
+	private static UserAccount userAccount;
+	private static File db;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		db = TestDatabase.create("sia-conversation-index-test");
+		connection = SIA.getInstance().getConnection();
+		connection.setAutoCommit(false);
+		ORM orm = SIA.getInstance().getORM();
+		stored = new HashMap<ContactAccount, ContactAccount>();
+		List<Contact> contacts = parse("FmaParserTest-conversation-merge-1.xml");
+		userAccount = contacts.get(0).getContactAccounts().get(0).getConversations().get(0).getUserAccount();
+		orm.getTable(UserAccount.class).insert(userAccount);
+		for (Contact c : contacts) {
+			c.setName(c.getName() + " (ConversationIndexTest)");
+			orm.getTable(Contact.class).insert(c);
+			for (ContactAccount ca : c.getContactAccounts()) {
+				orm.getTable(ContactAccount.class).insert(ca);
+				stored.put(ca, ca);
+				for (Conversation conv : ca.getConversations())
+					orm.getTable(Conversation.class).insert(conv);
+			}
+		}
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		connection.rollback();
+		connection.setAutoCommit(true);
+		TestDatabase.close(db);
+	}
+
+	@Test
+	public void testMergeFixtureMatchesQuery() throws Exception {
+		ConversationIndex index = new ConversationIndex(connection, INTERVAL);
+		int merged = 0;
+		for (Contact c : parse("FmaParserTest-conversation-merge-2.xml")) {
+			for (ContactAccount ca : c.getContactAccounts()) {
+				ca.setId(stored.get(ca).getId());
+				for (Conversation conv : ca.getConversations()) {
+					int expected = query(conv);
+					assertEquals("Index and query disagree for " + conv, expected, index.find(conv.getContactAccountId(),
+							conv.getUserAccountId(), conv.getTime().getTime(), conv.getEndTime().getTime()));
+					if (expected != 0)
+						merged++;
+				}
+			}
+		}
+		index.close();
+		assertTrue("Fixture should merge at least one conversation", merged > 0);
+	}
+
+	@Test
+	public void testBoundariesMatchQuery() throws Exception {
+		ConversationIndex index = new ConversationIndex(connection, INTERVAL);
+		for (ContactAccount ca : stored.values()) {
+			for (Conversation conv : ca.getConversations()) {
+				long time = conv.getTime().getTime();
+				long endTime = conv.getEndTime().getTime();
+				long[] probes = new long[] { time - INTERVAL - 1, time - INTERVAL, time - 1, time, endTime, endTime + 1,
+						endTime + INTERVAL, endTime + INTERVAL + 1 };
+				for (long begin : probes) {
+					for (long end : probes) {
+						if (end < begin)
+							continue;
+						Conversation probe = new Conversation();
+						probe.setContactAccountId(conv.getContactAccountId());
+						probe.setUserAccountId(conv.getUserAccountId());
+						probe.setTime(new java.util.Date(begin));
+						probe.setEndTime(new java.util.Date(end));
+						assertEquals("Index and query disagree for [" + begin + ", " + end + "]", query(probe),
+								index.find(probe.getContactAccountId(), probe.getUserAccountId(), begin, end));
+					}
+				}
+			}
+		}
+		index.close();
+	}
+
+	private static List<Contact> parse(String file) throws Exception {
+		Parser parser = ParserFactory.getInstance().create("FmaParser");
+		parser.loadFiles(new String[] { TestDatabase.resource(file) });
+		List<UserAccount> userAccounts = parser.getUserAccounts();
+		if (userAccount != null)
+			userAccounts.set(0, userAccount);
+		return parser.getContacts(userAccounts);
+	}
+
+	private static int query(Conversation conversation) throws Exception {
+		long begin = conversation.getTime().getTime();
+		long end = conversation.getEndTime().getTime();
+		Table<Conversation> table = SIA.getInstance().getORM().getTable(Conversation.class);
+		Conversation conv = table.selectCustom(
+				"WHERE (time BETWEEN " + begin + " AND " + end +
+				" OR endTime BETWEEN " + begin + " AND " + end +
+				" OR " + begin + " BETWEEN time AND (endTime + " + INTERVAL + ")" +
+				" OR " + end + " BETWEEN (time - " + INTERVAL + ") AND endTime)" +
+				" AND contactAccountId = " + conversation.getContactAccountId() +
+				" AND userAccountId = " + conversation.getUserAccountId());
+		return conv == null ? 0 : conv.getId();
+	}
+}
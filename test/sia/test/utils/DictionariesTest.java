@@ -0,0 +1,116 @@
+package sia.test.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import sia.datasources.ChangeSet;
+import sia.datasources.DataSource;
+import sia.datasources.FMADataSource;
+import sia.models.Contact;
+import sia.models.ContactAccount;
+import sia.models.UserAccount;
+import sia.test.TestDatabase;
+import sia.utils.Dictionaries;
+
+/**
+ * Dictionaries test.
+ *
+ * A change set applied after an import must leave the same contacts and
+ * accounts as a full reload.
+ *
+ * @author jumper
+ */
+public class DictionariesTest {
+	private File db;
+
+	@Before
+	public void setUp() throws Exception {
+		db = TestDatabase.create("sia-dictionaries-test");
+	}
+
+	@After
+	public void tearDown() {
+		TestDatabase.close(db);
+	}
+
+	@Test
+	public void testApplySameAsReload() throws Exception {
+		ChangeSet first = save("FmaParserTest-conversation-merge-1.xml");
+		assertFalse(first.getInsertedContacts().isEmpty());
+		assertFalse(first.getInsertedContactAccounts().isEmpty());
+		Dictionaries.getInstance().apply(first);
+		assertSameAsReload();
+
+		// the same messages again change nothing, new ones update known accounts
+		ChangeSet second = save("FmaParserTest-conversation-merge-2.xml");
+		assertTrue(second.getInsertedContacts().isEmpty());
+		Dictionaries.getInstance().apply(second);
+		assertSameAsReload();
+	}
+
+	@Test
+	public void testApplyEmpty() throws Exception {
+		List<Contact> contacts = Dictionaries.getInstance().getContacts();
+		Dictionaries.getInstance().apply(new ChangeSet());
+		assertTrue(contacts == Dictionaries.getInstance().getContacts());
+	}
+
+	private ChangeSet save(String file) throws Exception {
+		DataSource source = new FMADataSource();
+		source.initParser();
+		source.loadFiles(new String[] { TestDatabase.resource(file) });
+		source.getUserAccounts();
+		source.getContacts();
+		// the import works on copies, as the import wizard does
+		List<Contact> contacts = new ArrayList<Contact>();
+		for (Contact contact : Dictionaries.getInstance().getContacts())
+			contacts.add(contact.clone());
+		source.mapContacts(contacts);
+		contacts.addAll(source.getContacts());
+		source.save(contacts);
+		return source.getChanges();
+	}
+
+	private void assertSameAsReload() throws Exception {
+		List<Contact> applied = Dictionaries.getInstance().getContacts();
+		List<UserAccount> appliedUserAccounts = Dictionaries.getInstance().getUserAccounts();
+		Dictionaries.getInstance().loadContacts();
+		List<Contact> loaded = Dictionaries.getInstance().getContacts();
+		assertEquals(ids(loaded), ids(applied));
+		for (int i = 0; i < loaded.size(); i++) {
+			List<Integer> expected = new ArrayList<Integer>();
+			for (ContactAccount ca : loaded.get(i).getContactAccounts())
+				expected.add(ca.getId());
+			List<Integer> found = new ArrayList<Integer>();
+			for (ContactAccount ca : applied.get(i).getContactAccounts()) {
+				found.add(ca.getId());
+				assertTrue(ca.getContact() == applied.get(i));
+				assertEquals(ca.getProtocolId(), ca.getProtocol().getId());
+			}
+			assertEquals(expected, found);
+		}
+		List<Integer> expected = new ArrayList<Integer>();
+		for (UserAccount ua : Dictionaries.getInstance().getUserAccounts())
+			expected.add(ua.getId());
+		List<Integer> found = new ArrayList<Integer>();
+		for (UserAccount ua : appliedUserAccounts)
+			found.add(ua.getId());
+		assertEquals(expected, found);
+	}
+
+	private static List<Integer> ids(List<Contact> contacts) {
+		List<Integer> ids = new ArrayList<Integer>();
+		for (Contact contact : contacts)
+			ids.add(contact.getId());
+		return ids;
+	}
+}
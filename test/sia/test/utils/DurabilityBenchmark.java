@@ -0,0 +1,119 @@
+package sia.test.utils;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import sia.datasources.DataSource;
+import sia.fileparsers.Parser;
+import sia.models.Contact;
+import sia.models.ContactAccount;
+import sia.models.Conversation;
+import sia.models.Message;
+import sia.models.Protocol;
+import sia.models.UserAccount;
+import sia.test.TestDatabase;
+import sia.utils.Dictionaries;
+import sia.utils.Durability;
+
+/**
+ * Durability benchmark.
+ *
+ * Imports the same synthetic corpus into a fresh copy of the template database
+ * with every durability profile and prints throughput. Not a unit test, run it
+ * by hand: DurabilityBenchmark [template.db] [contacts] [conversations] [messages]
+ *
+ * @author jumper
+ */
+public class DurabilityBenchmark {
+	public static void main(String[] args) throws Exception {
+		String template = args.length > 0 ? args[0] : "sia-template.db";
+		int contacts = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		int conversations = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		int messages = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+		Class.forName("org.sqlite.JDBC");
+		List<Durability> runs = new ArrayList<Durability>();
+		runs.add(Durability.FAST); // JIT warm-up, not reported
+		runs.addAll(Arrays.asList(Durability.values()));
+		for (int run = 0; run < runs.size(); run++) {
+			Durability durability = runs.get(run);
+			File file = TestDatabase.copy("sia-benchmark", new File(template));
+			Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+			Statement stmt = connection.createStatement();
+			stmt.executeUpdate("INSERT OR REPLACE INTO configuration (key, value) VALUES ('db.durability', '"
+					+ durability + "')");
+			stmt.close();
+			connection.close();
+
+			TestDatabase.open(file);
+			UserAccount userAccount = new UserAccount(0, Dictionaries.getInstance().getProtocol("SMS"), "benchmark");
+			List<UserAccount> userAccounts = new ArrayList<UserAccount>();
+			userAccounts.add(userAccount);
+			BenchmarkDataSource dataSource = new BenchmarkDataSource(userAccounts, contacts * conversations * messages);
+			long time = System.currentTimeMillis();
+			dataSource.save(corpus(userAccount, contacts, conversations, messages));
+			time = System.currentTimeMillis() - time;
+			TestDatabase.close(file);
+			if (run > 0)
+				System.out.println(durability + ": " + dataSource.getSavedRows() + " rows, " + (long) dataSource.getSaveRate()
+						+ " rows/s written, " + time + " ms total");
+		}
+	}
+
+	private static List<Contact> corpus(UserAccount userAccount, int contacts, int conversations, int messages) {
+		Protocol protocol = Dictionaries.getInstance().getProtocol("SMS");
+		List<Contact> result = new ArrayList<Contact>();
+		long begin = 1300000000000L;
+		for (int c = 0; c < contacts; c++) {
+			Contact contact = new Contact(0, "", "", "Benchmark " + c);
+			ContactAccount contactAccount = new ContactAccount(0, "", "+48" + c, "", null, protocol);
+			contact.addContactAccount(contactAccount);
+			for (int v = 0; v < conversations; v++) {
+				long time = begin + v * 86400000L;
+				Conversation conversation = new Conversation(0, new Date(time), "", 0, contactAccount, userAccount);
+				for (int m = 0; m < messages; m++)
+					conversation.addMessage(new Message(0, null, "Message " + m, new Date(time + m * 1000L), m % 2));
+				conversation.setEndTime(new Date(time + (messages - 1) * 1000L));
+				contactAccount.addConversation(conversation);
+			}
+			result.add(contact);
+		}
+		return result;
+	}
+
+	private static class BenchmarkDataSource extends DataSource {
+		public BenchmarkDataSource(List<UserAccount> userAccounts, int messagesCount) {
+			this.userAccounts = userAccounts;
+			this.parser = new Parser() {
+				public void loadFiles(String[] fileNames) {
+				}
+
+				public List<UserAccount> getUserAccounts() {
+					return null;
+				}
+
+				public List<Contact> getContacts(List<UserAccount> userAccounts) {
+					return null;
+				}
+			};
+			this.parser.setMessagesCount(messagesCount);
+		}
+
+		public String validateFiles(String[] files) {
+			return null;
+		}
+
+		public String validatePasswords(String[] passwords) {
+			return null;
+		}
+
+		public String validateUid(String uid) {
+			return null;
+		}
+	}
+}
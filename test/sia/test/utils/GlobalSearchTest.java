@@ -0,0 +1,113 @@
+package sia.test.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import sia.models.Conversation;
+import sia.test.TestDatabase;
+import sia.ui.SIA;
+import sia.utils.GlobalSearch;
+
+/**
+ * Global search test.
+ *
+ * @author jumper
+ */
+public class GlobalSearchTest {
+	private static final int CONVERSATIONS = 300;
+	private File db;
+	private int best;
+	private Set<Integer> matching;
+
+	@Before
+	public void setUp() throws Exception {
+		db = TestDatabase.create("sia-global-test");
+
+		// every other conversation mentions the needle once in a long message,
+		// one says little else
+		matching = new HashSet<Integer>();
+		Statement stmt = SIA.getInstance().getConnection().createStatement();
+		PreparedStatement insert = SIA.getInstance().getConnection().prepareStatement(
+				"INSERT INTO message (conversationId, message, time, received, fingerprint) VALUES (?, ?, 0, 1, 0)");
+		for (int i = 0; i < CONVERSATIONS; i++) {
+			stmt.executeUpdate("INSERT INTO conversation (time, endTime, length, title, contactAccountId, userAccountId) "
+					+ "VALUES (" + i + ", " + i + ", 1, 'conversation " + i + "', " + (i % 7) + ", 0)");
+			ResultSet rs = stmt.executeQuery("SELECT last_insert_rowid()");
+			rs.next();
+			int id = rs.getInt(1);
+			rs.close();
+			String message = "some filler text about nothing in particular, number " + i;
+			if (i == CONVERSATIONS / 2) {
+				message = "Needle needle NEEDLE";
+				best = id;
+			} else if (i % 2 == 0) {
+				message += " and a needle somewhere " + message;
+			}
+			if (message.toLowerCase().contains("needle"))
+				matching.add(id);
+			insert.setInt(1, id);
+			insert.setString(2, message);
+			insert.executeUpdate();
+		}
+		insert.close();
+		stmt.close();
+		SIA.getInstance().indexMessages();
+	}
+
+	@After
+	public void tearDown() {
+		TestDatabase.close(db);
+	}
+
+	@Test
+	public void testRanked() throws Exception {
+		// indexed when the database supports full-text search, scanned otherwise
+		check(new GlobalSearch(GlobalSearch.DEFAULT_LIMIT, null).search("needle"), GlobalSearch.DEFAULT_LIMIT);
+	}
+
+	@Test
+	public void testScanned() throws Exception {
+		List<Conversation> found = new GlobalSearch(10, null).search("ne");
+		assertEquals(10, found.size());
+		assertEquals(best, found.get(0).getId());
+	}
+
+	@Test
+	public void testAllFound() throws Exception {
+		check(new GlobalSearch(CONVERSATIONS, null).search("needle"), matching.size());
+	}
+
+	@Test
+	public void testTrigramIndex() throws Exception {
+		Statement stmt = SIA.getInstance().getConnection().createStatement();
+		stmt.executeUpdate("INSERT OR REPLACE INTO configuration (key, value) VALUES ('search.index', 'trigram')");
+		stmt.close();
+		SIA.getInstance().close(null);
+		TestDatabase.open(db);
+		assertNotNull(SIA.getInstance().getTrigramIndex());
+		check(new GlobalSearch(GlobalSearch.DEFAULT_LIMIT, null).search("needle"), GlobalSearch.DEFAULT_LIMIT);
+	}
+
+	private void check(List<Conversation> found, int size) {
+		assertEquals(size, found.size());
+		assertEquals(best, found.get(0).getId());
+		Set<Integer> ids = new HashSet<Integer>();
+		for (Conversation conversation : found) {
+			assertTrue(matching.contains(conversation.getId()));
+			assertTrue(ids.add(conversation.getId()));
+		}
+	}
+}
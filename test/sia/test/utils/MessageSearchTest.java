@@ -0,0 +1,124 @@
+package sia.test.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import sia.datasources.DataSource;
+import sia.datasources.FMADataSource;
+import sia.models.Contact;
+import sia.test.TestDatabase;
+import sia.ui.SIA;
+import sia.utils.ConversationCursor;
+import sia.utils.Dictionaries;
+import sia.utils.MessageSearch;
+
+/**
+ * Message search test.
+ *
+ * Index lookups must find the same conversations as a case insensitive
+ * substring scan.
+ *
+ * @author jumper
+ */
+public class MessageSearchTest {
+	private File db;
+
+	@Before
+	public void setUp() throws Exception {
+		db = TestDatabase.create("sia-search-test");
+		for (String file : new String[] { "FmaParserTest-conversation-merge-1.xml", "FmaParserTest-conversation-merge-2.xml" }) {
+			DataSource source = new FMADataSource();
+			source.initParser();
+			source.loadFiles(new String[] { TestDatabase.resource(file) });
+			source.getUserAccounts();
+			source.getContacts();
+			source.mapContacts(Dictionaries.getInstance().getContacts());
+			List<Contact> contacts = new ArrayList<Contact>(Dictionaries.getInstance().getContacts());
+			contacts.addAll(source.getContacts());
+			source.save(contacts);
+			Dictionaries.getInstance().loadContacts();
+		}
+	}
+
+	@After
+	public void tearDown() {
+		TestDatabase.close(db);
+	}
+
+	@Test
+	public void testIndexCoversSavedMessages() throws Exception {
+		assertTrue(SIA.getInstance().hasMessageIndex());
+		assertEquals(count("SELECT COUNT(*) FROM main.message"), count("SELECT COUNT(*) FROM main.message_fts_docsize"));
+	}
+
+	@Test
+	public void testIndexMatchesScan() throws Exception {
+		for (String phrase : new String[] { "", "a", "D2", "sda", "NAJLEPSZEGO", "go :)", "nowy rok", "zzz", "50%", "\"x",
+				"a_b" }) {
+			for (Contact contact : Dictionaries.getInstance().getContacts())
+				assertEquals(phrase, scan(contact, phrase), ids(MessageSearch.cursor(contact, phrase, "time", false)));
+		}
+	}
+
+	@Test
+	public void testDiacritics() throws Exception {
+		Statement stmt = SIA.getInstance().getConnection().createStatement();
+		stmt.executeUpdate("INSERT INTO main.message (time, message, conversationId, received) "
+				+ "SELECT time, 'Zażółć gęślą jaźń', conversationId, received FROM main.message LIMIT 1");
+		stmt.close();
+		SIA.getInstance().indexMessages();
+		int found = 0;
+		for (Contact contact : Dictionaries.getInstance().getContacts()) {
+			Set<Integer> lower = ids(MessageSearch.cursor(contact, "żółć", "time", false));
+			assertEquals(lower, ids(MessageSearch.cursor(contact, "ŻÓŁĆ", "time", false)));
+			assertEquals(0, ids(MessageSearch.cursor(contact, "zolc", "time", false)).size());
+			found += lower.size();
+		}
+		assertEquals(1, found);
+	}
+
+	private static Set<Integer> scan(Contact contact, String phrase) throws Exception {
+		Set<Integer> ids = new TreeSet<Integer>();
+		Statement stmt = SIA.getInstance().getConnection().createStatement();
+		ResultSet rs = stmt.executeQuery("SELECT m.conversationId, m.message FROM main.message m "
+				+ "JOIN main.conversation c ON c.id = m.conversationId "
+				+ "JOIN main.contactaccount ca ON ca.id = c.contactAccountId WHERE ca.contactId = " + contact.getId());
+		while (rs.next()) {
+			if (rs.getString(2).toLowerCase().contains(phrase.toLowerCase()))
+				ids.add(rs.getInt(1));
+		}
+		rs.close();
+		stmt.close();
+		return ids;
+	}
+
+	private static Set<Integer> ids(ConversationCursor cursor) throws Exception {
+		Set<Integer> ids = new TreeSet<Integer>();
+		for (int i = 0; i < cursor.size(); i++)
+			ids.add(cursor.get(i).getId());
+		cursor.close();
+		return ids;
+	}
+
+	private static int count(String sql) throws Exception {
+		Statement stmt = SIA.getInstance().getConnection().createStatement();
+		ResultSet rs = stmt.executeQuery(sql);
+		rs.next();
+		int count = rs.getInt(1);
+		rs.close();
+		stmt.close();
+		return count;
+	}
+}
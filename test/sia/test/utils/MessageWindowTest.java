@@ -0,0 +1,121 @@
+package sia.test.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import sia.models.Message;
+import sia.test.TestDatabase;
+import sia.ui.SIA;
+import sia.utils.MessageWindow;
+
+/**
+ * Message window test.
+ *
+ * Reading window by window, forward or backward, must give the messages in
+ * the same order as reading the whole conversation at once.
+ *
+ * @author jumper
+ */
+public class MessageWindowTest {
+	private static final int MESSAGES = 1234;
+	private static final int WINDOW = 100;
+	private File db;
+	private int conversationId;
+
+	@Before
+	public void setUp() throws Exception {
+		db = TestDatabase.create("sia-window-test");
+
+		// several messages share the same time, ties are ordered by ID
+		Statement stmt = SIA.getInstance().getConnection().createStatement();
+		stmt.executeUpdate("INSERT INTO conversation (time, endTime, length, title, contactAccountId, userAccountId) VALUES (0, 0, "
+				+ MESSAGES + ", 'long', 0, 0)");
+		ResultSet rs = stmt.executeQuery("SELECT last_insert_rowid()");
+		rs.next();
+		conversationId = rs.getInt(1);
+		rs.close();
+		stmt.close();
+		PreparedStatement insert = SIA.getInstance().getConnection().prepareStatement(
+				"INSERT INTO message (conversationId, message, time, received, fingerprint) VALUES (?, ?, ?, ?, ?)");
+		for (int i = 0; i < MESSAGES; i++) {
+			insert.setInt(1, conversationId);
+			insert.setString(2, "message " + i);
+			insert.setLong(3, 1000000L + (i * 7919L % MESSAGES) / 3 * 1000);
+			insert.setInt(4, i % 2);
+			insert.setLong(5, i);
+			insert.executeUpdate();
+		}
+		insert.close();
+	}
+
+	@After
+	public void tearDown() {
+		TestDatabase.close(db);
+	}
+
+	@Test
+	public void testForward() throws Exception {
+		MessageWindow window = new MessageWindow(conversationId, WINDOW);
+		List<Integer> found = ids(window.first());
+		assertFalse(window.hasPrevious());
+		while (window.hasNext())
+			found.addAll(ids(window.next()));
+		assertEquals(expected(), found);
+		assertTrue(window.next().isEmpty());
+	}
+
+	@Test
+	public void testSkipFirst() throws Exception {
+		MessageWindow window = new MessageWindow(conversationId, WINDOW);
+		List<Integer> found = ids(new MessageWindow(conversationId, WINDOW).first());
+		assertTrue(window.skipFirst());
+		assertFalse(window.hasPrevious());
+		while (window.hasNext())
+			found.addAll(ids(window.next()));
+		assertEquals(expected(), found);
+		assertFalse(new MessageWindow(conversationId, MESSAGES + 1).skipFirst());
+	}
+
+	@Test
+	public void testBackward() throws Exception {
+		MessageWindow window = new MessageWindow(conversationId, WINDOW);
+		List<Integer> found = ids(window.last());
+		assertFalse(window.hasNext());
+		while (window.hasPrevious())
+			found.addAll(0, ids(window.previous()));
+		assertEquals(expected(), found);
+		assertTrue(window.previous().isEmpty());
+	}
+
+	private List<Integer> expected() throws Exception {
+		List<Integer> ids = new ArrayList<Integer>();
+		Statement stmt = SIA.getInstance().getConnection().createStatement();
+		ResultSet rs = stmt.executeQuery("SELECT id FROM message WHERE conversationId = " + conversationId
+				+ " ORDER BY time, id");
+		while (rs.next())
+			ids.add(rs.getInt(1));
+		rs.close();
+		stmt.close();
+		assertEquals(MESSAGES, ids.size());
+		return ids;
+	}
+
+	private static List<Integer> ids(List<Message> messages) {
+		List<Integer> ids = new ArrayList<Integer>();
+		for (Message message : messages)
+			ids.add(message.getId());
+		return ids;
+	}
+}
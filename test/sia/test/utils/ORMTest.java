@@ -0,0 +1,129 @@
+package sia.test.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import sia.datasources.DataSource;
+import sia.datasources.FMADataSource;
+import sia.models.Contact;
+import sia.models.ContactAccount;
+import sia.models.Conversation;
+import sia.models.Message;
+import sia.models.UserAccount;
+import sia.test.TestDatabase;
+import sia.ui.SIA;
+import sia.utils.Dictionaries;
+import sia.utils.ORM;
+import sia.utils.StatementCache;
+
+/**
+ * ORM named queries test.
+ *
+ * Named queries must select the same rows as Sormula, cascades included,
+ * and reuse their prepared statements.
+ *
+ * @author jumper
+ */
+public class ORMTest {
+	private File db;
+
+	@Before
+	public void setUp() throws Exception {
+		db = TestDatabase.create("sia-orm-test");
+		DataSource source = new FMADataSource();
+		source.initParser();
+		source.loadFiles(new String[] { TestDatabase.resource("FmaParserTest-conversation-merge-1.xml") });
+		source.getUserAccounts();
+		source.getContacts();
+		source.mapContacts(Dictionaries.getInstance().getContacts());
+		List<Contact> contacts = new ArrayList<Contact>(Dictionaries.getInstance().getContacts());
+		contacts.addAll(source.getContacts());
+		source.save(contacts);
+	}
+
+	@After
+	public void tearDown() {
+		TestDatabase.close(db);
+	}
+
+	@Test
+	public void testSameRowsAsSormula() throws Exception {
+		ORM orm = SIA.getInstance().getORM();
+		List<Conversation> conversations = orm.getTable(Conversation.class).selectAll();
+		assertFalse(conversations.isEmpty());
+		for (Conversation conversation : conversations) {
+			List<Message> expected = orm.getTable(Message.class).selectAllCustom(
+					"WHERE conversationId = ? ORDER BY time, id", conversation.getId());
+			List<Message> found = orm.select("message.conversation", conversation.getId());
+			assertEquals(expected.size(), found.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(expected.get(i).getId(), found.get(i).getId());
+				assertEquals(expected.get(i).getMessage(), found.get(i).getMessage());
+				assertEquals(expected.get(i).getTime(), found.get(i).getTime());
+				assertEquals(expected.get(i).getReceived(), found.get(i).getReceived());
+				assertNotNull(found.get(i).getConversation());
+				assertEquals(conversation.getId(), found.get(i).getConversation().getId());
+				assertEquals(conversation.getContactAccountId(), found.get(i).getConversation().getContactAccount().getId());
+			}
+		}
+		for (Contact contact : orm.getTable(Contact.class).selectAll()) {
+			List<ContactAccount> found = orm.select("contactaccount.contact", contact.getId());
+			assertEquals(orm.getTable(ContactAccount.class).selectAllCustom("WHERE contactId = ?", contact.getId()).size(),
+					found.size());
+			for (ContactAccount contactAccount : found)
+				assertEquals(contact.getName(), contactAccount.getContact().getName());
+		}
+	}
+
+	@Test
+	public void testStatementsReused() throws Exception {
+		ORM orm = SIA.getInstance().getORM();
+		StatementCache statements = orm.getStatementCache(SIA.getInstance().getReadConnection());
+		for (int i = 0; i < 10; i++)
+			orm.select("contactaccount.contact", i);
+		// the query and its cascades are prepared by now
+		long misses = statements.getMisses();
+		long hits = statements.getHits();
+		for (int i = 0; i < 10; i++)
+			orm.select("contactaccount.contact", i);
+		assertEquals(misses, statements.getMisses());
+		assertTrue(statements.getHits() >= hits + 10);
+	}
+
+	@Test
+	public void testContactGraph() throws Exception {
+		ORM orm = SIA.getInstance().getORM();
+		StatementCache statements = orm.getStatementCache(SIA.getInstance().getReadConnection());
+		long queries = statements.getHits() + statements.getMisses();
+		Dictionaries.getInstance().loadContacts();
+		// one query per table, whatever the number of contacts
+		assertEquals(4, statements.getHits() + statements.getMisses() - queries);
+
+		List<Contact> contacts = Dictionaries.getInstance().getContacts();
+		assertEquals(orm.getTable(Contact.class).selectAll().size(), contacts.size());
+		int accounts = 0;
+		for (Contact contact : contacts) {
+			for (ContactAccount contactAccount : contact.getContactAccounts()) {
+				assertTrue(contact == contactAccount.getContact());
+				assertNotNull(contactAccount.getProtocol());
+				assertEquals(contactAccount.getProtocolId(), contactAccount.getProtocol().getId());
+				accounts++;
+			}
+		}
+		assertTrue(accounts > 0);
+		assertEquals(orm.getTable(ContactAccount.class).selectAllCustom(
+				"WHERE contactId IN (SELECT id FROM main.contact)").size(), accounts);
+		for (UserAccount userAccount : Dictionaries.getInstance().getUserAccounts())
+			assertEquals(userAccount.getProtocolId(), userAccount.getProtocol().getId());
+	}
+}
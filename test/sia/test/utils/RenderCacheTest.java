@@ -0,0 +1,59 @@
+package sia.test.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import sia.utils.RenderCache;
+
+/**
+ * Render cache test.
+ *
+ * @author jumper
+ */
+public class RenderCacheTest {
+
+	@Test
+	public void testHitAndSettings() {
+		RenderCache cache = new RenderCache(1000);
+		cache.put(1, "a", "one");
+		assertEquals("one", cache.get(1, "a"));
+		assertNull(cache.get(1, "b"));
+		assertNull(cache.get(2, "a"));
+		cache.put(1, "a", "first");
+		assertEquals("first", cache.get(1, "a"));
+		assertEquals(5, cache.size());
+	}
+
+	@Test
+	public void testInvalidate() {
+		RenderCache cache = new RenderCache(1000);
+		cache.put(1, "a", "one");
+		cache.put(1, "b", "one b");
+		cache.put(2, "a", "two");
+		cache.invalidate(Arrays.asList(1, 3));
+		assertNull(cache.get(1, "a"));
+		assertNull(cache.get(1, "b"));
+		assertEquals("two", cache.get(2, "a"));
+		assertEquals(3, cache.size());
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		RenderCache cache = new RenderCache(10);
+		cache.put(1, "a", "1234");
+		cache.put(2, "a", "1234");
+		cache.get(1, "a");
+		cache.put(3, "a", "1234");
+		assertEquals("1234", cache.get(1, "a"));
+		assertNull(cache.get(2, "a"));
+		assertEquals("1234", cache.get(3, "a"));
+		assertEquals(8, cache.size());
+		cache.put(4, "a", "12345678901");
+		assertNull(cache.get(4, "a"));
+		assertEquals(2, cache.count());
+	}
+}
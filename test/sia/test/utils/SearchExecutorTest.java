@@ -0,0 +1,171 @@
+package sia.test.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import sia.utils.ConnectionManager;
+import sia.utils.SearchExecutor;
+
+/**
+ * Search executor test.
+ *
+ * @author jumper
+ */
+public class SearchExecutorTest {
+	private static final Executor DIRECT = new Executor() {
+		@Override
+		public void execute(Runnable runnable) {
+			runnable.run();
+		}
+	};
+
+	@Test
+	public void testBurstRunsLastQueryOnly() throws Exception {
+		SearchExecutor executor = new SearchExecutor("test-search", null, DIRECT, 200);
+		final AtomicInteger runs = new AtomicInteger();
+		Results results = new Results(1);
+		for (int i = 0; i < 5; i++)
+			executor.submit(query(i, runs, 0), results);
+		assertTrue(results.await());
+		Thread.sleep(300);
+		assertEquals(1, runs.get());
+		assertEquals("[4]", results.done.toString());
+		executor.shutdown();
+	}
+
+	@Test
+	public void testSupersededResultDropped() throws Exception {
+		SearchExecutor executor = new SearchExecutor("test-search", null, DIRECT, 0);
+		final AtomicInteger runs = new AtomicInteger();
+		Results results = new Results(1);
+		executor.submit(query(1, runs, 300), results);
+		Thread.sleep(100);
+		executor.submit(query(2, runs, 0), results);
+		assertTrue(results.await());
+		Thread.sleep(400);
+		assertEquals(2, runs.get());
+		assertEquals("[2]", results.done.toString());
+		executor.shutdown();
+	}
+
+	@Test
+	public void testRunningStatementInterrupted() throws Exception {
+		final Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+		SearchExecutor executor = new SearchExecutor("test-search", connection, DIRECT, 0);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		final long start = System.currentTimeMillis();
+		Results results = new Results(1);
+		executor.submit(new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				Statement stmt = connection.createStatement();
+				started.countDown();
+				try {
+					ResultSet rs = stmt.executeQuery("WITH RECURSIVE n(i) AS (SELECT 1 UNION ALL SELECT i + 1 FROM n "
+							+ "WHERE i < 1000000000) SELECT COUNT(*) FROM n");
+					rs.next();
+					return rs.getInt(1);
+				} finally {
+					interrupted.countDown();
+					stmt.close();
+				}
+			}
+		}, results);
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		Thread.sleep(100);
+		executor.submit(query(7, new AtomicInteger(), 0), results);
+		assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		assertTrue(results.await());
+		assertEquals("[7]", results.done.toString());
+		assertEquals(0, results.failed.size());
+		executor.shutdown();
+		connection.close();
+	}
+
+	@Test
+	public void testWriterNotInterrupted() throws Exception {
+		final Connection writer = DriverManager.getConnection("jdbc:sqlite::memory:");
+		SearchExecutor executor = new SearchExecutor("test-search", null, DIRECT, 0);
+		executor.setConnections(new ConnectionManager(":memory:", writer));
+		final CountDownLatch started = new CountDownLatch(1);
+		final AtomicInteger completed = new AtomicInteger();
+		Results results = new Results(1);
+		executor.submit(new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				Statement stmt = writer.createStatement();
+				started.countDown();
+				try {
+					ResultSet rs = stmt.executeQuery("WITH RECURSIVE n(i) AS (SELECT 1 UNION ALL SELECT i + 1 FROM n "
+							+ "WHERE i < 1000000) SELECT COUNT(*) FROM n");
+					rs.next();
+					completed.set(rs.getInt(1));
+					return completed.get();
+				} finally {
+					stmt.close();
+				}
+			}
+		}, results);
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		executor.submit(query(7, new AtomicInteger(), 0), results);
+		assertTrue(results.await());
+		assertEquals(1000000, completed.get());
+		assertEquals("[7]", results.done.toString());
+		assertEquals(0, results.failed.size());
+		executor.shutdown();
+		writer.close();
+	}
+
+	private static Callable<Integer> query(final int value, final AtomicInteger runs, final long time) {
+		return new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				runs.incrementAndGet();
+				Thread.sleep(time);
+				return value;
+			}
+		};
+	}
+
+	private static class Results implements SearchExecutor.Callback<Integer> {
+		List<Integer> done = new CopyOnWriteArrayList<Integer>();
+		List<Exception> failed = new CopyOnWriteArrayList<Exception>();
+		CountDownLatch latch;
+
+		Results(int count) {
+			latch = new CountDownLatch(count);
+		}
+
+		boolean await() throws InterruptedException {
+			return latch.await(5, TimeUnit.SECONDS);
+		}
+
+		@Override
+		public void done(Integer result) {
+			done.add(result);
+			latch.countDown();
+		}
+
+		@Override
+		public void failed(Exception e) {
+			failed.add(e);
+			latch.countDown();
+		}
+	}
+}
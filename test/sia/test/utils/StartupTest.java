@@ -0,0 +1,103 @@
+package sia.test.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import sia.utils.Startup;
+
+/**
+ * Staged startup test.
+ *
+ * @author jumper
+ */
+public class StartupTest {
+
+	@Test
+	public void testDependencies() throws Exception {
+		final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch slow = new CountDownLatch(1);
+		final Thread caller = Thread.currentThread();
+		final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+		Startup startup = new Startup(Startup.DEFAULT_THREADS);
+		startup.addOnCaller("database", new Startup.Task() {
+			public void run() {
+				threads.add(Thread.currentThread());
+				order.add("database");
+			}
+		});
+		startup.add("orm", new Startup.Task() {
+			public void run() {
+				order.add("orm");
+			}
+		}, "database");
+		startup.add("dictionaries", new Startup.Task() {
+			public void run() {
+				order.add("dictionaries");
+			}
+		}, "database", "orm");
+		// a slow independent stage doesn't hold the others back
+		startup.add("parsers", new Startup.Task() {
+			public void run() throws Exception {
+				slow.await();
+				order.add("parsers");
+			}
+		});
+		startup.start();
+		startup.await("dictionaries");
+		assertEquals(3, order.size());
+		assertEquals("database", order.get(0));
+		assertEquals("orm", order.get(1));
+		assertEquals("dictionaries", order.get(2));
+		assertSame(caller, threads.get(0));
+		assertTrue(startup.getTime("dictionaries") >= 0);
+		assertEquals(-1, startup.getTime("parsers"));
+
+		slow.countDown();
+		startup.await("parsers");
+		assertEquals("parsers", order.get(3));
+		startup.shutdown();
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		final Exception failure = new Exception("database locked");
+		final List<String> run = Collections.synchronizedList(new ArrayList<String>());
+		Startup startup = new Startup(Startup.DEFAULT_THREADS);
+		startup.add("database", new Startup.Task() {
+			public void run() throws Exception {
+				throw failure;
+			}
+		});
+		startup.add("orm", new Startup.Task() {
+			public void run() {
+				run.add("orm");
+			}
+		}, "database");
+		startup.add("parsers", new Startup.Task() {
+			public void run() {
+				run.add("parsers");
+			}
+		});
+		startup.start();
+		try {
+			startup.await("orm");
+			fail("failed stage not reported");
+		} catch (Exception e) {
+			assertSame(failure, e);
+		}
+		startup.await("parsers");
+		assertFalse(run.contains("orm"));
+		assertTrue(run.contains("parsers"));
+		startup.shutdown();
+	}
+}
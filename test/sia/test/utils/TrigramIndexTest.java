@@ -0,0 +1,149 @@
+package sia.test.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import sia.datasources.DataSource;
+import sia.datasources.FMADataSource;
+import sia.models.Contact;
+import sia.test.TestDatabase;
+import sia.ui.SIA;
+import sia.utils.ConversationCursor;
+import sia.utils.Dictionaries;
+import sia.utils.MessageSearch;
+import sia.utils.TrigramIndex;
+
+/**
+ * Trigram index test.
+ *
+ * Search through the application's own index must find the same
+ * conversations as a case insensitive substring scan, also after
+ * incremental updates and after the database changed behind its back.
+ *
+ * @author jumper
+ */
+public class TrigramIndexTest {
+	private File db;
+
+	@Before
+	public void setUp() throws Exception {
+		db = TestDatabase.copy("sia-trigram-test");
+		execute("INSERT OR REPLACE INTO configuration (key, value) VALUES ('search.index', 'trigram')");
+		TestDatabase.open(db);
+	}
+
+	@After
+	public void tearDown() {
+		TestDatabase.close(db);
+	}
+
+	@Test
+	public void testIndexMatchesScan() throws Exception {
+		importFile("FmaParserTest-conversation-merge-1.xml");
+		importFile("FmaParserTest-conversation-merge-2.xml");
+		assertNotNull(SIA.getInstance().getTrigramIndex());
+		for (String phrase : new String[] { "sda", "NAJLEPSZEGO", "go :)", "nowy rok", "zzz", "50%", "D1", "" }) {
+			for (Contact contact : Dictionaries.getInstance().getContacts())
+				assertEquals(phrase, scan(contact, phrase), ids(MessageSearch.cursor(contact, phrase, "time", false)));
+		}
+	}
+
+	@Test
+	public void testIncrementalUpdate() throws Exception {
+		importFile("FmaParserTest-conversation-merge-1.xml");
+		TrigramIndex index = SIA.getInstance().getTrigramIndex();
+		long last = index.getLastMessageId();
+		assertEquals(count("SELECT MAX(id) FROM main.message"), last);
+		importFile("FmaParserTest-conversation-merge-2.xml");
+		assertTrue(index.getLastMessageId() > last);
+		assertEquals(count("SELECT COUNT(*) FROM main.message WHERE message LIKE '%najlepszego%'"),
+				index.candidates("najlepszego").length);
+	}
+
+	@Test
+	public void testReopenAndRebuild() throws Exception {
+		importFile("FmaParserTest-conversation-merge-1.xml");
+		importFile("FmaParserTest-conversation-merge-2.xml");
+		int[] before = SIA.getInstance().getTrigramIndex().candidates("wszystkiego");
+		SIA.getInstance().close(null);
+		TestDatabase.open(db);
+		assertArrayEquals(before, SIA.getInstance().getTrigramIndex().candidates("wszystkiego"));
+
+		SIA.getInstance().close(null);
+		execute("DELETE FROM message WHERE id = " + before[0]);
+		TestDatabase.open(db);
+		TrigramIndex index = SIA.getInstance().getTrigramIndex();
+		assertEquals(before.length - 1, index.candidates("wszystkiego").length);
+		assertEquals(count("SELECT MAX(id) FROM main.message"), index.getLastMessageId());
+	}
+
+	private void execute(String sql) throws Exception {
+		Connection connection = DriverManager.getConnection("jdbc:sqlite:" + db.getPath());
+		Statement stmt = connection.createStatement();
+		stmt.executeUpdate(sql);
+		stmt.close();
+		connection.close();
+	}
+
+	private static void importFile(String file) throws Exception {
+		DataSource source = new FMADataSource();
+		source.initParser();
+		source.loadFiles(new String[] { TestDatabase.resource(file) });
+		source.getUserAccounts();
+		source.getContacts();
+		source.mapContacts(Dictionaries.getInstance().getContacts());
+		List<Contact> contacts = new ArrayList<Contact>(Dictionaries.getInstance().getContacts());
+		contacts.addAll(source.getContacts());
+		source.save(contacts);
+		Dictionaries.getInstance().loadContacts();
+	}
+
+	private static Set<Integer> scan(Contact contact, String phrase) throws Exception {
+		Set<Integer> ids = new TreeSet<Integer>();
+		Statement stmt = SIA.getInstance().getConnection().createStatement();
+		ResultSet rs = stmt.executeQuery("SELECT m.conversationId, m.message FROM main.message m "
+				+ "JOIN main.conversation c ON c.id = m.conversationId "
+				+ "JOIN main.contactaccount ca ON ca.id = c.contactAccountId WHERE ca.contactId = " + contact.getId());
+		while (rs.next()) {
+			if (rs.getString(2).toLowerCase().contains(phrase.toLowerCase()))
+				ids.add(rs.getInt(1));
+		}
+		rs.close();
+		stmt.close();
+		return ids;
+	}
+
+	private static Set<Integer> ids(ConversationCursor cursor) throws Exception {
+		Set<Integer> ids = new TreeSet<Integer>();
+		for (int i = 0; i < cursor.size(); i++)
+			ids.add(cursor.get(i).getId());
+		cursor.close();
+		return ids;
+	}
+
+	private static long count(String sql) throws Exception {
+		Statement stmt = SIA.getInstance().getConnection().createStatement();
+		ResultSet rs = stmt.executeQuery(sql);
+		rs.next();
+		long count = rs.getLong(1);
+		rs.close();
+		stmt.close();
+		return count;
+	}
+}